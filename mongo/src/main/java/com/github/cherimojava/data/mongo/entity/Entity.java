@@ -30,7 +30,10 @@ public interface Entity<T extends Entity>
     public static final String ID = "_id";
 
     /**
-     * Saves the entity to MongoDB. Saving only happens if the entity has unsaved changes.
+     * Saves the entity to MongoDB. Saving only happens if the entity has unsaved changes. Lists of simple values, which
+     * were only appended to since the entity was loaded or saved, are saved by pushing the new elements. Once set,
+     * lists need to be modified through the entity (e.g. the list returned by the getter), as modifications through
+     * other references to the list can't be tracked.
      *
      * @return boolean which tells if the document was saved or not(if there were changes which needed to be saved or
      *         not)
@@ -58,6 +61,49 @@ public interface Entity<T extends Entity>
      */
     public T set( String property, Object value );
 
+    /**
+     * atomically increments the given numeric property by the given amount within MongoDB and updates this entity to
+     * the resulting value. Other than setting the property and saving the entity, concurrent increments aren't lost.
+     * Only this property is written, other changes of this entity remain unsaved. The property itself must not have
+     * unsaved changes
+     *
+     * @param property name of property to increment (Naming as it will be used within MongoDB)
+     * @param amount to add to the property, must be of the property type. Negative amounts decrement the property
+     * @return value of the property after the increment
+     * @throws IllegalArgumentException if the property isn't a declared numeric property of that entity
+     * @throws IllegalStateException if the entity isn't saved yet, no MongoDB instance is linked to this Entity or the
+     *             property has unsaved modifications, which would be lost by taking over the updated value
+     */
+    public Number increment( String property, Number amount );
+
+    /**
+     * atomically appends the given values to the given collection property within MongoDB and updates this entity to
+     * the resulting collection, including values appended concurrently. Only this property is written, other changes
+     * of this entity remain unsaved. Values added locally to the collection must be saved before, as the collection is
+     * replaced by the updated one
+     *
+     * @param property name of collection property to append to (Naming as it will be used within MongoDB)
+     * @param values to append
+     * @throws IllegalArgumentException if the property isn't a declared collection property of that entity
+     * @throws IllegalStateException if the entity isn't saved yet, no MongoDB instance is linked to this Entity or the
+     *             property has unsaved modifications, which would be lost by taking over the updated value
+     */
+    public T push( String property, Object... values );
+
+    /**
+     * atomically appends the given values to the given collection property within MongoDB, unless they're already
+     * contained, and updates this entity to the resulting collection. Only this property is written, other changes of
+     * this entity remain unsaved. Values added locally to the collection must be saved before, as the collection is
+     * replaced by the updated one
+     *
+     * @param property name of collection property to add to (Naming as it will be used within MongoDB)
+     * @param values to add if not yet contained
+     * @throws IllegalArgumentException if the property isn't a declared collection property of that entity
+     * @throws IllegalStateException if the entity isn't saved yet, no MongoDB instance is linked to this Entity or the
+     *             property has unsaved modifications, which would be lost by taking over the updated value
+     */
+    public T addToSet( String property, Object... values );
+
     /**
      * Removes the entity from the database, but doesn't remove the entity data or state.
      *
@@ -10,6 +10,7 @@ package com.github.cherimojava.data.mongo.entity;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static org.apache.commons.lang3.StringUtils.isNotEmpty;
 
 import java.lang.reflect.Modifier;
@@ -20,8 +21,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import org.bson.Document;
 import org.bson.json.JsonReader;
@@ -32,18 +39,32 @@ import com.github.cherimojava.data.mongo.entity.annotation.Collection;
 import com.github.cherimojava.data.mongo.entity.annotation.Index;
 import com.github.cherimojava.data.mongo.entity.annotation.IndexField;
 import com.github.cherimojava.data.mongo.io.EntityCodec;
+import com.github.cherimojava.data.mongo.query.IndexAdvisor;
 import com.github.cherimojava.data.mongo.query.OngoingQuery;
+import com.github.cherimojava.data.mongo.query.QueryCache;
+import com.github.cherimojava.data.mongo.query.QueryProfiler;
 import com.github.cherimojava.data.mongo.query.QueryInvocationHandler;
 import com.github.cherimojava.data.mongo.query.QueryStart;
+import com.github.cherimojava.data.mongo.query.WriteGenerations;
 import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.mongodb.MongoCommandException;
+import com.mongodb.async.SingleResultCallback;
+import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
 import com.mongodb.operation.OrderBy;
 
 /**
@@ -56,12 +77,67 @@ public class EntityFactory
 {
     private static final Logger LOG = LoggerFactory.getLogger( EntityFactory.class );
 
+    /**
+     * executor used for parallel work if none was set explicitly, threads are only created on demand
+     */
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setDaemon( true ).setNameFormat( "cherimodata-worker-%d" ).build() );
+
+    /**
+     * write generations of each database, shared by all factories (including those of the codecs) of the same
+     * database. Databases are held weakly and compared by identity, so each MongoClient has its own generations
+     */
+    private static final Map<MongoDatabase, WriteGenerations> WRITE_GENERATIONS =
+        new MapMaker().weakKeys().makeMap();
+
+    /**
+     * existence filters of each database, shared the same way as the write generations
+     */
+    private static final Map<MongoDatabase, ExistenceFilter.Registry> EXISTENCE_FILTERS =
+        new MapMaker().weakKeys().makeMap();
+
     /**
      * Where all entity for this factory will be stored. Each entity goes into it's own collection, but within the same
      * DB
      */
     private final MongoDatabase db;
 
+    /**
+     * Database used for asynchronous operations, pointing to the same database as db. Might be null if no asynchronous
+     * operations are needed
+     */
+    private final com.mongodb.async.client.MongoDatabase asyncDb;
+
+    /**
+     * executor running parallel work, like the partitions of a parallel scan
+     */
+    private ExecutorService executor = DEFAULT_EXECUTOR;
+
+    /**
+     * write generations of the collections of db, outdating the results of cached queries
+     */
+    private final WriteGenerations writeGenerations;
+
+    /**
+     * existence filters registered for the collections of db
+     */
+    private final ExistenceFilter.Registry existenceFilters;
+
+    /**
+     * cache for the results of cached queries, created on first usage
+     */
+    private QueryCache queryCache;
+
+    /**
+     * profiler recording the queries of this factory, null if queries aren't profiled
+     */
+    private volatile QueryProfiler queryProfiler;
+
+    /**
+     * advisor observing the queries of this factory, null if queries aren't observed
+     */
+    private volatile IndexAdvisor indexAdvisor;
+
     /**
      * holds to a given Entity class the corresponding MongoCollection backing it
      */
@@ -161,8 +237,27 @@ public class EntityFactory
      * @param db MongoDatabase into which Entities will be saved if created throught create method
      */
     public EntityFactory( MongoDatabase db )
+    {
+        this( db, null );
+    }
+
+    /**
+     * creates a new EntityFactory, with the given Database for storage. Additionally to the blocking operations the
+     * asynchronous ones (e.g. {@link #saveAsync(Entity)}) are available, which are executed through the given async
+     * database. Both databases must point to the same MongoDB database
+     *
+     * @param db MongoDatabase into which Entities will be saved if created throught create method
+     * @param asyncDb async MongoDatabase used for asynchronous operations
+     */
+    public EntityFactory( MongoDatabase db, com.mongodb.async.client.MongoDatabase asyncDb )
     {
         this.db = db;
+        this.asyncDb = asyncDb;
+        // factories without database (like those of codecs used for toString) can't write, so need no shared state
+        writeGenerations =
+            db == null ? new WriteGenerations() : WRITE_GENERATIONS.computeIfAbsent( db, d -> new WriteGenerations() );
+        existenceFilters = db == null ? new ExistenceFilter.Registry()
+                        : EXISTENCE_FILTERS.computeIfAbsent( db, d -> new ExistenceFilter.Registry() );
     }
 
     /**
@@ -179,6 +274,8 @@ public class EntityFactory
     {
         EntityInvocationHandler handler =
             new EntityInvocationHandler( defFactory.create( clazz ), getCollection( clazz ) );
+        handler.setWriteGenerations( writeGenerations );
+        handler.setExistenceFilters( existenceFilters );
         return instantiate( clazz, handler );
     }
 
@@ -186,12 +283,15 @@ public class EntityFactory
     {
         EntityInvocationHandler handler =
             new EntityInvocationHandler( defFactory.create( clazz ), getCollection( clazz ), id );
+        handler.setWriteGenerations( writeGenerations );
+        handler.setExistenceFilters( existenceFilters );
         T t = instantiate( clazz, handler );
         return t;
     }
 
     /**
-     * allows to load an Entity which is identified by the given id, or null if no such entity was found.
+     * allows to load an Entity which is identified by the given id, or null if no such entity was found. Ids known to
+     * be missing by the {@link ExistenceFilter} of the entity class return null without querying MongoDB.
      *
      * @param id of the document to load
      * @return Entity matching this id or null if no such entity was found
@@ -199,7 +299,45 @@ public class EntityFactory
     @SuppressWarnings( "unchecked" )
     public <T extends Entity> T load( Class<T> clazz, Object id )
     {
-        return EntityInvocationHandler.find( (MongoCollection<T>) getCollection( clazz ), id );
+        return EntityInvocationHandler.find( (MongoCollection<T>) getCollection( clazz ), id, existenceFilters );
+    }
+
+    /**
+     * loads all Entities identified by the given ids with as few queries as possible, instead of one query per id as
+     * done by {@link #load(Class, Object)}. Entities are returned in the order of the given ids, ids without a matching
+     * entity are reported as missing
+     *
+     * @param clazz entity class to load
+     * @param ids of the documents to load
+     * @param <T> Entity type
+     * @return loaded entities and the ids for which no entity was found
+     */
+    @SuppressWarnings( "unchecked" )
+    public <T extends Entity> LoadResult<T> loadAll( Class<T> clazz, Iterable<?> ids )
+    {
+        return EntityInvocationHandler.findAll( (MongoCollection<T>) getCollection( clazz ), ids, existenceFilters );
+    }
+
+    /**
+     * asynchronously loads the Entity which is identified by the given id. The returned future is completed with the
+     * entity or null if no such entity was found. The future is completed on a thread of the async driver, so
+     * dependent actions must not block
+     *
+     * @param clazz entity class to load
+     * @param id of the document to load
+     * @param <T> Entity type
+     * @return future completed with the Entity matching this id or null if no such entity was found
+     */
+    public <T extends Entity> CompletableFuture<T> loadAsync( Class<T> clazz, Object id )
+    {
+        ExistenceFilter filter = existenceFilters.of( getCollection( clazz ).getNamespace() );
+        if ( filter != null && !filter.mightExist( id ) )
+        {
+            return CompletableFuture.completedFuture( null );
+        }
+        CompletableFuture<T> future = new CompletableFuture<>();
+        getAsyncCollection( clazz ).find( new Document( Entity.ID, id ) ).limit( 1 ).first( completing( future ) );
+        return future;
     }
 
     /**
@@ -254,6 +392,172 @@ public class EntityFactory
         return db;
     }
 
+    /**
+     * sets the executor used for parallel work of this factory, like the partitions of parallel scans. By default a
+     * shared pool of daemon threads is used
+     *
+     * @param executor to run parallel work on
+     */
+    public void setExecutor( ExecutorService executor )
+    {
+        this.executor = checkNotNull( executor );
+    }
+
+    /**
+     * gets the executor used for parallel work of this factory
+     *
+     * @return executor of this factory
+     */
+    public ExecutorService getExecutor()
+    {
+        return executor;
+    }
+
+    /**
+     * sets the cache used for the results of cached queries of this factory. By default a cache holding up to 1000
+     * results for one minute is used
+     *
+     * @param queryCache caching the query results
+     */
+    public synchronized void setQueryCache( QueryCache queryCache )
+    {
+        this.queryCache = checkNotNull( queryCache );
+    }
+
+    /**
+     * gets the cache used for the results of cached queries of this factory
+     *
+     * @return query cache of this factory
+     */
+    public synchronized QueryCache getQueryCache()
+    {
+        if ( queryCache == null )
+        {
+            queryCache = new QueryCache( 1000, 1, TimeUnit.MINUTES );
+        }
+        return queryCache;
+    }
+
+    /**
+     * gets the write generations of the database of this factory, which need to be increased for writes done to its
+     * collections bypassing the factory and its entities, so that cached query results don't outlive them
+     *
+     * @return write generations shared by all factories of the database
+     */
+    public WriteGenerations getWriteGenerations()
+    {
+        return writeGenerations;
+    }
+
+    /**
+     * sets the profiler recording the executions of queries created through this factory afterwards. Profiling is
+     * disabled by default
+     *
+     * @param queryProfiler recording the queries, null to disable profiling
+     */
+    public void setQueryProfiler( QueryProfiler queryProfiler )
+    {
+        this.queryProfiler = queryProfiler;
+    }
+
+    /**
+     * gets the profiler recording the queries of this factory
+     *
+     * @return profiler of this factory or null if queries aren't profiled
+     */
+    public QueryProfiler getQueryProfiler()
+    {
+        return queryProfiler;
+    }
+
+    /**
+     * sets the index advisor observing the filter and sort fields of queries created through this factory afterwards.
+     * No advisor is set by default
+     *
+     * @param indexAdvisor observing the queries, null to stop observing
+     */
+    public void setIndexAdvisor( IndexAdvisor indexAdvisor )
+    {
+        this.indexAdvisor = indexAdvisor;
+    }
+
+    /**
+     * gets the index advisor observing the queries of this factory
+     *
+     * @return index advisor of this factory or null if queries aren't observed
+     */
+    public IndexAdvisor getIndexAdvisor()
+    {
+        return indexAdvisor;
+    }
+
+    /**
+     * sets the existence filter answering loads of not existing ids of the given entity class without querying
+     * MongoDB. The filter is filled with the ids currently existing in the collection, which requires a scan of all
+     * ids. It's used by all factories of the same MongoDatabase instance, replacing any previously set filter
+     *
+     * @param clazz entity class to filter loads for
+     * @param filter new, empty filter to register
+     */
+    public void setExistenceFilter( Class<? extends Entity> clazz, ExistenceFilter filter )
+    {
+        checkNotNull( filter );
+        MongoCollection<? extends Entity> coll = getCollection( clazz );
+        // registering first, so that ids saved while scanning get added as well
+        existenceFilters.register( coll.getNamespace(), filter );
+        try (MongoCursor<? extends Entity> cursor = coll.find().projection( new Document( Entity.ID, 1 ) ).iterator())
+        {
+            while ( cursor.hasNext() )
+            {
+                filter.add( cursor.next().get( Entity.ID ) );
+            }
+        }
+        catch ( RuntimeException e )
+        {
+            existenceFilters.unregister( coll.getNamespace() );
+            throw e;
+        }
+        filter.ready();
+    }
+
+    /**
+     * gets the existence filter of the given entity class
+     *
+     * @param clazz entity class to get the filter for
+     * @return existence filter of the entity class or null if there's none
+     */
+    public ExistenceFilter getExistenceFilter( Class<? extends Entity> clazz )
+    {
+        return existenceFilters.of( getCollection( clazz ).getNamespace() );
+    }
+
+    /**
+     * removes the existence filter of the given entity class, so that all loads query MongoDB again
+     *
+     * @param clazz entity class to remove the filter for
+     */
+    public void removeExistenceFilter( Class<? extends Entity> clazz )
+    {
+        existenceFilters.unregister( getCollection( clazz ).getNamespace() );
+    }
+
+    /**
+     * get the async mongo collection belonging to the given entity class. It shares the codecs with the blocking
+     * collection, so entities are de/encoded the same way
+     *
+     * @param clazz entity class to get the collection for
+     * @param <T> Entity type
+     * @return async collection of the given entity class
+     * @throws IllegalStateException if this factory was created without async database
+     */
+    public <T extends Entity> com.mongodb.async.client.MongoCollection<T> getAsyncCollection( Class<T> clazz )
+    {
+        checkState( asyncDb != null, "Asynchronous operations require an EntityFactory with async MongoDatabase" );
+        MongoCollection<T> coll = getCollection( clazz );
+        return asyncDb.getCollection( coll.getNamespace().getCollectionName(), clazz ).withCodecRegistry(
+            coll.getCodecRegistry() );
+    }
+
     /**
      * creates an Entity from the given JSON String which is of the given Entity class
      *
@@ -322,7 +626,112 @@ public class EntityFactory
      */
     public void save( Entity e )
     {
-        EntityInvocationHandler.save( EntityInvocationHandler.getHandler( e ), getCollection( e.entityClass() ) );
+        EntityInvocationHandler.save( EntityInvocationHandler.getHandler( e ), getCollection( e.entityClass() ),
+            writeGenerations, existenceFilters );
+    }
+
+    /**
+     * asynchronously saves the entity into the collection for this factory. The entity is inserted if it's not yet
+     * existing or updated otherwise. Validation errors are reported through the returned future as well. The future is
+     * completed on a thread of the async driver, so dependent actions must not block
+     *
+     * @param e entity to save
+     * @return future completed once the entity is saved
+     */
+    @SuppressWarnings( "unchecked" )
+    public CompletableFuture<Void> saveAsync( Entity e )
+    {
+        com.mongodb.async.client.MongoCollection<Entity> coll = getAsyncCollection( e.entityClass() );
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try
+        {
+            UpdateOneModel<Entity> model = (UpdateOneModel<Entity>) EntityInvocationHandler.upsertModel(
+                EntityInvocationHandler.getHandler( e ), getCollection( e.entityClass() ) );
+            coll.updateOne( model.getFilter(), model.getUpdate(), model.getOptions(), ( result, t ) -> {
+                if ( t != null )
+                {
+                    EntityInvocationHandler.getHandler( e ).forgetPersisted();
+                    future.completeExceptionally( t );
+                }
+                else
+                {
+                    writeGenerations.invalidate( coll.getNamespace() );
+                    existenceFilters.added( coll.getNamespace(), e.get( Entity.ID ) );
+                    EntityUtils.persist( e );
+                    future.complete( null );
+                }
+            } );
+        }
+        catch ( RuntimeException ex )
+        {
+            future.completeExceptionally( ex );
+        }
+        return future;
+    }
+
+    /**
+     * saves all given entities with a single bulk write into the collection for this factory. Entities not yet
+     * existing will be inserted, existing ones updated. The bulk write is unordered, so a failing entity doesn't stop
+     * the remaining entities from being saved
+     *
+     * @param clazz entity class of the entities to save
+     * @param entities to save, must not be empty
+     * @param <T> Entity class
+     * @return result of the bulk write, containing the number of inserted (upserted) and updated entities
+     * @throws com.mongodb.MongoBulkWriteException if some of the entities couldn't be written
+     */
+    public <T extends Entity> BulkWriteResult saveAll( Class<T> clazz, java.util.Collection<? extends T> entities )
+    {
+        checkArgument( !entities.isEmpty(), "Need at least one entity to save" );
+        MongoCollection<T> coll = getCollection( clazz );
+        List<WriteModel<T>> models = Lists.newArrayListWithCapacity( entities.size() );
+        for ( T e : entities )
+        {
+            models.add( EntityInvocationHandler.upsertModel( EntityInvocationHandler.getHandler( e ), coll ) );
+        }
+        BulkWriteResult result;
+        try
+        {
+            result = coll.bulkWrite( models, new BulkWriteOptions().ordered( false ) );
+        }
+        catch ( RuntimeException ex )
+        {
+            // encoding already marked the entities as persisted, so they must count as modified again
+            entities.forEach( e -> EntityInvocationHandler.getHandler( e ).forgetPersisted() );
+            throw ex;
+        }
+        finally
+        {
+            // even a failed bulk write might have written some entities
+            writeGenerations.invalidate( coll.getNamespace() );
+            entities.forEach( e -> existenceFilters.added( coll.getNamespace(), e.get( Entity.ID ) ) );
+        }
+        entities.forEach( EntityUtils::persist );
+        return result;
+    }
+
+    /**
+     * returns the number of entities of the given class as tracked in the collection statistics. Other than counting
+     * through a query this doesn't scan anything, but the number might be slightly off, e.g. after an unclean shutdown
+     * or on sharded collections with migrations in progress
+     *
+     * @param clazz entity class to get the number of entities for
+     * @return estimated number of entities, 0 if the collection doesn't exist yet
+     */
+    public long estimatedCount( Class<? extends Entity> clazz )
+    {
+        MongoCollection<? extends Entity> coll = getCollection( clazz );
+        try
+        {
+            Document stats = db.runCommand( new Document( "collStats", coll.getNamespace().getCollectionName() ) );
+            return ( (Number) stats.get( "count" ) ).longValue();
+        }
+        catch ( MongoCommandException e )
+        {
+            // depending on the server version collStats fails for not existing collections, while the unfiltered
+            // count, which is answered from the collection metadata as well, returns 0
+            return coll.count();
+        }
     }
 
     /**
@@ -334,11 +743,64 @@ public class EntityFactory
      */
     public <E extends Entity> QueryStart<E> query( Class<E> clazz )
     {
-        QueryInvocationHandler handler =
-            new QueryInvocationHandler( clazz, getCollection( clazz ), getProperties( clazz ) );
+        QueryInvocationHandler handler = new QueryInvocationHandler( clazz, getCollection( clazz ),
+            asyncDb != null ? getAsyncCollection( clazz ) : null, getProperties( clazz ) );
         QueryStart<E> query = (QueryStart<E>) Proxy.newProxyInstance( getClass().getClassLoader(),
             new Class[] { QueryStart.class, OngoingQuery.class }, handler );
         handler.setProxy( (OngoingQuery) query );
+        handler.setExecutor( executor );
+        handler.setQueryCache( getQueryCache() );
+        handler.setWriteGenerations( writeGenerations );
+        handler.setQueryProfiler( queryProfiler );
+        handler.setIndexAdvisor( indexAdvisor );
         return query;
     }
+
+    /**
+     * scans the whole collection of the given entity class in parallel, see
+     * {@link com.github.cherimojava.data.mongo.query.QueryEnd#parallelForEach(int, Consumer)}. To scan only some
+     * entities use the method on a query
+     *
+     * @param clazz entity class to scan
+     * @param partitions number of partitions to split the scan into, usually the number of cores
+     * @param consumer called for each entity from the worker threads, thus must be thread safe
+     * @param <E> entity class being scanned
+     */
+    @SuppressWarnings( "unchecked" )
+    public <E extends Entity> void parallelScan( Class<E> clazz, int partitions, Consumer<? super E> consumer )
+    {
+        ( (OngoingQuery<E>) query( clazz ) ).parallelForEach( partitions, consumer );
+    }
+
+    /**
+     * scans the whole collection of the given entity class as parallel stream, see
+     * {@link com.github.cherimojava.data.mongo.query.QueryEnd#parallelStream(int)}
+     *
+     * @param clazz entity class to scan
+     * @param partitions number of partitions to split the scan into, usually the number of cores
+     * @param <E> entity class being scanned
+     * @return parallel stream of all entities of the collection
+     */
+    @SuppressWarnings( "unchecked" )
+    public <E extends Entity> Stream<E> parallelStream( Class<E> clazz, int partitions )
+    {
+        return ( (OngoingQuery<E>) query( clazz ) ).parallelStream( partitions );
+    }
+
+    /**
+     * creates a callback completing the given future with the result of the async operation
+     */
+    private static <T> SingleResultCallback<T> completing( CompletableFuture<T> future )
+    {
+        return ( result, t ) -> {
+            if ( t != null )
+            {
+                future.completeExceptionally( t );
+            }
+            else
+            {
+                future.complete( result );
+            }
+        };
+    }
 }
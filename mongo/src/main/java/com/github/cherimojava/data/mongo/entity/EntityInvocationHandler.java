@@ -15,29 +15,48 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static java.lang.String.format;
 
+import java.lang.reflect.Array;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
 
 import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.bson.BsonArray;
 import org.bson.BsonDocument;
 import org.bson.BsonDocumentWrapper;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonValue;
 import org.bson.Document;
+import org.bson.codecs.Encoder;
+import org.bson.codecs.EncoderContext;
 import org.bson.codecs.ValueCodecProvider;
 import org.bson.codecs.configuration.CodecRegistries;
 import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.types.ObjectId;
+import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.cherimojava.data.mongo.io.EntityCodec;
+import com.github.cherimojava.data.mongo.query.WriteGenerations;
 import com.google.common.base.Defaults;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.primitives.Primitives;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.result.UpdateResult;
 
 /**
@@ -52,6 +71,11 @@ class EntityInvocationHandler
 
     private static final Logger LOG = LoggerFactory.getLogger( EntityInvocationHandler.class );
 
+    /**
+     * max number of ids queried at once by {@link #findAll(MongoCollection, Iterable)}
+     */
+    static final int LOAD_CHUNK_SIZE = 2000;
+
     // TODO should be its own class
     /* registry containing information about codecs for encoding ids */
     private static CodecRegistry idRegistry = CodecRegistries.fromProviders( new ValueCodecProvider() );
@@ -98,6 +122,37 @@ class EntityInvocationHandler
      */
     Map<String, Object> data;
 
+    /**
+     * cached fingerprint of the current data, null if it needs to be computed
+     */
+    private String fingerprint;
+
+    /**
+     * copy of the contained collections, maps, arrays and entities the cached fingerprint was computed from
+     */
+    private Map<String, Object> fingerprintState;
+
+    /**
+     * set while the fingerprint is computed, to break cycles of contained entities
+     */
+    private boolean fingerprinting;
+
+    /**
+     * properties set or added to since this entity was persisted. Together with the tracked lists used to detect
+     * unsaved modifications, which would be lost through atomic updates
+     */
+    private Set<String> modified = Sets.newHashSet();
+
+    /**
+     * write generations of the database this entity is stored in, own ones unless created through an EntityFactory
+     */
+    private WriteGenerations writeGenerations = new WriteGenerations();
+
+    /**
+     * existence filters of the database this entity is stored in, own ones unless created through an EntityFactory
+     */
+    private ExistenceFilter.Registry existenceFilters = new ExistenceFilter.Registry();
+
     /**
      * creates a new Handler for the given EntityProperties (Entity class). No Mongo reference will be created meaning
      * Mongo based operations like (.save()) are not supported
@@ -138,6 +193,27 @@ class EntityInvocationHandler
         _put( properties.getProperty( Entity.ID ), id );
     }
 
+    /**
+     * sets the write generations of the database this entity is stored in, which are increased by its writes
+     *
+     * @param writeGenerations write generations of the database
+     */
+    void setWriteGenerations( WriteGenerations writeGenerations )
+    {
+        this.writeGenerations = writeGenerations;
+    }
+
+    /**
+     * sets the existence filters of the database this entity is stored in, which are used for loading and updated by
+     * saving
+     *
+     * @param existenceFilters existence filters of the database
+     */
+    void setExistenceFilters( ExistenceFilter.Registry existenceFilters )
+    {
+        this.existenceFilters = existenceFilters;
+    }
+
     /**
      * actual method which is invoked once the lazy entity is about to be filled with life
      */
@@ -145,8 +221,11 @@ class EntityInvocationHandler
     {
         if ( lazy )
         {
-            data = ( (EntityInvocationHandler) Proxy.getInvocationHandler( find( collection, data.get( ID ) ) ) ).data;
+            EntityInvocationHandler loaded = (EntityInvocationHandler) Proxy
+                .getInvocationHandler( find( collection, data.get( ID ), existenceFilters ) );
+            data = loaded.data;
             lazy = false;
+            fingerprint = null;
         }
     }
 
@@ -175,6 +254,28 @@ class EntityInvocationHandler
                 lazyLoad();
                 _put( checkPropertyExists( (String) args[0] ), args[1] );
                 return proxy;
+            case "increment":
+                pp = checkAtomicUpdate( (String) args[0] );
+                checkArgument( Number.class.isAssignableFrom( Primitives.wrap( pp.getType() ) ),
+                    "Property %s isn't numeric", pp.getMongoName() );
+                checkArgument( Primitives.wrap( pp.getType() ).isInstance( args[1] ),
+                    "Amount to increment %s by must be of type %s", pp.getMongoName(), pp.getType() );
+                return atomicUpdate( pp, new Document( "$inc", new Document( pp.getMongoName(), args[1] ) ) );
+            case "push":/* fallthrough */
+            case "addToSet":
+                pp = checkAtomicUpdate( (String) args[0] );
+                checkArgument( pp.isCollection() && Collection.class.isAssignableFrom( pp.getType() ),
+                    "Property %s isn't a collection", pp.getMongoName() );
+                List<Object> values = Lists.newArrayList();
+                for ( Object value : (Object[]) args[1] )
+                {
+                    checkArgument( pp.getGenericType().isInstance( value ), "Can't add %s to collection of %s", value,
+                        pp.getGenericType() );
+                    values.add( value.getClass().isEnum() ? value.toString() : value );
+                }
+                atomicUpdate( pp, new Document( "$" + methodName,
+                    new Document( pp.getMongoName(), new Document( "$each", values ) ) ) );
+                return proxy;
             case "save":
                 checkState( collection != null,
                     "Entity was created without MongoDB reference. You have to save the entity through an EntityFactory" );
@@ -188,7 +289,7 @@ class EntityInvocationHandler
                         // TODO we can release this if it's of type ObjectId
                         checkNotNull( data.get( ID ), "An explicit defined Id must be set before saving" );
                     }
-                    save( this, collection );
+                    save( this, collection, writeGenerations, existenceFilters );
                     // change state only after successful saving to Mongo
                     saving = false;// we're done with saving next one, can write object. Which isn't coming from within
                                    // this
@@ -204,7 +305,7 @@ class EntityInvocationHandler
             case "drop":
                 checkState( collection != null,
                     "Entity was created without MongoDB reference. You have to drop the entity through an EntityFactory" );
-                drop( this, collection );
+                drop( this, collection, writeGenerations, existenceFilters );
                 return null;
             case "equals":
                 lazyLoad();
@@ -223,7 +324,7 @@ class EntityInvocationHandler
             case "load":
                 checkState( collection != null,
                     "Entity was created without MongoDB reference. You have to load entities through an EntityFactory" );
-                return find( collection, args[0] );
+                return find( collection, args[0], existenceFilters );
         }
 
         lazyLoad();
@@ -291,10 +392,71 @@ class EntityInvocationHandler
         return pp;
     }
 
+    /**
+     * verifies that the given property can be updated atomically, which requires a MongoDB reference and a plain
+     * modifiable property
+     *
+     * @param propertyName mongoDB name of property to update
+     * @return ParameterProperty belonging to the given PropertyName
+     */
+    private ParameterProperty checkAtomicUpdate( String propertyName )
+    {
+        checkState( collection != null,
+            "Entity was created without MongoDB reference. You have to update the entity through an EntityFactory" );
+        checkNotSealed();
+        ParameterProperty pp = checkPropertyExists( propertyName );
+        checkNotFinal( pp );
+        checkArgument( !ID.equals( pp.getMongoName() ), "Id of an entity can't be updated" );
+        checkArgument( !pp.isComputed() && !pp.isTransient() && !pp.isReference(),
+            "Computed, transient or reference property %s can't be updated atomically", propertyName );
+        return pp;
+    }
+
+    /**
+     * applies the given update to the document of this entity and takes over the resulting value of the given
+     * property. Only the updated property is read back, so other (unsaved) properties are left untouched. As the
+     * updated property is replaced, it must not have unsaved modifications, which would be lost otherwise
+     *
+     * @param pp property being updated
+     * @param update document updating the property
+     * @return value of the property after the update
+     */
+    private Object atomicUpdate( ParameterProperty pp, Document update )
+    {
+        checkState( !isModified( pp ),
+            "Property %s has unsaved modifications, save the entity before updating the property atomically",
+            pp.getMongoName() );
+        Entity updated = (Entity) collection.findOneAndUpdate( new Document( ID, data.get( ID ) ), update,
+            new FindOneAndUpdateOptions().projection( new Document( pp.getMongoName(), 1 ) )
+                .returnDocument( ReturnDocument.AFTER ) );
+        checkState( updated != null, "Entity must be saved before its properties can be updated atomically" );
+        writeGenerations.invalidate( collection.getNamespace() );
+        Object value = getHandler( updated ).data.get( pp.getMongoName() );
+        data.put( pp.getMongoName(), value );
+        // the property is now in sync with the database
+        modified.remove( pp.getMongoName() );
+        track( pp );
+        fingerprint = null;
+        return data.get( pp.getMongoName() );
+    }
+
+    /**
+     * tells if the given property was modified since this entity was persisted. Modifications done through setters,
+     * adders and the lists returned by getters are detected, direct modifications of other collections are not
+     */
+    private boolean isModified( ParameterProperty pp )
+    {
+        Object value = data.get( pp.getMongoName() );
+        return modified.contains( pp.getMongoName() )
+            || ( value instanceof TrackedList && ( (TrackedList) value ).isModified() );
+    }
+
     @SuppressWarnings( "unchecked" )
     private void _add( ParameterProperty pp, Object value )
     {
         checkNotSealed();
+        fingerprint = null;
+        modified.add( pp.getMongoName() );
         if ( data.get( pp.getMongoName() ) == null )
         {
             try
@@ -340,7 +502,14 @@ class EntityInvocationHandler
         checkNotSealed();
         checkNotFinal( pp );
         pp.validate( value );
+        if ( value instanceof TrackedList )
+        {
+            // list of another property, which tracks the modifications of that property
+            value = Lists.newArrayList( (List<?>) value );
+        }
         data.put( pp.getMongoName(), value );
+        modified.add( pp.getMongoName() );
+        fingerprint = null;
     }
 
     /**
@@ -440,31 +609,224 @@ class EntityInvocationHandler
         return new EntityCodec<>( null, properties ).asString( proxy );
     }
 
+    /**
+     * returns a fingerprint of the current state of the entity. Entities with equal data have the same fingerprint,
+     * independent of the order in which their properties were set. The fingerprint is computed by the EntityCodec
+     * while encoding and cached until the entity is modified. As modifications of contained collections, maps, arrays
+     * or entities can't be tracked, they're compared against a copy taken when the fingerprint was computed, which is
+     * far cheaper than encoding the entity again
+     *
+     * @return hex String fingerprint of the entity state
+     */
+    String fingerprint()
+    {
+        lazyLoad();
+        if ( fingerprinting )
+        {
+            // entities containing each other, the codec breaks such cycles as well
+            return "";
+        }
+        fingerprinting = true;
+        try
+        {
+            Map<String, Object> state = containedState();
+            if ( fingerprint == null || !state.equals( fingerprintState ) )
+            {
+                fingerprint = new EntityCodec<>( null, properties ).fingerprint( proxy );
+                fingerprintState = state;
+            }
+            return fingerprint;
+        }
+        finally
+        {
+            fingerprinting = false;
+        }
+    }
+
+    /**
+     * copies the contained collections, maps, arrays and entities, so that modifications done to them directly can be
+     * detected. Contained entities are represented by their fingerprint, referenced ones by their id
+     */
+    private Map<String, Object> containedState()
+    {
+        Map<String, Object> state = Maps.newHashMap();
+        for ( ParameterProperty pp : properties.getProperties() )
+        {
+            Object value = data.get( pp.getMongoName() );
+            if ( !pp.isTransient() && ( value instanceof Collection || value instanceof Map || value instanceof Entity
+                || ( value != null && value.getClass().isArray() ) ) )
+            {
+                state.put( pp.getMongoName(), copyState( value, pp.isReference() ) );
+            }
+        }
+        return state;
+    }
+
+    private static Object copyState( Object value, boolean reference )
+    {
+        if ( value instanceof Entity )
+        {
+            return reference ? EntityCodec._getId( (Entity) value ) : getHandler( (Entity) value ).fingerprint();
+        }
+        if ( value instanceof Collection )
+        {
+            List<Object> copy = Lists.newArrayList();
+            for ( Object element : (Collection) value )
+            {
+                copy.add( copyState( element, reference ) );
+            }
+            return copy;
+        }
+        if ( value instanceof Map )
+        {
+            Map<Object, Object> copy = Maps.newHashMap();
+            for ( Map.Entry<?, ?> entry : ( (Map<?, ?>) value ).entrySet() )
+            {
+                copy.put( entry.getKey(), copyState( entry.getValue(), false ) );
+            }
+            return copy;
+        }
+        if ( value != null && value.getClass().isArray() )
+        {
+            List<Object> copy = Lists.newArrayList();
+            for ( int i = 0; i < Array.getLength( value ); i++ )
+            {
+                copy.add( copyState( Array.get( value, i ), reference ) );
+            }
+            return copy;
+        }
+        return value;
+    }
+
     /**
      * stores the given EntityInvocationHandler represented Entity in the given Collection
      *
      * @param handler EntityInvocationHandler (Entity) to save
      * @param coll MongoCollection to save entity into
+     * @param writeGenerations write generations of the database of the collection
+     * @param existenceFilters existence filters of the database of the collection
      */
     @SuppressWarnings( "unchecked" )
-    static <T extends Entity> void save( EntityInvocationHandler handler, MongoCollection<T> coll )
+    static <T extends Entity> void save( EntityInvocationHandler handler, MongoCollection<T> coll,
+        WriteGenerations writeGenerations, ExistenceFilter.Registry existenceFilters )
+    {
+        validate( handler );
+        try
+        {
+            UpdateResult res =
+                coll.updateOne( idFilter( handler ), updateDocument( handler, coll ), new UpdateOptions() );
+            if ( res.getMatchedCount() == 0 )
+            {
+                // TODO this seems too nasty, there must be a better way.for now live with it
+                coll.insertOne( (T) handler.proxy );
+            }
+        }
+        catch ( RuntimeException e )
+        {
+            handler.forgetPersisted();
+            throw e;
+        }
+        writeGenerations.invalidate( coll.getNamespace() );
+        existenceFilters.added( coll.getNamespace(), handler.data.get( ID ) );
+        handler.persist();
+    }
+
+    /**
+     * creates an upserting write model for the given EntityInvocationHandler represented Entity, which will update the
+     * existing document or insert it if it's not yet existing. Allows to save multiple entities with a single bulk
+     * write
+     *
+     * @param handler EntityInvocationHandler (Entity) to save
+     * @param coll MongoCollection to save entity into
+     * @return WriteModel saving the given entity
+     */
+    static <T extends Entity> WriteModel<T> upsertModel( EntityInvocationHandler handler, MongoCollection<T> coll )
+    {
+        validate( handler );
+        if ( handler.properties.hasExplicitId() )
+        {
+            checkNotNull( handler.data.get( ID ), "An explicit defined Id must be set before saving" );
+        }
+        return new UpdateOneModel<>( idFilter( handler ), setDocument( handler, coll ),
+            new UpdateOptions().upsert( true ) );
+    }
+
+    /**
+     * validates all constraint carrying properties of the given EntityInvocationHandler represented Entity
+     *
+     * @param handler EntityInvocationHandler (Entity) to validate
+     * @throws javax.validation.ConstraintViolationException if a property doesn't comply with its constraints
+     */
+    static void validate( EntityInvocationHandler handler )
     {
         for ( ParameterProperty cpp : handler.properties.getValidationProperties() )
         {
             cpp.validate( handler.data.get( cpp.getMongoName() ) );
         }
+    }
+
+    /**
+     * creates the filter matching the document of the given handler, an id will be created if none exists yet
+     */
+    private static BsonDocument idFilter( EntityInvocationHandler handler )
+    {
+        return new BsonDocument( "_id",
+            BsonDocumentWrapper.asBsonDocument( EntityCodec._obtainId( handler.proxy ), idRegistry ) );
+    }
+
+    /**
+     * creates the $set update document containing all properties of the given handler
+     */
+    @SuppressWarnings( "unchecked" )
+    private static BsonDocument setDocument( EntityInvocationHandler handler, MongoCollection<?> coll )
+    {
         BsonDocumentWrapper wrapper = new BsonDocumentWrapper<>( handler.proxy,
             (org.bson.codecs.Encoder<Entity>) coll.getCodecRegistry().get( handler.properties.getEntityClass() ) );
-        UpdateResult res = coll.updateOne(
-            new BsonDocument( "_id",
-                BsonDocumentWrapper.asBsonDocument( EntityCodec._obtainId( handler.proxy ), idRegistry ) ),
-            new BsonDocument( "$set", wrapper ), new UpdateOptions() );
-        if ( res.getMatchedCount() == 0 )
+        return new BsonDocument( "$set", wrapper );
+    }
+
+    /**
+     * creates the update document for the given handler. Lists of a persisted entity, which were only appended to
+     * since the entity was persisted, are updated through $push of the appended elements, everything else through
+     * $set
+     */
+    @SuppressWarnings( "unchecked" )
+    private static BsonDocument updateDocument( EntityInvocationHandler handler, MongoCollection<?> coll )
+    {
+        // determine the appended lists before encoding, as encoding marks the entity as persisted
+        Map<String, Integer> appended = Maps.newHashMap();
+        for ( ParameterProperty pp : handler.properties.getProperties() )
+        {
+            Object value = handler.data.get( pp.getMongoName() );
+            if ( value instanceof TrackedList && isAppendable( pp ) && ( (TrackedList) value ).appendedTo() >= 0 )
+            {
+                appended.put( pp.getMongoName(), ( (TrackedList) value ).appendedTo() );
+            }
+        }
+        if ( !handler.persisted || appended.isEmpty() )
         {
-            // TODO this seems too nasty, there must be a better way.for now live with it
-            coll.insertOne( (T) handler.proxy );
+            return setDocument( handler, coll );
         }
-        handler.persist();
+        BsonDocument set = new BsonDocument();
+        ( (Encoder<Entity>) coll.getCodecRegistry().get( handler.properties.getEntityClass() ) )
+            .encode( new BsonDocumentWriter( set ), handler.proxy, EncoderContext.builder().build() );
+        BsonDocument push = new BsonDocument();
+        for ( Map.Entry<String, Integer> list : appended.entrySet() )
+        {
+            BsonValue encoded = set.remove( list.getKey() );
+            if ( encoded != null && encoded.asArray().size() > list.getValue() )
+            {
+                List<BsonValue> elements = encoded.asArray().getValues();
+                BsonArray each = new BsonArray( elements.subList( list.getValue(), elements.size() ) );
+                push.put( list.getKey(), new BsonDocument( "$each", each ) );
+            }
+        }
+        BsonDocument update = new BsonDocument( "$set", set );
+        if ( !push.isEmpty() )
+        {
+            update.put( "$push", push );
+        }
+        return update;
     }
 
     /**
@@ -472,30 +834,117 @@ class EntityInvocationHandler
      *
      * @param handler EntityInvocationHandler (Entity) to drop
      * @param coll MongoCollection in which this entity is saved
+     * @param writeGenerations write generations of the database of the collection
+     * @param existenceFilters existence filters of the database of the collection
      */
-    static <T extends Entity> void drop( EntityInvocationHandler handler, MongoCollection<T> coll )
+    static <T extends Entity> void drop( EntityInvocationHandler handler, MongoCollection<T> coll,
+        WriteGenerations writeGenerations, ExistenceFilter.Registry existenceFilters )
     {
-        coll.findOneAndDelete( new Document( ID, ( handler.proxy ).get( ID ) ) );
+        ExistenceFilter filter = existenceFilters.of( coll.getNamespace() );
+        long generation = filter != null ? filter.generation() : 0;
+        Object id = ( handler.proxy ).get( ID );
+        coll.findOneAndDelete( new Document( ID, id ) );
+        writeGenerations.invalidate( coll.getNamespace() );
+        if ( filter != null )
+        {
+            filter.missing( id, generation );
+        }
     }
 
     /**
      * searches for the given Id within the MongoCollection and returns, if the id was found the corresponding entity.
-     * If the entity wasn't found null will be returned
+     * If the entity wasn't found null will be returned. If an {@link ExistenceFilter} is registered for the collection
+     * ids known to be missing aren't queried
      *
      * @param collection where the entity class is stored in
      * @param id of the entity to load
+     * @param existenceFilters existence filters of the database of the collection
      * @param <T> Type of the entity
      * @return returns the entity belonging to the given Id within the collection or null if no such entity exists in
      *         the given collection
      */
     @SuppressWarnings( "unchecked" )
-    static <T extends Entity> T find( MongoCollection<T> collection, Object id )
+    static <T extends Entity> T find( MongoCollection<T> collection, Object id,
+        ExistenceFilter.Registry existenceFilters )
     {
+        ExistenceFilter filter = existenceFilters.of( collection.getNamespace() );
+        if ( filter != null && !filter.mightExist( id ) )
+        {
+            return null;
+        }
+        long generation = filter != null ? filter.generation() : 0;
         try (MongoCursor<? extends Entity> curs =
             collection.find( new Document( Entity.ID, id ) ).limit( 1 ).iterator())
         {
-            return (T) ( ( curs.hasNext() ) ? curs.next() : null );
+            if ( curs.hasNext() )
+            {
+                return (T) curs.next();
+            }
+        }
+        if ( filter != null )
+        {
+            filter.missing( id, generation );
         }
+        return null;
+    }
+
+    /**
+     * searches for all given ids within the MongoCollection. Ids are queried through $in filters of at most
+     * {@link #LOAD_CHUNK_SIZE} ids each, so that the number of round trips doesn't grow with each id. Ids are matched
+     * to the loaded entities the way MongoDB matches them, so numeric ids are found regardless of their number type. If
+     * an {@link ExistenceFilter} is registered for the collection ids known to be missing aren't queried
+     *
+     * @param collection where the entity class is stored in
+     * @param ids of the entities to load, duplicates are loaded only once
+     * @param existenceFilters existence filters of the database of the collection
+     * @param <T> Type of the entity
+     * @return loaded entities in the order of the given ids and the ids for which no entity exists
+     */
+    @SuppressWarnings( "unchecked" )
+    static <T extends Entity> LoadResult<T> findAll( MongoCollection<T> collection, Iterable<?> ids,
+        ExistenceFilter.Registry existenceFilters )
+    {
+        Set<Object> requested = Sets.newLinkedHashSet();
+        for ( Object id : ids )
+        {
+            requested.add( checkNotNull( id, "Can't load entity with null id" ) );
+        }
+        ExistenceFilter filter = existenceFilters.of( collection.getNamespace() );
+        long generation = filter != null ? filter.generation() : 0;
+        Set<Object> queried =
+            filter != null ? Sets.newHashSet( Iterables.filter( requested, filter::mightExist ) ) : requested;
+        Set<Object> keys = Sets.newHashSet( Iterables.transform( requested, ExistenceFilter::normalize ) );
+        Map<Object, T> found = Maps.newHashMapWithExpectedSize( requested.size() );
+        boolean unmatched = false;
+        for ( List<Object> chunk : Iterables.partition( queried, LOAD_CHUNK_SIZE ) )
+        {
+            for ( T entity : collection.find( new Document( ID, new Document( "$in", chunk ) ) ) )
+            {
+                Object key = ExistenceFilter.normalize( entity.get( ID ) );
+                unmatched |= !keys.contains( key );
+                found.put( key, entity );
+            }
+        }
+        Map<Object, T> entities = Maps.newLinkedHashMap();
+        List<Object> missing = Lists.newArrayList();
+        for ( Object id : requested )
+        {
+            T entity = found.get( ExistenceFilter.normalize( id ) );
+            if ( entity != null )
+            {
+                entities.put( id, entity );
+            }
+            else
+            {
+                missing.add( id );
+                // a document not matching any requested id means some id couldn't be matched, so it might exist
+                if ( filter != null && !unmatched && queried.contains( id ) )
+                {
+                    filter.missing( id, generation );
+                }
+            }
+        }
+        return new LoadResult<>( entities, missing );
     }
 
     /**
@@ -526,5 +975,65 @@ class EntityInvocationHandler
     public void persist()
     {
         persisted = true;
+        modified.clear();
+        for ( ParameterProperty pp : properties.getProperties() )
+        {
+            track( pp );
+        }
+    }
+
+    /**
+     * marks the list of the given property as persisted. Lists are wrapped instead of copied, so that only the number
+     * of persisted elements needs to be kept. Only random access lists are wrapped, as the wrapper accesses elements
+     * by index
+     */
+    private void track( ParameterProperty pp )
+    {
+        Object value = data.get( pp.getMongoName() );
+        if ( value instanceof List && value instanceof RandomAccess && isTracked( pp ) )
+        {
+            TrackedList<?> list = TrackedList.of( (List<?>) value );
+            list.persisted();
+            data.put( pp.getMongoName(), list );
+        }
+    }
+
+    /**
+     * forgets the state taken when this entity was persisted, so that all properties count as modified and lists are
+     * completely written on the next save. Needed if a save failed, as encoding the entity already marks it as
+     * persisted
+     */
+    void forgetPersisted()
+    {
+        modified.addAll( data.keySet() );
+        for ( Object value : data.values() )
+        {
+            if ( value instanceof TrackedList )
+            {
+                ( (TrackedList) value ).forget();
+            }
+        }
+    }
+
+    /**
+     * lists are tracked if the property is declared as interface, so that the list can be wrapped
+     */
+    private static boolean isTracked( ParameterProperty pp )
+    {
+        return pp.isCollection() && pp.getType().isAssignableFrom( TrackedList.class );
+    }
+
+    /**
+     * only lists of immutable elements can be appended to, as changes to contained mutable elements can't be detected
+     */
+    private static boolean isAppendable( ParameterProperty pp )
+    {
+        Class<?> element = pp.getGenericType();
+        if ( !isTracked( pp ) || pp.isTransient() || pp.isReference() )
+        {
+            return false;
+        }
+        return Primitives.isWrapperType( element ) || String.class.equals( element ) || ObjectId.class.equals( element )
+            || DateTime.class.equals( element );
     }
 }
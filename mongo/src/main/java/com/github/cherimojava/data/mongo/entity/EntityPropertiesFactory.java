@@ -48,7 +48,7 @@ class EntityPropertiesFactory
      * list of methods allowed although not conforming to Entity convention
      */
     private static List<String> allowedMethods = ImmutableList.copyOf( Lists.newArrayList( "drop", "get", "set",
-        "equals", "hashCode", "toString", "save", "seal", "load", "entityClass" ) );
+        "equals", "hashCode", "toString", "save", "seal", "load", "entityClass", "increment", "push", "addToSet" ) );
 
     /**
      * builds a validation factory used for validating Entities
@@ -18,13 +18,21 @@ import java.lang.reflect.Array;
 import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.util.Collection;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 import javax.inject.Named;
 
 import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
 
 import com.github.cherimojava.data.mongo.entity.annotation.Id;
+import com.github.cherimojava.data.mongo.entity.annotation.Index;
+import com.github.cherimojava.data.mongo.entity.annotation.IndexField;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.primitives.Primitives;
 
 /**
@@ -143,6 +151,37 @@ public class EntityUtils
         return uncapitalize( clazz.getSimpleName() + "s" );
     }
 
+    /**
+     * returns the indexes of the given Entity class by their name, this is the index on _id and all indexes declared
+     * through the Collection annotation. Indexes without explicit name are named like MongoDB does (e.g. field_1)
+     *
+     * @param clazz Entity of which the indexes shall be retrieved
+     * @return key document of each index by its name, in the order of declaration
+     */
+    public static Map<String, Document> getIndexes( Class<? extends Entity> clazz )
+    {
+        Map<String, Document> indexes = Maps.newLinkedHashMap();
+        indexes.put( "_id_", new Document( Entity.ID, 1 ) );
+        com.github.cherimojava.data.mongo.entity.annotation.Collection c =
+            clazz.getAnnotation( com.github.cherimojava.data.mongo.entity.annotation.Collection.class );
+        if ( c != null )
+        {
+            for ( Index index : c.indexes() )
+            {
+                Document keys = new Document();
+                List<String> name = Lists.newArrayList();
+                for ( IndexField field : index.value() )
+                {
+                    int order = field.order() == IndexField.Ordering.ASC ? 1 : -1;
+                    keys.put( field.field(), order );
+                    name.add( field.field() + "_" + order );
+                }
+                indexes.put( isNotEmpty( index.name() ) ? index.name() : Joiner.on( "_" ).join( name ), keys );
+            }
+        }
+        return indexes;
+    }
+
     /**
      * returns the setter method of the given getter method or throws an exception if no such method exists
      *
@@ -284,6 +323,29 @@ public class EntityUtils
         return EntityInvocationHandler.getHandler( e ).persisted;
     }
 
+    /**
+     * validates the given entity against the constraints declared for its properties, just like it's done on save
+     *
+     * @param e entity to validate
+     * @throws javax.validation.ConstraintViolationException if a property doesn't comply with its constraints
+     */
+    public static void validate( Entity e )
+    {
+        EntityInvocationHandler.validate( EntityInvocationHandler.getHandler( e ) );
+    }
+
+    /**
+     * returns a fingerprint of the current state of the given entity, which can be used to cheaply detect if an entity
+     * changed, e.g. as HTTP ETag. Entities with equal data have equal fingerprints
+     *
+     * @param e entity to get the fingerprint from
+     * @return hex String fingerprint of the entity state
+     */
+    public static String fingerprint( Entity e )
+    {
+        return EntityInvocationHandler.getHandler( e ).fingerprint();
+    }
+
     /**
      * returns true if this getter methods return type is either an entity or a list of entities. Otherwise false
      * 
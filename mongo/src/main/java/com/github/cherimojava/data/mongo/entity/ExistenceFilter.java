@@ -0,0 +1,269 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.entity;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.mongodb.MongoNamespace;
+
+/**
+ * Summary of the ids existing within a collection, which allows to answer loads of not existing ids without querying
+ * MongoDB. It's registered for an entity class through
+ * {@link EntityFactory#setExistenceFilter(Class, ExistenceFilter)}, which fills it with the ids existing at that
+ * time. The filter answers loads of all EntityFactories of the same MongoDatabase instance, collections of the same
+ * name within other databases or clusters aren't affected. Afterwards the ids of entities saved through entities or
+ * EntityFactories of any MongoDatabase instance of that name are added, so saves through another instance of the same
+ * database (e.g. from another getDatabase call) don't make it stale. An id not contained in the bloom filter
+ * definitely doesn't exist, so loading it returns null right away. Optionally ids found to be missing are kept within
+ * a negative cache, so that repeated loads of the same missing id, which passed the bloom filter as false positive,
+ * don't query MongoDB either until the cache entry expires.
+ * <p>
+ * As the summary is kept within this JVM, entities inserted by other applications aren't known to it and can't be
+ * loaded until the filter is registered again. So only use it for collections written solely through this JVM.
+ *
+ * @author philnate
+ * @since 1.0.0
+ */
+public final class ExistenceFilter
+{
+    /**
+     * ids are funneled by their string representation, integral numbers being normalized as MongoDB matches them
+     * regardless of their type. Differing ids with the same representation are just false positives
+     */
+    private static final Funnel<Object> ID_FUNNEL = ( id, into ) -> into.putString( key( id ), Charsets.UTF_8 );
+
+    /**
+     * bloom filter isn't thread safe, so access is synchronized on it
+     */
+    private final BloomFilter<Object> ids;
+
+    /**
+     * ids known to be missing, null if there's no negative cache
+     */
+    private final Cache<Object, Boolean> missing;
+
+    /**
+     * increased with every added id, so that a load racing with a save doesn't cache the saved id as missing
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * filter isn't used until all existing ids are added
+     */
+    private volatile boolean ready;
+
+    /**
+     * creates a new filter without negative cache
+     *
+     * @param expectedIds number of ids expected to be added over the lifetime of the filter, exceeding it raises the
+     *            false positive rate
+     * @param fpp desired false positive probability, must be between 0 and 1 exclusive
+     */
+    public ExistenceFilter( int expectedIds, double fpp )
+    {
+        this( expectedIds, fpp, 0, 1, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * creates a new filter with a negative cache of the given bounds
+     *
+     * @param expectedIds number of ids expected to be added over the lifetime of the filter, exceeding it raises the
+     *            false positive rate
+     * @param fpp desired false positive probability, must be between 0 and 1 exclusive
+     * @param missingSize max number of missing ids to cache, 0 disables the negative cache
+     * @param ttl time after which a cached missing id expires
+     * @param unit unit of the ttl
+     */
+    public ExistenceFilter( int expectedIds, double fpp, long missingSize, long ttl, TimeUnit unit )
+    {
+        checkArgument( expectedIds > 0, "Expected number of ids must be positive, but was %s", expectedIds );
+        checkArgument( fpp > 0 && fpp < 1, "False positive probability must be between 0 and 1, but was %s", fpp );
+        checkArgument( missingSize >= 0, "Negative cache size must not be negative, but was %s", missingSize );
+        checkArgument( ttl > 0, "Time to live must be positive, but was %s", ttl );
+        ids = BloomFilter.create( ID_FUNNEL, expectedIds, fpp );
+        missing = missingSize == 0 ? null
+                        : CacheBuilder.newBuilder().maximumSize( missingSize ).expireAfterWrite( ttl, unit )
+                            .<Object, Boolean> build();
+    }
+
+    /**
+     * tells if an entity with the given id might exist. If false is returned no such entity exists
+     *
+     * @param id to check
+     * @return false if there's definitely no entity with the given id, true otherwise
+     */
+    public boolean mightExist( Object id )
+    {
+        if ( !ready )
+        {
+            return true;
+        }
+        if ( missing != null && missing.getIfPresent( normalize( id ) ) != null )
+        {
+            return false;
+        }
+        synchronized ( ids )
+        {
+            return ids.mightContain( id );
+        }
+    }
+
+    /**
+     * returns the current generation, which must be read before querying an id, which might then be reported as
+     * missing
+     */
+    long generation()
+    {
+        return generation.get();
+    }
+
+    /**
+     * remembers the given id as missing, if no id was added since the given generation was read
+     */
+    void missing( Object id, long generation )
+    {
+        if ( missing != null )
+        {
+            Object key = normalize( id );
+            missing.put( key, Boolean.TRUE );
+            // an id added in between might be the given one, so don't keep it as missing
+            if ( this.generation.get() != generation )
+            {
+                missing.invalidate( key );
+            }
+        }
+    }
+
+    /**
+     * adds the given id of an existing entity
+     */
+    void add( Object id )
+    {
+        generation.incrementAndGet();
+        synchronized ( ids )
+        {
+            ids.put( id );
+        }
+        if ( missing != null )
+        {
+            missing.invalidate( normalize( id ) );
+        }
+    }
+
+    /**
+     * marks the filter as complete, so that it gets used
+     */
+    void ready()
+    {
+        ready = true;
+    }
+
+    private static String key( Object id )
+    {
+        return normalize( id ).toString();
+    }
+
+    /**
+     * normalizes the given id, so that ids MongoDB considers equal are equal in java as well. Integral numbers are
+     * returned as Long, as MongoDB matches for example an Int32 id with an Int64 or Double of the same value
+     *
+     * @param id to normalize
+     * @return Long for integral numbers, the given id otherwise
+     */
+    public static Object normalize( Object id )
+    {
+        if ( id instanceof Number )
+        {
+            Number number = (Number) id;
+            if ( number.doubleValue() == number.longValue() )
+            {
+                return number.longValue();
+            }
+        }
+        return id;
+    }
+
+    /**
+     * filters registered for the collections of one MongoDatabase instance. Only the registering instance answers loads
+     * through its filters, as a collection of the same name might be reached through an instance of another cluster.
+     * Ids saved through any instance are added to all filters of the collection name though, as separate instances of
+     * the same database (e.g. from two calls of getDatabase) don't share their registry. For filters of another
+     * cluster these are just additional false positives
+     */
+    static final class Registry
+    {
+        /**
+         * filters of all registries by their collection, so that saves through any instance reach them
+         */
+        private static final ConcurrentMap<MongoNamespace, Set<ExistenceFilter>> ALL = Maps.newConcurrentMap();
+
+        private final ConcurrentMap<MongoNamespace, ExistenceFilter> filters = Maps.newConcurrentMap();
+
+        /**
+         * registers the given filter for the given collection, replacing any previously registered one. The filter is
+         * used once it's marked as ready
+         */
+        void register( MongoNamespace namespace, ExistenceFilter filter )
+        {
+            checkState( !filter.ready, "Filter is already registered" );
+            ALL.computeIfAbsent( namespace, ns -> Sets.newConcurrentHashSet() ).add( filter );
+            ExistenceFilter previous = filters.put( namespace, filter );
+            if ( previous != null )
+            {
+                ALL.get( namespace ).remove( previous );
+            }
+        }
+
+        /**
+         * returns the filter registered for the given collection or null if there's none
+         */
+        ExistenceFilter of( MongoNamespace namespace )
+        {
+            return filters.get( namespace );
+        }
+
+        /**
+         * removes the filter registered for the given collection
+         */
+        void unregister( MongoNamespace namespace )
+        {
+            ExistenceFilter filter = filters.remove( namespace );
+            if ( filter != null )
+            {
+                ALL.get( namespace ).remove( filter );
+            }
+        }
+
+        /**
+         * adds the given id to all filters of the given collection name, if there are any. Needs to be called for each
+         * saved entity
+         */
+        void added( MongoNamespace namespace, Object id )
+        {
+            Set<ExistenceFilter> registered = ALL.get( namespace );
+            if ( registered != null && id != null )
+            {
+                registered.forEach( filter -> filter.add( id ) );
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.entity;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Entities loaded through {@link EntityFactory#loadAll(Class, Iterable)}. Entities are kept in the order their ids
+ * were requested in, ids without a matching entity are reported as missing.
+ *
+ * @param <T> Entity type
+ * @author philnate
+ * @since 1.0.0
+ */
+public final class LoadResult<T extends Entity>
+    implements Iterable<T>
+{
+    private final Map<Object, T> entities;
+
+    private final List<Object> missingIds;
+
+    LoadResult( Map<Object, T> entities, List<Object> missingIds )
+    {
+        this.entities = Collections.unmodifiableMap( entities );
+        this.missingIds = Collections.unmodifiableList( missingIds );
+    }
+
+    /**
+     * returns the found entities in the order their ids were requested in
+     */
+    public List<T> getEntities()
+    {
+        return Lists.newArrayList( entities.values() );
+    }
+
+    /**
+     * returns the found entities by their id, iterating in the order the ids were requested in
+     */
+    public Map<Object, T> asMap()
+    {
+        return entities;
+    }
+
+    /**
+     * returns the requested ids for which no entity was found, in the order they were requested in
+     */
+    public List<Object> getMissingIds()
+    {
+        return missingIds;
+    }
+
+    /**
+     * tells if an entity was found for each requested id
+     */
+    public boolean isComplete()
+    {
+        return missingIds.isEmpty();
+    }
+
+    @Override
+    public Iterator<T> iterator()
+    {
+        return entities.values().iterator();
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.entity;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * List property of an entity, which keeps track of how it was modified since the entity was persisted. Instead of a
+ * copy of the persisted elements only their number is kept, so lists which were only appended to since can be saved
+ * through $push of the new elements. The list wraps the list set or decoded, so modifications must be done through
+ * the entity (e.g. the list returned by the getter), as modifications through other references to the wrapped list
+ * can't be tracked.
+ *
+ * @param <E> element type
+ * @author philnate
+ * @since 1.0.0
+ */
+final class TrackedList<E>
+    extends AbstractList<E>
+    implements RandomAccess
+{
+    private final List<E> delegate;
+
+    /**
+     * number of elements when the entity was persisted, -1 if it wasn't persisted yet
+     */
+    private int persistedSize = -1;
+
+    /**
+     * true if elements were replaced, removed or inserted since the entity was persisted
+     */
+    private boolean rewritten = false;
+
+    /**
+     * @param delegate random access list to track
+     */
+    TrackedList( List<E> delegate )
+    {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public E get( int index )
+    {
+        return delegate.get( index );
+    }
+
+    @Override
+    public int size()
+    {
+        return delegate.size();
+    }
+
+    @Override
+    public E set( int index, E element )
+    {
+        rewritten = true;
+        return delegate.set( index, element );
+    }
+
+    @Override
+    public void add( int index, E element )
+    {
+        if ( index != delegate.size() )
+        {
+            rewritten = true;
+        }
+        delegate.add( index, element );
+        modCount++;
+    }
+
+    @Override
+    public E remove( int index )
+    {
+        rewritten = true;
+        E removed = delegate.remove( index );
+        modCount++;
+        return removed;
+    }
+
+    /**
+     * marks the current elements as persisted
+     */
+    void persisted()
+    {
+        persistedSize = delegate.size();
+        rewritten = false;
+    }
+
+    /**
+     * forgets the persisted elements, so that the list is rewritten completely on the next save
+     */
+    void forget()
+    {
+        rewritten = true;
+    }
+
+    /**
+     * returns the number of persisted elements, if the list was only appended to since it was persisted, -1 otherwise
+     */
+    int appendedTo()
+    {
+        return rewritten ? -1 : persistedSize;
+    }
+
+    /**
+     * tells if the list was modified in any way since it was persisted
+     */
+    boolean isModified()
+    {
+        return rewritten || delegate.size() != persistedSize;
+    }
+
+    /**
+     * returns the given list wrapped, unless it's already tracked
+     */
+    static <E> TrackedList<E> of( List<E> list )
+    {
+        return list instanceof TrackedList ? (TrackedList<E>) list : new TrackedList<>( list );
+    }
+}
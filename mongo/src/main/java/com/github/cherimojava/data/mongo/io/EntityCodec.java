@@ -13,9 +13,14 @@ import static java.lang.String.format;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.List;
 
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWriter;
 import org.bson.BsonObjectId;
 import org.bson.BsonReader;
 import org.bson.BsonString;
@@ -28,6 +33,7 @@ import org.bson.codecs.CollectibleCodec;
 import org.bson.codecs.DecoderContext;
 import org.bson.codecs.EncoderContext;
 import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.io.BasicOutputBuffer;
 import org.bson.json.JsonWriter;
 import org.bson.types.ObjectId;
 import org.slf4j.Logger;
@@ -40,6 +46,7 @@ import com.github.cherimojava.data.mongo.entity.EntityUtils;
 import com.github.cherimojava.data.mongo.entity.ParameterProperty;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 
@@ -495,6 +502,63 @@ public class EntityCodec<T extends Entity>
         return codecRegistry.get( clazz );
     }
 
+    /**
+     * returns the raw BSON representation of the given entity. Other than encoding through the codec interface this
+     * doesn't mark the entity as persisted
+     *
+     * @param value entity to encode
+     * @return BSON document bytes of the entity
+     */
+    public byte[] asBson( T value )
+    {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        try (BsonBinaryWriter writer = new BsonBinaryWriter( buffer ))
+        {
+            encode( writer, value, false, Lists.<T> newArrayList() );
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * returns a fingerprint of the given entity, being the hash of its BSON representation. As properties are encoded
+     * in a fixed order entities with equal data have equal fingerprints. Doesn't mark the entity as persisted
+     *
+     * @param value entity to fingerprint
+     * @return hex String fingerprint of the entity
+     */
+    public String fingerprint( T value )
+    {
+        return Hashing.murmur3_128().hashBytes( asBson( value ) ).toString();
+    }
+
+    /**
+     * returns the given entity as BsonDocument. Other than encoding through the codec interface this doesn't mark the
+     * entity as persisted
+     *
+     * @param value entity to encode
+     * @return BsonDocument representing the entity
+     */
+    public BsonDocument asDocument( T value )
+    {
+        BsonDocument document = new BsonDocument();
+        encode( new BsonDocumentWriter( document ), value, false, Lists.<T> newArrayList() );
+        return document;
+    }
+
+    /**
+     * decodes the given raw BSON document bytes into an entity
+     *
+     * @param bson BSON document bytes
+     * @return entity represented by the given bytes
+     */
+    public T fromBson( byte[] bson )
+    {
+        try (BsonBinaryReader reader = new BsonBinaryReader( ByteBuffer.wrap( bson ) ))
+        {
+            return decode( reader, null );
+        }
+    }
+
     public String asString( T value )
     {
         try (StringWriter swriter = new StringWriter(); JsonWriter writer = new JsonWriter( swriter ))
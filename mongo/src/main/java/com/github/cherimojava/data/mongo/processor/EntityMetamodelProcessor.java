@@ -0,0 +1,318 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.processor;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+/**
+ * Annotation processor generating a query metamodel class for each public Entity interface. For an entity Person a
+ * class Person_ (Outer_Person_ for nested interfaces) is generated within the same package, holding a
+ * {@link com.github.cherimojava.data.mongo.query.QueryProperty} constant per property. The constants carry the mongo
+ * name and type of the property and can be used to build queries without the recording entity proxy. The processor is
+ * registered as service and runs automatically once the mongo jar is on the compile classpath.
+ *
+ * @author philnate
+ * @since 1.0.0
+ */
+@SupportedAnnotationTypes( "*" )
+public class EntityMetamodelProcessor
+    extends AbstractProcessor
+{
+    private static final String ENTITY = "com.github.cherimojava.data.mongo.entity.Entity";
+
+    private static final String QUERY_PROPERTY = "com.github.cherimojava.data.mongo.query.QueryProperty";
+
+    private static final String ID = "com.github.cherimojava.data.mongo.entity.annotation.Id";
+
+    private static final String NAMED = "javax.inject.Named";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process( Set<? extends TypeElement> annotations, RoundEnvironment roundEnv )
+    {
+        TypeElement entity = processingEnv.getElementUtils().getTypeElement( ENTITY );
+        if ( entity == null )
+        {
+            // Entity isn't on the classpath, so there's nothing to do
+            return false;
+        }
+        for ( Element element : roundEnv.getRootElements() )
+        {
+            processType( element, entity );
+        }
+        // other processors may be interested in the same annotations
+        return false;
+    }
+
+    private void processType( Element element, TypeElement entity )
+    {
+        if ( !( element instanceof TypeElement ) || element.getModifiers().contains( Modifier.PRIVATE ) )
+        {
+            // generated code can't access private types
+            return;
+        }
+        TypeElement type = (TypeElement) element;
+        if ( type.getKind() == ElementKind.INTERFACE && !type.equals( entity ) && isEntity( type.asType(), entity ) )
+        {
+            generate( type );
+        }
+        for ( Element enclosed : type.getEnclosedElements() )
+        {
+            processType( enclosed, entity );
+        }
+    }
+
+    private boolean isEntity( TypeMirror type, TypeElement entity )
+    {
+        return processingEnv.getTypeUtils().isAssignable( processingEnv.getTypeUtils().erasure( type ),
+            processingEnv.getTypeUtils().erasure( entity.asType() ) );
+    }
+
+    /**
+     * writes the metamodel class for the given Entity
+     */
+    private void generate( TypeElement type )
+    {
+        String pkg = processingEnv.getElementUtils().getPackageOf( type ).getQualifiedName().toString();
+        String simpleName = getMetamodelName( type );
+        String entityName = type.getQualifiedName().toString();
+
+        // collect properties, subinterfaces may redeclare getters, so keep only the first found
+        Map<String, String> properties = new LinkedHashMap<>();
+        for ( Element member : processingEnv.getElementUtils().getAllMembers( type ) )
+        {
+            if ( member.getKind() != ElementKind.METHOD )
+            {
+                continue;
+            }
+            ExecutableElement method = (ExecutableElement) member;
+            String declaring = ( (TypeElement) method.getEnclosingElement() ).getQualifiedName().toString();
+            if ( ENTITY.equals( declaring ) || Object.class.getName().equals( declaring )
+                || method.getModifiers().contains( Modifier.STATIC ) || method.getModifiers().contains( Modifier.DEFAULT )
+                || !method.getParameters().isEmpty() )
+            {
+                continue;
+            }
+            String pojoName = getPojoName( method.getSimpleName().toString() );
+            if ( pojoName == null || properties.containsKey( pojoName ) )
+            {
+                continue;
+            }
+            TypeMirror returnType = method.getReturnType();
+            if ( returnType.getKind() == TypeKind.VOID || isPrivate( returnType ) )
+            {
+                continue;
+            }
+            if ( returnType.getKind().isPrimitive() )
+            {
+                returnType = processingEnv.getTypeUtils().boxedClass( (PrimitiveType) returnType ).asType();
+            }
+            String erasure = processingEnv.getTypeUtils().erasure( returnType ).toString();
+            String valueType = containsTypeVariable( returnType ) ? erasure : returnType.toString();
+            // generic types can only be referenced through their raw class
+            String typeLiteral = valueType.equals( erasure ) ? erasure + ".class" : "(Class) " + erasure + ".class";
+            properties.put( pojoName, format( "    public static final %s<%s, %s> %s =\n        %s.of( %s.class, \"%s\", %s );\n",
+                QUERY_PROPERTY, entityName, valueType, getFieldName( pojoName ), QUERY_PROPERTY, entityName,
+                getMongoName( method, pojoName ), typeLiteral ) );
+        }
+
+        String qualifiedName = pkg.isEmpty() ? simpleName : pkg + "." + simpleName;
+        try (Writer writer = processingEnv.getFiler().createSourceFile( qualifiedName, type ).openWriter())
+        {
+            if ( !pkg.isEmpty() )
+            {
+                writer.write( "package " + pkg + ";\n\n" );
+            }
+            writer.write( "/**\n * Query metamodel of {@link " + entityName + "}, generated by " + getClass().getName()
+                + "\n */\n" );
+            writer.write( "@SuppressWarnings( { \"unchecked\", \"rawtypes\" } )\n" );
+            writer.write( "public final class " + simpleName + "\n{\n" );
+            for ( String property : properties.values() )
+            {
+                writer.write( property );
+            }
+            writer.write( "\n    private " + simpleName + "()\n    {\n    }\n}\n" );
+        }
+        catch ( IOException e )
+        {
+            processingEnv.getMessager().printMessage( Diagnostic.Kind.ERROR,
+                "Failed to write metamodel " + qualifiedName + ": " + e.getMessage(), type );
+        }
+    }
+
+    /**
+     * returns the name of the metamodel class, being the simple name of the entity (prefixed by the enclosing types)
+     * followed by an underscore
+     */
+    private static String getMetamodelName( TypeElement type )
+    {
+        StringBuilder name = new StringBuilder( type.getSimpleName() ).append( "_" );
+        Element enclosing = type.getEnclosingElement();
+        while ( enclosing instanceof TypeElement )
+        {
+            name.insert( 0, enclosing.getSimpleName() + "_" );
+            enclosing = enclosing.getEnclosingElement();
+        }
+        return name.toString();
+    }
+
+    /**
+     * returns the property name of the given getter, or null if the method is no getter. Mirrors
+     * EntityUtils#getPojoNameFromMethod
+     */
+    private static String getPojoName( String methodName )
+    {
+        if ( methodName.startsWith( "get" ) && methodName.length() > 3 )
+        {
+            return decapitalize( methodName.substring( 3 ) );
+        }
+        if ( methodName.startsWith( "is" ) && methodName.length() > 2 )
+        {
+            return decapitalize( methodName.substring( 2 ) );
+        }
+        return null;
+    }
+
+    /**
+     * returns the mongo name of the given getter. Mirrors EntityUtils#getMongoNameFromMethod
+     */
+    private static String getMongoName( ExecutableElement method, String pojoName )
+    {
+        String named = null;
+        boolean id = false;
+        for ( AnnotationMirror annotation : method.getAnnotationMirrors() )
+        {
+            String annotationName =
+                ( (TypeElement) annotation.getAnnotationType().asElement() ).getQualifiedName().toString();
+            if ( NAMED.equals( annotationName ) )
+            {
+                for ( Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : annotation
+                    .getElementValues().entrySet() )
+                {
+                    if ( "value".equals( value.getKey().getSimpleName().toString() ) )
+                    {
+                        named = (String) value.getValue().getValue();
+                    }
+                }
+            }
+            id |= ID.equals( annotationName );
+        }
+        if ( named != null )
+        {
+            return named;
+        }
+        if ( id || "id".equals( pojoName.toLowerCase( Locale.US ) ) )
+        {
+            return "_id";
+        }
+        return pojoName;
+    }
+
+    /**
+     * mirrors EntityUtils#decapitalize
+     */
+    private static String decapitalize( String name )
+    {
+        if ( name.length() == 1 )
+        {
+            return name.toLowerCase( Locale.ENGLISH );
+        }
+        for ( char c : name.toCharArray() )
+        {
+            if ( !Character.isUpperCase( c ) )
+            {
+                return Character.toLowerCase( name.charAt( 0 ) ) + name.substring( 1 );
+            }
+        }
+        return name;
+    }
+
+    private static String getFieldName( String pojoName )
+    {
+        return SourceVersion.isKeyword( pojoName ) ? pojoName + "_" : pojoName;
+    }
+
+    /**
+     * checks if the given type or one of its enclosing types is private, so that it can't be referenced
+     */
+    private static boolean isPrivate( TypeMirror type )
+    {
+        if ( type.getKind() != TypeKind.DECLARED )
+        {
+            return false;
+        }
+        Element element = ( (DeclaredType) type ).asElement();
+        while ( element instanceof TypeElement )
+        {
+            if ( element.getModifiers().contains( Modifier.PRIVATE ) )
+            {
+                return true;
+            }
+            element = element.getEnclosingElement();
+        }
+        return false;
+    }
+
+    /**
+     * checks if the given type refers to type variables or wildcards, which can't be used within the metamodel
+     */
+    private static boolean containsTypeVariable( TypeMirror type )
+    {
+        switch ( type.getKind() )
+        {
+            case TYPEVAR:/* fallthrough */
+            case WILDCARD:/* fallthrough */
+            case ERROR:
+                return true;
+            case ARRAY:
+                return containsTypeVariable( ( (ArrayType) type ).getComponentType() );
+            case DECLARED:
+                for ( TypeMirror argument : ( (DeclaredType) type ).getTypeArguments() )
+                {
+                    if ( containsTypeVariable( argument ) )
+                    {
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.query;
+
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Sets;
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+
+/**
+ * Handle to cancel running queries, see {@link QueryEnd#cancelWith(CancellationToken)}. Cancelling closes the cursors
+ * of all queries using this token, which kills them on the server. Afterwards reading from these cursors fails with a
+ * {@link CancellationException}. A request already waiting for the server can't be interrupted, use
+ * {@link QueryEnd#maxTime(long, java.util.concurrent.TimeUnit)} to bound it. A token can be shared among multiple
+ * queries, once cancelled it stays cancelled.
+ *
+ * @author philnate
+ * @since 1.0.0
+ */
+public final class CancellationToken
+{
+    private static final Logger LOG = LoggerFactory.getLogger( CancellationToken.class );
+
+    private final Set<MongoCursor<?>> cursors = Sets.newConcurrentHashSet();
+
+    private volatile boolean cancelled = false;
+
+    /**
+     * cancels all queries using this token
+     */
+    public void cancel()
+    {
+        cancelled = true;
+        for ( MongoCursor<?> cursor : cursors )
+        {
+            close( cursor );
+        }
+    }
+
+    /**
+     * tells if this token was cancelled
+     */
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * throws a CancellationException if this token was cancelled
+     */
+    void checkNotCancelled()
+    {
+        if ( cancelled )
+        {
+            throw new CancellationException( "Query was cancelled" );
+        }
+    }
+
+    /**
+     * registers the given cursor, so that it gets closed once this token gets cancelled
+     *
+     * @param cursor to close on cancellation
+     * @return cursor failing with a CancellationException once this token is cancelled
+     */
+    <E> MongoCursor<E> register( MongoCursor<E> cursor )
+    {
+        cursors.add( cursor );
+        if ( cancelled )
+        {
+            // cancelled while the query was started
+            close( cursor );
+        }
+        return new CancellableCursor<>( cursor );
+    }
+
+    private void close( MongoCursor<?> cursor )
+    {
+        cursors.remove( cursor );
+        try
+        {
+            cursor.close();
+        }
+        catch ( RuntimeException e )
+        {
+            LOG.debug( "Failed to close cursor of cancelled query", e );
+        }
+    }
+
+    /**
+     * cursor checking for cancellation before each access
+     */
+    private class CancellableCursor<E>
+        implements MongoCursor<E>
+    {
+        private final MongoCursor<E> cursor;
+
+        CancellableCursor( MongoCursor<E> cursor )
+        {
+            this.cursor = cursor;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            checkNotCancelled();
+            return cursor.hasNext();
+        }
+
+        @Override
+        public E next()
+        {
+            checkNotCancelled();
+            return cursor.next();
+        }
+
+        @Override
+        public E tryNext()
+        {
+            checkNotCancelled();
+            return cursor.tryNext();
+        }
+
+        @Override
+        public void close()
+        {
+            cursors.remove( cursor );
+            cursor.close();
+        }
+
+        @Override
+        public ServerCursor getServerCursor()
+        {
+            return cursor.getServerCursor();
+        }
+
+        @Override
+        public ServerAddress getServerAddress()
+        {
+            return cursor.getServerAddress();
+        }
+    }
+}
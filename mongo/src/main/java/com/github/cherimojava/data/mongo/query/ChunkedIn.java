@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.query;
+
+import java.util.List;
+import java.util.Map;
+
+import org.bson.conversions.Bson;
+
+import com.github.cherimojava.data.mongo.entity.ExistenceFilter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.mongodb.client.model.Filters;
+
+/**
+ * $in filter with too many values to be sent within a single query. Large $in filters bloat the query document and
+ * are planned poorly by the server, so the values are split into chunks, which are queried separately.
+ *
+ * @author philnate
+ * @since 1.0.0
+ */
+final class ChunkedIn
+{
+    /**
+     * max number of values per chunk, $in filters with more values are chunked
+     */
+    static final int CHUNK_SIZE = 2000;
+
+    private final String property;
+
+    /**
+     * distinct values, so that no document matches multiple chunks. Integral numbers are compared as MongoDB matches
+     * them, so that e.g. 1 and 1L don't end up in different chunks
+     */
+    private final List<Object> values;
+
+    /**
+     * position of the complete $in filter within the filters of the query
+     */
+    private final int index;
+
+    ChunkedIn( String property, Object[] values, int index )
+    {
+        this.property = property;
+        Map<Object, Object> distinct = Maps.newLinkedHashMap();
+        for ( Object value : values )
+        {
+            distinct.putIfAbsent( value == null ? null : ExistenceFilter.normalize( value ), value );
+        }
+        this.values = Lists.newArrayList( distinct.values() );
+        this.index = index;
+    }
+
+    /**
+     * creates one filter per chunk, each consisting of the given query filters with the complete $in filter replaced
+     * by the $in filter of the chunk
+     *
+     * @param filters of the query, containing the complete $in filter
+     * @return filters of the chunks
+     */
+    List<Bson> chunkFilters( List<Bson> filters )
+    {
+        List<Bson> chunkFilters = Lists.newArrayList();
+        for ( List<Object> chunk : Lists.partition( values, CHUNK_SIZE ) )
+        {
+            List<Bson> chunkFilter = Lists.newArrayList( filters );
+            chunkFilter.set( index, Filters.in( property, chunk ) );
+            chunkFilters.add( Filters.and( chunkFilter.toArray( new Bson[] {} ) ) );
+        }
+        return chunkFilters;
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.query;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.codecs.Decoder;
+import org.bson.codecs.DecoderContext;
+
+import com.github.cherimojava.data.mongo.entity.Entity;
+import com.mongodb.client.MongoCursor;
+
+/**
+ * Spliterator over a cursor of plain documents, decoding them into entities only once they're consumed. Splitting
+ * takes batches of documents from the cursor (growing with each split), so parallel streams decode these batches on
+ * their worker threads while the splitting thread continues reading from the cursor. The cursor is closed once it's
+ * exhausted.
+ *
+ * @param <E> entity type
+ * @author philnate
+ * @since 1.0.0
+ */
+class DecodingSpliterator<E extends Entity>
+    implements Spliterator<E>
+{
+    /**
+     * growth of the batch size per split
+     */
+    private static final int BATCH_UNIT = 1 << 10;
+
+    /**
+     * max number of documents handed out per split
+     */
+    private static final int MAX_BATCH = 1 << 20;
+
+    private final MongoCursor<BsonDocument> cursor;
+
+    private final Decoder<E> decoder;
+
+    private int batch = 0;
+
+    DecodingSpliterator( MongoCursor<BsonDocument> cursor, Decoder<E> decoder )
+    {
+        this.cursor = cursor;
+        this.decoder = decoder;
+    }
+
+    @Override
+    public boolean tryAdvance( Consumer<? super E> action )
+    {
+        if ( cursor.hasNext() )
+        {
+            action.accept( decode( decoder, cursor.next() ) );
+            return true;
+        }
+        cursor.close();
+        return false;
+    }
+
+    @Override
+    public void forEachRemaining( Consumer<? super E> action )
+    {
+        while ( cursor.hasNext() )
+        {
+            action.accept( decode( decoder, cursor.next() ) );
+        }
+        cursor.close();
+    }
+
+    @Override
+    public Spliterator<E> trySplit()
+    {
+        if ( !cursor.hasNext() )
+        {
+            return null;
+        }
+        int n = Math.min( batch + BATCH_UNIT, MAX_BATCH );
+        BsonDocument[] documents = new BsonDocument[n];
+        int i = 0;
+        do
+        {
+            documents[i] = cursor.next();
+        }
+        while ( ++i < n && cursor.hasNext() );
+        batch = i;
+        return new BatchSpliterator<>( documents, 0, i, decoder );
+    }
+
+    @Override
+    public long estimateSize()
+    {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics()
+    {
+        return ORDERED | NONNULL;
+    }
+
+    private static <E> E decode( Decoder<E> decoder, BsonDocument document )
+    {
+        return decoder.decode( new BsonDocumentReader( document ), DecoderContext.builder().build() );
+    }
+
+    /**
+     * Spliterator over an already fetched batch of documents
+     */
+    private static class BatchSpliterator<E>
+        implements Spliterator<E>
+    {
+        private final BsonDocument[] documents;
+
+        private final Decoder<E> decoder;
+
+        private int index;
+
+        private final int fence;
+
+        BatchSpliterator( BsonDocument[] documents, int origin, int fence, Decoder<E> decoder )
+        {
+            this.documents = documents;
+            this.index = origin;
+            this.fence = fence;
+            this.decoder = decoder;
+        }
+
+        @Override
+        public boolean tryAdvance( Consumer<? super E> action )
+        {
+            if ( index < fence )
+            {
+                BsonDocument document = documents[index];
+                // release the document as soon as it's decoded
+                documents[index++] = null;
+                action.accept( decode( decoder, document ) );
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public Spliterator<E> trySplit()
+        {
+            int mid = ( index + fence ) >>> 1;
+            if ( mid <= index )
+            {
+                return null;
+            }
+            Spliterator<E> prefix = new BatchSpliterator<>( documents, index, mid, decoder );
+            index = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize()
+        {
+            return fence - index;
+        }
+
+        @Override
+        public int characteristics()
+        {
+            return ORDERED | NONNULL | SIZED | SUBSIZED;
+        }
+    }
+}
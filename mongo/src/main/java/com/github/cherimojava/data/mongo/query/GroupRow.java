@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.query;
+
+import org.bson.Document;
+
+import com.google.common.primitives.Primitives;
+
+/**
+ * One group of a {@link QueryGroup}, holding the values of the grouped properties and the accumulated values of the
+ * group
+ *
+ * @author philnate
+ * @since 1.0.0
+ */
+public final class GroupRow
+{
+    private final Document keys;
+
+    private final Document values;
+
+    GroupRow( Document document )
+    {
+        Object id = document.remove( "_id" );
+        this.keys = id instanceof Document ? (Document) id : new Document();
+        this.values = document;
+    }
+
+    /**
+     * returns the value of the given grouped property for this group
+     *
+     * @param property mongo name of the grouped property
+     * @return value of the grouped property, null if the entities of this group don't have the property set
+     */
+    public Object getKey( String property )
+    {
+        return keys.get( keyName( property ) );
+    }
+
+    /**
+     * returns the value of the given grouped metamodel property for this group
+     *
+     * @param property grouped metamodel property
+     * @param <T>
+     * @return value of the grouped property, null if the entities of this group don't have the property set
+     */
+    @SuppressWarnings( "unchecked" )
+    public <T> T getKey( QueryProperty<?, T> property )
+    {
+        Object value = getKey( property.getMongoName() );
+        if ( value != null && property.getType().isEnum() )
+        {
+            // enums are stored by their name
+            return (T) Enum.valueOf( (Class<? extends Enum>) property.getType(), (String) value );
+        }
+        return Primitives.wrap( property.getType() ).cast( value );
+    }
+
+    /**
+     * returns the accumulated value of the given name
+     *
+     * @param name of the accumulated value
+     * @return accumulated value, null if there's no such value
+     */
+    public Object get( String name )
+    {
+        return values.get( name );
+    }
+
+    /**
+     * returns the numeric accumulated value of the given name as long, e.g. a count or sum
+     *
+     * @param name of the accumulated value
+     * @return accumulated value as long
+     */
+    public long getLong( String name )
+    {
+        return ( (Number) values.get( name ) ).longValue();
+    }
+
+    /**
+     * returns the numeric accumulated value of the given name as double, e.g. an average
+     *
+     * @param name of the accumulated value
+     * @return accumulated value as double
+     */
+    public double getDouble( String name )
+    {
+        return ( (Number) values.get( name ) ).doubleValue();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "GroupRow{keys=" + keys + ", values=" + values + "}";
+    }
+
+    /**
+     * name of the given grouped property within the group id, as field names there can't contain dots
+     */
+    static String keyName( String property )
+    {
+        return property.replace( '.', '_' );
+    }
+}
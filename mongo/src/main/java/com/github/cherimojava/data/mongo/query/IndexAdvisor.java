@@ -0,0 +1,385 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.query;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+
+import com.github.cherimojava.data.mongo.entity.Entity;
+import com.github.cherimojava.data.mongo.entity.EntityUtils;
+import com.github.cherimojava.data.mongo.entity.annotation.Index;
+import com.github.cherimojava.data.mongo.entity.annotation.IndexField;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Observes the filter and sort fields of the queries run through the fluent query API and compares them with the
+ * indexes declared for the entity classes through
+ * {@link com.github.cherimojava.data.mongo.entity.annotation.Collection#indexes()}. Query patterns not served by any
+ * declared index are reported along with a suggested index, whose fields are ordered by the equality-sort-range rule:
+ * fields matched by equality first, followed by the sort fields and finally the fields matched by range. Declared
+ * indexes not serving any observed query are reported as unused, except for unique indexes which are needed for their
+ * constraint anyway.
+ * <p>
+ * The analysis is based on the query shapes only, the index actually chosen by the server can be checked through the
+ * {@link QueryProfiler}.
+ *
+ * @author philnate
+ * @since 1.0.0
+ */
+public final class IndexAdvisor
+{
+    private final ConcurrentMap<Class<? extends Entity>, ConcurrentMap<Pattern, AtomicLong>> patterns =
+        Maps.newConcurrentMap();
+
+    /**
+     * records a query against the given entity class
+     *
+     * @param clazz queried entity class
+     * @param filter rendered filter of the query
+     * @param sort rendered sort of the query
+     */
+    void record( Class<? extends Entity> clazz, BsonDocument filter, BsonDocument sort )
+    {
+        Set<String> equality = Sets.newHashSet();
+        Set<String> range = Sets.newHashSet();
+        classify( filter, equality, range );
+        range.removeAll( equality );
+        if ( equality.isEmpty() && range.isEmpty() && sort.isEmpty() )
+        {
+            // no index can help a query without criteria
+            return;
+        }
+        Pattern pattern = new Pattern( equality, sort, range );
+        patterns.computeIfAbsent( clazz, c -> Maps.newConcurrentMap() )
+            .computeIfAbsent( pattern, p -> new AtomicLong() ).incrementAndGet();
+    }
+
+    /**
+     * returns suggestions for indexes missing for the observed queries of the given entity class, ordered by the
+     * number of queries which would be served by them
+     *
+     * @param clazz entity class to get the suggestions for
+     * @return suggested indexes
+     */
+    public List<IndexSuggestion> getMissingIndexes( Class<? extends Entity> clazz )
+    {
+        Map<String, Document> indexes = EntityUtils.getIndexes( clazz );
+        Map<Document, Long> missing = Maps.newLinkedHashMap();
+        for ( Map.Entry<Pattern, AtomicLong> entry : getPatterns( clazz ).entrySet() )
+        {
+            if ( !isServed( entry.getKey(), indexes.values() ) )
+            {
+                Document keys = entry.getKey().suggest();
+                missing.merge( keys, entry.getValue().get(), Long::sum );
+            }
+        }
+        List<IndexSuggestion> suggestions = Lists.newArrayList();
+        for ( Map.Entry<Document, Long> entry : missing.entrySet() )
+        {
+            suggestions.add( new IndexSuggestion( clazz, entry.getKey(), entry.getValue() ) );
+        }
+        suggestions.sort( ( a, b ) -> Long.compare( b.getQueries(), a.getQueries() ) );
+        return suggestions;
+    }
+
+    /**
+     * returns the names of the declared indexes, which didn't serve any of the observed queries of the given entity
+     * class. Unique indexes and the _id index are never reported
+     *
+     * @param clazz entity class to get the unused indexes for
+     * @return names of the unused indexes
+     */
+    public Set<String> getUnusedIndexes( Class<? extends Entity> clazz )
+    {
+        Set<Document> unique = Sets.newHashSet();
+        com.github.cherimojava.data.mongo.entity.annotation.Collection c =
+            clazz.getAnnotation( com.github.cherimojava.data.mongo.entity.annotation.Collection.class );
+        if ( c != null )
+        {
+            for ( Index index : c.indexes() )
+            {
+                if ( index.unique() )
+                {
+                    Document keys = new Document();
+                    for ( IndexField field : index.value() )
+                    {
+                        keys.put( field.field(), field.order() == IndexField.Ordering.ASC ? 1 : -1 );
+                    }
+                    unique.add( keys );
+                }
+            }
+        }
+        Set<String> unused = Sets.newLinkedHashSet();
+        for ( Map.Entry<String, Document> index : EntityUtils.getIndexes( clazz ).entrySet() )
+        {
+            if ( "_id_".equals( index.getKey() ) || unique.contains( index.getValue() ) )
+            {
+                continue;
+            }
+            boolean used = false;
+            for ( Pattern pattern : getPatterns( clazz ).keySet() )
+            {
+                used |= serves( index.getValue(), pattern );
+            }
+            if ( !used )
+            {
+                unused.add( index.getKey() );
+            }
+        }
+        return unused;
+    }
+
+    /**
+     * creates a human readable report of the missing and unused indexes of all observed entity classes
+     *
+     * @return report with one line per missing or unused index
+     */
+    public String report()
+    {
+        StringBuilder report = new StringBuilder();
+        for ( Class<? extends Entity> clazz : patterns.keySet() )
+        {
+            for ( IndexSuggestion suggestion : getMissingIndexes( clazz ) )
+            {
+                report.append( suggestion ).append( '\n' );
+            }
+            for ( String name : getUnusedIndexes( clazz ) )
+            {
+                report.append( clazz.getName() ).append( ": index " ).append( name ).append( " is unused\n" );
+            }
+        }
+        return report.toString();
+    }
+
+    /**
+     * removes all observed queries
+     */
+    public void reset()
+    {
+        patterns.clear();
+    }
+
+    private Map<Pattern, AtomicLong> getPatterns( Class<? extends Entity> clazz )
+    {
+        Map<Pattern, AtomicLong> observed = patterns.get( clazz );
+        return observed == null ? Collections.emptyMap() : observed;
+    }
+
+    private static boolean isServed( Pattern pattern, Iterable<Document> indexes )
+    {
+        for ( Document index : indexes )
+        {
+            if ( serves( index, pattern ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * checks if the given index serves the pattern. This is the case if the index starts with the equality fields (in
+     * any order), followed by the sort fields (all in the sort direction or all reversed) and the range fields (in any
+     * order). An equality match on _id is always served by the _id index
+     */
+    static boolean serves( Document index, Pattern pattern )
+    {
+        List<String> keys = Lists.newArrayList( index.keySet() );
+        if ( pattern.equality.contains( Entity.ID ) && keys.equals( Collections.singletonList( Entity.ID ) ) )
+        {
+            return true;
+        }
+        int e = pattern.equality.size();
+        int s = pattern.sort.size();
+        int r = pattern.range.size();
+        if ( keys.size() < e + s + r || !Sets.newHashSet( keys.subList( 0, e ) ).equals( pattern.equality ) )
+        {
+            return false;
+        }
+        Boolean reversed = null;
+        int i = e;
+        for ( Map.Entry<String, BsonValue> sort : pattern.sort.entrySet() )
+        {
+            String key = keys.get( i++ );
+            if ( !key.equals( sort.getKey() ) )
+            {
+                return false;
+            }
+            boolean same = ( (Number) index.get( key ) ).intValue() == sort.getValue().asInt32().getValue();
+            if ( reversed != null && reversed == same )
+            {
+                return false;
+            }
+            reversed = !same;
+        }
+        return Sets.newHashSet( keys.subList( i, i + r ) ).equals( pattern.range );
+    }
+
+    /**
+     * sorts the fields of the filter into the ones matched by equality and the ones matched by range
+     */
+    private static void classify( BsonDocument filter, Set<String> equality, Set<String> range )
+    {
+        for ( Map.Entry<String, BsonValue> entry : filter.entrySet() )
+        {
+            String key = entry.getKey();
+            BsonValue value = entry.getValue();
+            if ( key.startsWith( "$" ) )
+            {
+                if ( "$and".equals( key ) )
+                {
+                    for ( BsonValue element : value.asArray() )
+                    {
+                        classify( element.asDocument(), equality, range );
+                    }
+                }
+                // alternatives ($or, $nor) need indexes on their own, which can't be suggested here
+                continue;
+            }
+            if ( value.isDocument() && isOperatorDocument( value.asDocument() ) )
+            {
+                for ( String operator : value.asDocument().keySet() )
+                {
+                    if ( "$eq".equals( operator ) || "$in".equals( operator ) )
+                    {
+                        equality.add( key );
+                    }
+                    else
+                    {
+                        range.add( key );
+                    }
+                }
+            }
+            else
+            {
+                equality.add( key );
+            }
+        }
+    }
+
+    private static boolean isOperatorDocument( BsonDocument document )
+    {
+        return !document.isEmpty() && document.keySet().iterator().next().startsWith( "$" );
+    }
+
+    /**
+     * fields of a query, sorted by how they're matched
+     */
+    static final class Pattern
+    {
+        private final Set<String> equality;
+
+        private final BsonDocument sort;
+
+        private final Set<String> range;
+
+        Pattern( Set<String> equality, BsonDocument sort, Set<String> range )
+        {
+            this.equality = ImmutableSortedSet.copyOf( equality );
+            this.sort = sort;
+            this.range = ImmutableSortedSet.copyOf( range );
+        }
+
+        /**
+         * creates the keys of the index serving this pattern following the equality-sort-range rule
+         */
+        Document suggest()
+        {
+            Document keys = new Document();
+            for ( String field : equality )
+            {
+                keys.put( field, 1 );
+            }
+            for ( Map.Entry<String, BsonValue> field : sort.entrySet() )
+            {
+                keys.put( field.getKey(), field.getValue().asInt32().getValue() );
+            }
+            for ( String field : range )
+            {
+                keys.put( field, 1 );
+            }
+            return keys;
+        }
+
+        @Override
+        public boolean equals( Object o )
+        {
+            if ( !( o instanceof Pattern ) )
+            {
+                return false;
+            }
+            Pattern other = (Pattern) o;
+            return equality.equals( other.equality ) && sort.equals( other.sort ) && range.equals( other.range );
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hashCode( equality, sort, range );
+        }
+    }
+
+    /**
+     * Index suggested for queries not served by any declared index
+     */
+    public static final class IndexSuggestion
+    {
+        private final Class<? extends Entity> entityClass;
+
+        private final Document keys;
+
+        private final long queries;
+
+        IndexSuggestion( Class<? extends Entity> entityClass, Document keys, long queries )
+        {
+            this.entityClass = entityClass;
+            this.keys = keys;
+            this.queries = queries;
+        }
+
+        public Class<? extends Entity> getEntityClass()
+        {
+            return entityClass;
+        }
+
+        /**
+         * keys of the suggested index in the order they should be declared
+         */
+        public Document getKeys()
+        {
+            return keys;
+        }
+
+        /**
+         * number of observed queries which would have been served by this index
+         */
+        public long getQueries()
+        {
+            return queries;
+        }
+
+        @Override
+        public String toString()
+        {
+            return entityClass.getName() + ": missing index " + keys.toJson() + " for " + queries + " queries";
+        }
+    }
+}
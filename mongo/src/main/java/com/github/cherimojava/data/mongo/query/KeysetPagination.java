@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.query;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Map;
+
+import org.bson.BsonArray;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonNull;
+import org.bson.BsonSerializationException;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+import com.github.cherimojava.data.mongo.entity.Entity;
+
+/**
+ * Helper for keyset (seek) pagination. Instead of skipping the documents of the previous pages, the values of the sort
+ * properties of the last document are remembered within a token. The next page is then selected through a range
+ * filter on these values, which can be answered by an index on the sort properties. To get a total order the sort is
+ * always tie broken by _id.
+ *
+ * @author philnate
+ * @since 1.0.0
+ */
+final class KeysetPagination
+{
+    private static final BsonDocumentCodec CODEC = new BsonDocumentCodec();
+
+    private KeysetPagination()
+    {
+    }
+
+    /**
+     * returns the given sort document with an ascending _id appended, if the sort doesn't contain _id yet
+     */
+    static BsonDocument withIdTieBreaker( BsonDocument sort )
+    {
+        BsonDocument complete = new BsonDocument();
+        complete.putAll( sort );
+        if ( !complete.containsKey( Entity.ID ) )
+        {
+            complete.put( Entity.ID, new BsonInt32( 1 ) );
+        }
+        return complete;
+    }
+
+    /**
+     * creates the token pointing behind the given document for the given sort
+     */
+    static String token( BsonDocument sort, BsonDocument last )
+    {
+        BsonArray keys = new BsonArray();
+        BsonArray values = new BsonArray();
+        for ( String key : sort.keySet() )
+        {
+            keys.add( new BsonString( key ) );
+            values.add( getValue( last, key ) );
+        }
+        BsonDocument token = new BsonDocument( "k", keys ).append( "v", values );
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        CODEC.encode( new BsonBinaryWriter( buffer ), token, EncoderContext.builder().build() );
+        return Base64.getUrlEncoder().withoutPadding().encodeToString( buffer.toByteArray() );
+    }
+
+    /**
+     * creates the filter selecting all documents following the position encoded within the token
+     *
+     * @param sort complete sort (including the _id tie breaker) of the query
+     * @param token token created for the same sort
+     * @return filter selecting the documents after the token
+     */
+    static BsonDocument filter( BsonDocument sort, String token )
+    {
+        BsonDocument decoded;
+        try
+        {
+            decoded = CODEC.decode( new BsonBinaryReader( ByteBuffer.wrap( Base64.getUrlDecoder().decode( token ) ) ),
+                DecoderContext.builder().build() );
+        }
+        catch ( IllegalArgumentException | BsonSerializationException e )
+        {
+            throw new IllegalArgumentException( "Invalid page token " + token, e );
+        }
+        checkArgument( decoded.isArray( "k" ) && decoded.isArray( "v" ), "Invalid page token %s", token );
+        BsonArray keys = new BsonArray();
+        for ( String key : sort.keySet() )
+        {
+            keys.add( new BsonString( key ) );
+        }
+        BsonArray values = decoded.getArray( "v" );
+        checkArgument( keys.equals( decoded.getArray( "k" ) ) && values.size() == keys.size(),
+            "Page token doesn't match the sort of the query" );
+
+        // (k1 > v1) or (k1 = v1 and k2 > v2) or ... for ascending properties, descending ones use less than or null
+        BsonArray or = new BsonArray();
+        BsonDocument equal = new BsonDocument();
+        int i = 0;
+        for ( Map.Entry<String, BsonValue> entry : sort.entrySet() )
+        {
+            String key = entry.getKey();
+            BsonValue value = values.get( i++ );
+            checkArgument( !isOperator( value ), "Invalid page token %s", token );
+            boolean asc = entry.getValue().isInt32() && entry.getValue().asInt32().getValue() > 0;
+            BsonDocument branch = new BsonDocument();
+            branch.putAll( equal );
+            if ( value.isNull() )
+            {
+                // null sorts before every other value, so only non null values follow in ascending order
+                if ( asc )
+                {
+                    branch.put( key, new BsonDocument( "$ne", BsonNull.VALUE ) );
+                    or.add( branch );
+                }
+            }
+            else
+            {
+                branch.put( key, new BsonDocument( asc ? "$gt" : "$lt", value ) );
+                or.add( branch );
+                if ( !asc )
+                {
+                    // null and missing values sort last in descending order, but aren't matched by $lt
+                    BsonDocument nullBranch = new BsonDocument();
+                    nullBranch.putAll( equal );
+                    nullBranch.put( key, BsonNull.VALUE );
+                    or.add( nullBranch );
+                }
+            }
+            equal.put( key, value );
+        }
+        return new BsonDocument( "$or", or );
+    }
+
+    /**
+     * checks if the value could be interpreted as query operator within an equality match
+     */
+    private static boolean isOperator( BsonValue value )
+    {
+        if ( value.isDocument() )
+        {
+            for ( String key : value.asDocument().keySet() )
+            {
+                if ( key.startsWith( "$" ) )
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * retrieves the value for the given (dotted) path from the document, null if the path doesn't exist
+     */
+    static BsonValue getValue( BsonDocument document, String path )
+    {
+        BsonValue current = document;
+        for ( String part : path.split( "\\." ) )
+        {
+            if ( current == null || !current.isDocument() )
+            {
+                return BsonNull.VALUE;
+            }
+            current = current.asDocument().get( part );
+        }
+        return current == null ? BsonNull.VALUE : current;
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.query;
+
+import java.util.Iterator;
+import java.util.List;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+
+/**
+ * Cursor over already retrieved results, like cached ones. It isn't backed by a server cursor.
+ *
+ * @param <E> element type
+ * @author philnate
+ * @since 1.0.0
+ */
+class ListCursor<E>
+    implements MongoCursor<E>
+{
+    private final Iterator<E> iterator;
+
+    ListCursor( List<E> elements )
+    {
+        iterator = elements.iterator();
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        return iterator.hasNext();
+    }
+
+    @Override
+    public E next()
+    {
+        return iterator.next();
+    }
+
+    @Override
+    public E tryNext()
+    {
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+
+    @Override
+    public ServerCursor getServerCursor()
+    {
+        return null;
+    }
+
+    @Override
+    public ServerAddress getServerAddress()
+    {
+        return null;
+    }
+}
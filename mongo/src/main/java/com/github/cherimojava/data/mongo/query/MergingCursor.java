@@ -0,0 +1,399 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.query;
+
+import static java.lang.String.format;
+
+import java.math.BigDecimal;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+
+import org.bson.BsonBinary;
+import org.bson.BsonDocument;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+
+/**
+ * Cursor merging the results of multiple cursors into one result set. Unsorted results are returned cursor after
+ * cursor, sorted ones are merged by comparing the sort properties of the heads of all cursors, so each cursor must
+ * deliver its documents in the given sort order. Skip and limit are applied to the merged result set.
+ *
+ * @param <E> element type
+ * @author philnate
+ * @since 1.0.0
+ */
+class MergingCursor<E>
+    implements MongoCursor<E>
+{
+    private final List<MongoCursor<BsonDocument>> cursors;
+
+    private final Function<BsonDocument, E> mapper;
+
+    /**
+     * cursors ordered by their current head document, null if the results are unsorted
+     */
+    private final PriorityQueue<Head> heads;
+
+    /**
+     * index of the cursor read from if the results are unsorted
+     */
+    private int current = 0;
+
+    /**
+     * number of documents still to return, negative if unlimited
+     */
+    private long remaining;
+
+    /**
+     * creates a new cursor merging the given cursors
+     *
+     * @param cursors delivering the documents, in the given sort order if there's one
+     * @param sort sort document the cursors are sorted by, null if the results are unsorted
+     * @param skip number of merged documents to skip
+     * @param limit max number of merged documents to return, null if unlimited
+     * @param mapper converting the merged documents into the returned elements
+     */
+    MergingCursor( List<MongoCursor<BsonDocument>> cursors, BsonDocument sort, int skip, Integer limit,
+                   Function<BsonDocument, E> mapper )
+    {
+        this.cursors = cursors;
+        this.mapper = mapper;
+        this.remaining = limit == null || limit == 0 ? -1 : limit;
+        if ( sort != null )
+        {
+            heads = new PriorityQueue<>( Math.max( 1, cursors.size() ), comparator( sort ) );
+            for ( int i = 0; i < cursors.size(); i++ )
+            {
+                advance( new Head( i ) );
+            }
+        }
+        else
+        {
+            heads = null;
+        }
+        // skip is applied to the merged results, as each cursor can't know how many of its documents to skip
+        for ( int i = 0; i < skip; i++ )
+        {
+            if ( nextDocument() == null )
+            {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if ( remaining == 0 )
+        {
+            return false;
+        }
+        if ( heads != null )
+        {
+            return !heads.isEmpty();
+        }
+        while ( current < cursors.size() && !cursors.get( current ).hasNext() )
+        {
+            current++;
+        }
+        return current < cursors.size();
+    }
+
+    @Override
+    public E next()
+    {
+        if ( !hasNext() )
+        {
+            throw new NoSuchElementException();
+        }
+        if ( remaining > 0 )
+        {
+            remaining--;
+        }
+        return mapper.apply( nextDocument() );
+    }
+
+    @Override
+    public E tryNext()
+    {
+        return hasNext() ? next() : null;
+    }
+
+    @Override
+    public void close()
+    {
+        cursors.forEach( MongoCursor::close );
+    }
+
+    @Override
+    public ServerCursor getServerCursor()
+    {
+        return null;
+    }
+
+    @Override
+    public ServerAddress getServerAddress()
+    {
+        return null;
+    }
+
+    /**
+     * takes the next document of the merged results, null if there are no more
+     */
+    private BsonDocument nextDocument()
+    {
+        if ( heads != null )
+        {
+            Head head = heads.poll();
+            if ( head == null )
+            {
+                return null;
+            }
+            BsonDocument document = head.document;
+            advance( head );
+            return document;
+        }
+        while ( current < cursors.size() )
+        {
+            if ( cursors.get( current ).hasNext() )
+            {
+                return cursors.get( current ).next();
+            }
+            current++;
+        }
+        return null;
+    }
+
+    /**
+     * reads the next document of the given head's cursor and requeues the head, unless the cursor is exhausted
+     */
+    private void advance( Head head )
+    {
+        MongoCursor<BsonDocument> cursor = cursors.get( head.cursor );
+        if ( cursor.hasNext() )
+        {
+            head.document = cursor.next();
+            heads.add( head );
+        }
+    }
+
+    /**
+     * creates the comparator of the heads following the given sort, ties are broken by the cursor order
+     */
+    private static Comparator<Head> comparator( BsonDocument sort )
+    {
+        return ( a, b ) -> {
+            for ( Map.Entry<String, BsonValue> field : sort.entrySet() )
+            {
+                int direction = field.getValue().isInt32() && field.getValue().asInt32().getValue() < 0 ? -1 : 1;
+                int result = compare( KeysetPagination.getValue( a.document, field.getKey() ),
+                    KeysetPagination.getValue( b.document, field.getKey() ) );
+                if ( result != 0 )
+                {
+                    return direction * result;
+                }
+            }
+            return Integer.compare( a.cursor, b.cursor );
+        };
+    }
+
+    /**
+     * compares the given values like MongoDB does for sorting (without collation). Values of different types are
+     * ordered by their type. Documents, arrays and other types the merge can't order are rejected, as they would be
+     * returned in an order differing from the one of MongoDB
+     */
+    static int compare( BsonValue a, BsonValue b )
+    {
+        int result = Integer.compare( rank( a ), rank( b ) );
+        if ( result != 0 )
+        {
+            return result;
+        }
+        switch ( a.getBsonType() )
+        {
+            case MIN_KEY:/* fallthrough */
+            case MAX_KEY:/* fallthrough */
+            case NULL:/* fallthrough */
+            case UNDEFINED:
+                return 0;
+            case INT32:/* fallthrough */
+            case INT64:/* fallthrough */
+            case DOUBLE:
+                return compareNumbers( a, b );
+            case STRING:/* fallthrough */
+            case SYMBOL:
+                return compareStrings( string( a ), string( b ) );
+            case BINARY:
+                return compareBinaries( a.asBinary(), b.asBinary() );
+            case OBJECT_ID:
+                return a.asObjectId().getValue().compareTo( b.asObjectId().getValue() );
+            case BOOLEAN:
+                return Boolean.compare( a.asBoolean().getValue(), b.asBoolean().getValue() );
+            case DATE_TIME:
+                return Long.compare( a.asDateTime().getValue(), b.asDateTime().getValue() );
+            case TIMESTAMP:
+                return a.asTimestamp().compareTo( b.asTimestamp() );
+            default:
+                throw new IllegalStateException( format(
+                    "Results of queries with more than %s values for in can't be sorted by values of type %s",
+                    ChunkedIn.CHUNK_SIZE, a.getBsonType() ) );
+        }
+    }
+
+    /**
+     * compares numbers exactly, as longs beyond 2^53 can't be represented as double. NaN is sorted before all other
+     * numbers
+     */
+    private static int compareNumbers( BsonValue a, BsonValue b )
+    {
+        if ( !a.isDouble() && !b.isDouble() )
+        {
+            return Long.compare( integral( a ), integral( b ) );
+        }
+        double x = number( a );
+        double y = number( b );
+        if ( Double.isNaN( x ) || Double.isNaN( y ) )
+        {
+            return Boolean.compare( !Double.isNaN( x ), !Double.isNaN( y ) );
+        }
+        if ( ( a.isDouble() && b.isDouble() ) || Double.isInfinite( x ) || Double.isInfinite( y ) )
+        {
+            // -0.0 and 0.0 are equal for MongoDB
+            return x == y ? 0 : Double.compare( x, y );
+        }
+        return decimal( a ).compareTo( decimal( b ) );
+    }
+
+    /**
+     * compares strings by their code points, which is the order of their UTF-8 bytes MongoDB uses
+     */
+    private static int compareStrings( String a, String b )
+    {
+        int i = 0;
+        int j = 0;
+        while ( i < a.length() && j < b.length() )
+        {
+            int x = a.codePointAt( i );
+            int y = b.codePointAt( j );
+            if ( x != y )
+            {
+                return Integer.compare( x, y );
+            }
+            i += Character.charCount( x );
+            j += Character.charCount( y );
+        }
+        return Boolean.compare( i < a.length(), j < b.length() );
+    }
+
+    /**
+     * compares binaries like MongoDB, by length first, then by subtype and finally by their unsigned bytes
+     */
+    private static int compareBinaries( BsonBinary a, BsonBinary b )
+    {
+        byte[] x = a.getData();
+        byte[] y = b.getData();
+        int result = Integer.compare( x.length, y.length );
+        if ( result == 0 )
+        {
+            result = Integer.compare( a.getType() & 0xff, b.getType() & 0xff );
+        }
+        for ( int i = 0; result == 0 && i < x.length; i++ )
+        {
+            result = Integer.compare( x[i] & 0xff, y[i] & 0xff );
+        }
+        return result;
+    }
+
+    /**
+     * rank of the type of the given value within the MongoDB sort order
+     */
+    private static int rank( BsonValue value )
+    {
+        BsonType type = value.getBsonType();
+        switch ( type )
+        {
+            case MIN_KEY:
+                return 0;
+            case NULL:/* fallthrough */
+            case UNDEFINED:
+                return 1;
+            case INT32:/* fallthrough */
+            case INT64:/* fallthrough */
+            case DOUBLE:
+                return 2;
+            case STRING:/* fallthrough */
+            case SYMBOL:
+                return 3;
+            case DOCUMENT:
+                return 4;
+            case ARRAY:
+                return 5;
+            case BINARY:
+                return 6;
+            case OBJECT_ID:
+                return 7;
+            case BOOLEAN:
+                return 8;
+            case DATE_TIME:
+                return 9;
+            case TIMESTAMP:
+                return 10;
+            case REGULAR_EXPRESSION:
+                return 11;
+            case MAX_KEY:
+                return 13;
+            default:
+                return 12;
+        }
+    }
+
+    private static double number( BsonValue value )
+    {
+        return value.isDouble() ? value.asDouble().getValue() : integral( value );
+    }
+
+    private static long integral( BsonValue value )
+    {
+        return value.isInt32() ? value.asInt32().getValue() : value.asInt64().getValue();
+    }
+
+    private static BigDecimal decimal( BsonValue value )
+    {
+        return value.isDouble() ? new BigDecimal( value.asDouble().getValue() )
+                        : BigDecimal.valueOf( integral( value ) );
+    }
+
+    private static String string( BsonValue value )
+    {
+        return value.isSymbol() ? value.asSymbol().getSymbol() : value.asString().getValue();
+    }
+
+    /**
+     * current head document of one of the merged cursors
+     */
+    private static final class Head
+    {
+        private final int cursor;
+
+        private BsonDocument document;
+
+        Head( int cursor )
+        {
+            this.cursor = cursor;
+        }
+    }
+}
@@ -29,4 +29,13 @@ public interface OngoingQuery<E extends Entity>
      * @return object allowing to specify the check against the property
      */
     public <T> QuerySpecifier<T, E> and( T methodCall );
+
+    /**
+     * Add additional and condition on the given metamodel property to query.
+     *
+     * @param property metamodel property to query, e.g. Person_.name
+     * @param <T>
+     * @return object allowing to specify the check against the property
+     */
+    public <T> QuerySpecifier<T, E> and( QueryProperty<E, T> property );
 }
@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.query;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import com.github.cherimojava.data.mongo.entity.Entity;
+
+/**
+ * One page of a keyset paginated query, created through {@link QueryEnd#page(int)}. Besides the entities of the page
+ * it holds an opaque token pointing behind the last entity of this page, which can be handed to
+ * {@link QueryEnd#page(int, String)} of the same query to retrieve the following page.
+ *
+ * @param <E> Entity type
+ * @author philnate
+ * @since 1.0.0
+ */
+public final class Page<E extends Entity>
+    implements Iterable<E>
+{
+    private final List<E> entities;
+
+    private final String nextToken;
+
+    Page( List<E> entities, String nextToken )
+    {
+        this.entities = Collections.unmodifiableList( entities );
+        this.nextToken = nextToken;
+    }
+
+    /**
+     * returns the entities of this page
+     */
+    public List<E> getEntities()
+    {
+        return entities;
+    }
+
+    /**
+     * returns the token to retrieve the next page or null if this is the last page
+     */
+    public String getNextToken()
+    {
+        return nextToken;
+    }
+
+    /**
+     * tells if there's a following page
+     */
+    public boolean hasNext()
+    {
+        return nextToken != null;
+    }
+
+    @Override
+    public Iterator<E> iterator()
+    {
+        return entities.iterator();
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.query;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonValue;
+import org.bson.codecs.Decoder;
+import org.bson.conversions.Bson;
+
+import com.github.cherimojava.data.mongo.entity.Entity;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+
+/**
+ * Scans all documents matching a filter with multiple cursors in parallel. The matching documents are split into
+ * ranges of _id, with the boundaries taken at evenly distributed positions from a single pass over the matching _ids in
+ * index order. Each range is read and decoded on the executor, so decoding scales with the number of cores.
+ *
+ * @param <E> entity type
+ * @author philnate
+ * @since 1.0.0
+ */
+final class ParallelScan<E extends Entity>
+{
+    private static final BsonDocument ID_ONLY = new BsonDocument( Entity.ID, new BsonInt32( 1 ) );
+
+    /**
+     * number of decoded chunks each partition of a stream reads ahead
+     */
+    private static final int READ_AHEAD = 4;
+
+    private final MongoCollection<E> coll;
+
+    private final Bson filter;
+
+    private final Integer batchSize;
+
+    private final boolean noCursorTimeout;
+
+    ParallelScan( MongoCollection<E> coll, Bson filter, Integer batchSize, boolean noCursorTimeout )
+    {
+        this.coll = coll;
+        this.filter = filter;
+        this.batchSize = batchSize;
+        this.noCursorTimeout = noCursorTimeout;
+    }
+
+    /**
+     * scans all documents with the given number of partitions on the given executor and hands them to the consumer.
+     * Returns once all partitions are scanned
+     *
+     * @param partitions number of partitions to split the documents into
+     * @param executor executing the partition scans
+     * @param consumer called for each entity from the worker threads, so it must be thread safe
+     */
+    void forEach( int partitions, Executor executor, Consumer<? super E> consumer )
+    {
+        List<CompletableFuture<Void>> futures = Lists.newArrayList();
+        for ( Bson partition : partitions( partitions ) )
+        {
+            futures.add( CompletableFuture.runAsync( () -> {
+                try (MongoCursor<E> cursor = find( partition ).iterator())
+                {
+                    cursor.forEachRemaining( consumer );
+                }
+            }, executor ) );
+        }
+        try
+        {
+            CompletableFuture.allOf( futures.toArray( new CompletableFuture[] {} ) ).join();
+        }
+        catch ( CompletionException e )
+        {
+            throw Throwables.propagate( e.getCause() );
+        }
+    }
+
+    /**
+     * creates a parallel stream over all documents with the given number of partitions. Each partition is read and
+     * decoded on the given executor, the workers of the stream only take the decoded entities
+     *
+     * @param partitions number of partitions to split the documents into
+     * @param executor reading and decoding the partitions
+     * @return parallel stream of all matching entities
+     */
+    Stream<E> stream( int partitions, Executor executor )
+    {
+        Decoder<E> decoder = coll.getCodecRegistry().get( coll.getDocumentClass() );
+        return partitions( partitions ).parallelStream().flatMap( partition -> {
+            MongoCursor<E> cursor = new PipelinedCursor<>( find( partition, BsonDocument.class ).iterator(), decoder,
+                executor, READ_AHEAD );
+            return StreamSupport.stream( Spliterators.spliteratorUnknownSize( cursor, Spliterator.NONNULL ), false )
+                .onClose( cursor::close );
+        } );
+    }
+
+    /**
+     * splits the documents matching the filter into at most the given number of _id ranges of about the same size
+     *
+     * @param count number of partitions to create
+     * @return filters, each matching the documents of one partition
+     */
+    List<Bson> partitions( int count )
+    {
+        checkArgument( count > 0, "Number of partitions must be positive, but was %s", count );
+        List<Bson> partitions = Lists.newArrayList();
+        long total = coll.count( filter );
+        BsonValue min = boundary( 1 );
+        BsonValue max = boundary( -1 );
+        // range queries only match values of the same type, so a mixed typed _id can't be partitioned
+        if ( count == 1 || total < count || !sameType( min, max ) )
+        {
+            partitions.add( filter );
+            return partitions;
+        }
+        BsonValue lower = null;
+        for ( BsonValue upper : boundaries( total, count ) )
+        {
+            partitions.add( range( lower, upper ) );
+            lower = upper;
+        }
+        partitions.add( range( lower, null ) );
+        return partitions;
+    }
+
+    /**
+     * takes the _ids at the positions total * i / count (0 &lt; i &lt; count) of the matching documents in a single
+     * pass over their _ids. The pass only reads the _id index, if the filter is on _id only
+     */
+    private List<BsonValue> boundaries( long total, int count )
+    {
+        List<BsonValue> boundaries = Lists.newArrayList();
+        long position = 0;
+        int next = 1;
+        try (MongoCursor<BsonDocument> ids = coll.find( filter, BsonDocument.class ).projection( ID_ONLY )
+            .sort( new BsonDocument( Entity.ID, new BsonInt32( 1 ) ) ).iterator())
+        {
+            while ( next < count && ids.hasNext() )
+            {
+                BsonValue id = ids.next().get( Entity.ID );
+                if ( position++ == total * next / count )
+                {
+                    boundaries.add( id );
+                    next++;
+                }
+            }
+        }
+        return boundaries;
+    }
+
+    /**
+     * creates the filter for the documents with lower &lt;= _id &lt; upper, a null bound is unlimited
+     */
+    private Bson range( BsonValue lower, BsonValue upper )
+    {
+        List<Bson> range = Lists.newArrayList( filter );
+        if ( lower != null )
+        {
+            range.add( Filters.gte( Entity.ID, lower ) );
+        }
+        if ( upper != null )
+        {
+            range.add( Filters.lt( Entity.ID, upper ) );
+        }
+        return Filters.and( range );
+    }
+
+    /**
+     * retrieves the lowest (direction 1) or highest (direction -1) _id of the matching documents, null if there's no
+     * matching document
+     */
+    private BsonValue boundary( int direction )
+    {
+        BsonDocument document = coll.find( filter, BsonDocument.class ).projection( ID_ONLY )
+            .sort( new BsonDocument( Entity.ID, new BsonInt32( direction ) ) ).limit( 1 ).first();
+        return document == null ? null : document.get( Entity.ID );
+    }
+
+    private static boolean sameType( BsonValue min, BsonValue max )
+    {
+        if ( min == null || max == null )
+        {
+            return false;
+        }
+        return min.getBsonType() == max.getBsonType() || isNumber( min ) && isNumber( max );
+    }
+
+    private static boolean isNumber( BsonValue value )
+    {
+        return value.isInt32() || value.isInt64() || value.isDouble();
+    }
+
+    private FindIterable<E> find( Bson partition )
+    {
+        return find( partition, coll.getDocumentClass() );
+    }
+
+    private <T> FindIterable<T> find( Bson partition, Class<T> documentClass )
+    {
+        FindIterable<T> it = coll.find( partition, documentClass );
+        if ( batchSize != null )
+        {
+            it.batchSize( batchSize );
+        }
+        if ( noCursorTimeout )
+        {
+            it.noCursorTimeout( true );
+        }
+        return it;
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.query;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.codecs.Decoder;
+import org.bson.codecs.DecoderContext;
+
+import com.github.cherimojava.data.mongo.entity.Entity;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+
+/**
+ * Cursor decoupling the network from decoding. A fetch task on the executor reads the plain documents from the
+ * underlying cursor and hands chunks of them to the executor for decoding, while the consumer takes the decoded chunks
+ * in their original order. The number of chunks read ahead is bounded, so a slow consumer doesn't cause the whole
+ * result set to be fetched into memory. Once the read ahead is reached the fetch task ends and is started again as soon
+ * as the consumer takes a chunk, so no thread waits for a slow (or gone) consumer.
+ *
+ * @param <E> entity type
+ * @author philnate
+ * @since 1.0.0
+ */
+class PipelinedCursor<E extends Entity>
+    implements MongoCursor<E>
+{
+    /**
+     * number of documents decoded together by one worker
+     */
+    static final int CHUNK_SIZE = 64;
+
+    /**
+     * marks the end of the underlying cursor
+     */
+    private static final CompletableFuture<List<?>> END = CompletableFuture.completedFuture( null );
+
+    private final MongoCursor<BsonDocument> cursor;
+
+    private final Decoder<E> decoder;
+
+    private final Executor executor;
+
+    private final BlockingQueue<CompletableFuture<? extends List<?>>> chunks;
+
+    /**
+     * set while a fetch task is scheduled or running and forever once the underlying cursor is closed. Whoever sets
+     * it owns the underlying cursor
+     */
+    private final AtomicBoolean fetching = new AtomicBoolean();
+
+    /**
+     * tells if the underlying cursor is exhausted or failed, only accessed by the owner of the underlying cursor
+     */
+    private boolean finished = false;
+
+    private Iterator<E> current = null;
+
+    private boolean exhausted = false;
+
+    private volatile boolean closed = false;
+
+    /**
+     * creates a new cursor and starts reading from the given cursor
+     *
+     * @param cursor underlying cursor delivering plain documents
+     * @param decoder decoding the documents into entities
+     * @param executor running the fetching and decoding
+     * @param readAhead number of chunks which might be read ahead of the consumer
+     */
+    PipelinedCursor( MongoCursor<BsonDocument> cursor, Decoder<E> decoder, Executor executor, int readAhead )
+    {
+        this.cursor = cursor;
+        this.decoder = decoder;
+        this.executor = executor;
+        // one additional slot for the end marker, which might be added on close
+        this.chunks = new ArrayBlockingQueue<>( readAhead + 1 );
+        schedule();
+    }
+
+    /**
+     * starts a fetch task, unless one is running already or the underlying cursor is closed
+     */
+    private void schedule()
+    {
+        if ( fetching.compareAndSet( false, true ) )
+        {
+            try
+            {
+                executor.execute( this::fetch );
+            }
+            catch ( RuntimeException e )
+            {
+                fetching.set( false );
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * reads the documents from the underlying cursor and schedules their decoding chunk wise, until the read ahead is
+     * reached
+     */
+    private void fetch()
+    {
+        try
+        {
+            while ( !closed && !finished && chunks.remainingCapacity() > 1 )
+            {
+                if ( !cursor.hasNext() )
+                {
+                    finished = true;
+                    chunks.add( END );
+                    break;
+                }
+                List<BsonDocument> chunk = Lists.newArrayListWithCapacity( CHUNK_SIZE );
+                do
+                {
+                    chunk.add( cursor.next() );
+                }
+                while ( chunk.size() < CHUNK_SIZE && cursor.hasNext() );
+                chunks.add( CompletableFuture.supplyAsync( () -> decode( chunk ), executor ) );
+            }
+        }
+        catch ( RuntimeException e )
+        {
+            finished = true;
+            CompletableFuture<List<?>> failed = new CompletableFuture<>();
+            failed.completeExceptionally( e );
+            chunks.offer( failed );
+        }
+        if ( finished || closed )
+        {
+            // fetching stays set, so that nothing touches the closed cursor anymore
+            cursor.close();
+            return;
+        }
+        fetching.set( false );
+        // the consumer might have taken chunks or closed this cursor since the checks of the loop
+        if ( closed )
+        {
+            if ( fetching.compareAndSet( false, true ) )
+            {
+                cursor.close();
+            }
+        }
+        else if ( chunks.remainingCapacity() > 1 )
+        {
+            schedule();
+        }
+    }
+
+    private List<E> decode( List<BsonDocument> documents )
+    {
+        List<E> entities = Lists.newArrayListWithCapacity( documents.size() );
+        for ( BsonDocument document : documents )
+        {
+            entities.add( decoder.decode( new BsonDocumentReader( document ), DecoderContext.builder().build() ) );
+        }
+        return entities;
+    }
+
+    /**
+     * takes the next decoded chunk, if block is false only a chunk already read is returned
+     *
+     * @return true if there's a new chunk available
+     */
+    @SuppressWarnings( "unchecked" )
+    private boolean advance( boolean block )
+    {
+        while ( !exhausted && ( current == null || !current.hasNext() ) )
+        {
+            CompletableFuture<? extends List<?>> chunk;
+            try
+            {
+                chunk = block ? chunks.take() : chunks.poll();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException( "Interrupted while waiting for documents", e );
+            }
+            if ( chunk == null )
+            {
+                return false;
+            }
+            if ( chunk == END )
+            {
+                exhausted = true;
+                return false;
+            }
+            // there's space for another chunk now
+            schedule();
+            try
+            {
+                current = ( (List<E>) chunk.join() ).iterator();
+            }
+            catch ( CompletionException e )
+            {
+                exhausted = true;
+                throw Throwables.propagate( e.getCause() );
+            }
+        }
+        return current != null && current.hasNext();
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        return advance( true );
+    }
+
+    @Override
+    public E next()
+    {
+        if ( !hasNext() )
+        {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    @Override
+    public E tryNext()
+    {
+        return advance( false ) ? current.next() : null;
+    }
+
+    @Override
+    public void close()
+    {
+        closed = true;
+        exhausted = true;
+        chunks.clear();
+        // wakes up a consumer waiting for the next chunk, e.g. if closed through cancellation
+        chunks.offer( END );
+        // close the underlying cursor right away, unless a fetch task owns it, which closes it once it's done
+        if ( fetching.compareAndSet( false, true ) )
+        {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public ServerCursor getServerCursor()
+    {
+        return cursor.getServerCursor();
+    }
+
+    @Override
+    public ServerAddress getServerAddress()
+    {
+        return cursor.getServerAddress();
+    }
+}
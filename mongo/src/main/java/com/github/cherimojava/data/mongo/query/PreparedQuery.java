@@ -0,0 +1,290 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.query;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonNull;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import com.github.cherimojava.data.mongo.entity.Entity;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+
+/**
+ * Immutable and thread-safe query created through {@link QueryEnd#prepare()}. Filter and sort documents are rendered
+ * once while preparing, each execution only binds the values of the contained {@link QueryParameter}s. Batch size,
+ * cursor timeout, hint and max time of the query are kept as well. Prepared
+ * queries are meant to be created once and shared, e.g. as field of a service, instead of building the same query
+ * through the fluent API over and over again.
+ *
+ * @param <E> Entity being queried
+ * @author philnate
+ * @since 1.0.0
+ */
+public final class PreparedQuery<E extends Entity>
+{
+    /**
+     * key of the document a parameter is rendered to within the filter template
+     */
+    private static final String PARAM_KEY = "$$param";
+
+    private final MongoCollection<E> coll;
+
+    private final CodecRegistry registry;
+
+    private final BsonDocument filter;
+
+    private final BsonDocument sort;
+
+    private final Integer limit;
+
+    private final Integer skip;
+
+    private final Set<String> parameters;
+
+    private final Integer batchSize;
+
+    private final boolean noCursorTimeout;
+
+    /**
+     * index to use, either its name or its key document
+     */
+    private final Object hint;
+
+    private final Long maxTimeMS;
+
+    PreparedQuery( MongoCollection<E> coll, List<Bson> filters, List<Bson> sorts, Integer limit, Integer skip,
+                   Set<String> parameters, Integer batchSize, boolean noCursorTimeout, Object hint, Long maxTimeMS )
+    {
+        this.coll = coll;
+        this.registry = coll.getCodecRegistry();
+        this.filter = Filters.and( filters.toArray( new Bson[] {} ) ).toBsonDocument( BsonDocument.class, registry );
+        this.sort = sorts.isEmpty() ? null : Sorts.orderBy( sorts ).toBsonDocument( BsonDocument.class, registry );
+        this.limit = limit;
+        this.skip = skip;
+        this.parameters = ImmutableSet.copyOf( parameters );
+        this.batchSize = batchSize;
+        this.noCursorTimeout = noCursorTimeout;
+        this.hint = hint;
+        this.maxTimeMS = maxTimeMS;
+    }
+
+    /**
+     * returns the names of all parameters which need to be bound on execution
+     */
+    public Set<String> getParameters()
+    {
+        return parameters;
+    }
+
+    /**
+     * runs the query, only possible if the query doesn't contain any parameters
+     *
+     * @return MongoCursor iterating through the result set
+     */
+    public MongoCursor<E> iterator()
+    {
+        return iterator( Collections.<String, Object> emptyMap() );
+    }
+
+    /**
+     * runs the query with the given parameter values
+     *
+     * @param values parameter values by parameter name, all parameters must be bound
+     * @return MongoCursor iterating through the result set
+     */
+    public MongoCursor<E> iterator( Map<String, ?> values )
+    {
+        FindIterable<E> it = coll.find( bind( values ) );
+        if ( limit != null )
+        {
+            it.limit( limit );
+        }
+        if ( skip != null )
+        {
+            it.skip( skip );
+        }
+        if ( sort != null )
+        {
+            it.sort( sort );
+        }
+        if ( batchSize != null )
+        {
+            it.batchSize( batchSize );
+        }
+        if ( noCursorTimeout )
+        {
+            it.noCursorTimeout( true );
+        }
+        if ( hint != null )
+        {
+            it.modifiers( new Document( "$hint", hint ) );
+        }
+        if ( maxTimeMS != null )
+        {
+            it.maxTime( maxTimeMS, TimeUnit.MILLISECONDS );
+        }
+        return it.iterator();
+    }
+
+    /**
+     * count how many entities match the query, only possible if the query doesn't contain any parameters
+     *
+     * @return number of matches
+     */
+    public long count()
+    {
+        return count( Collections.<String, Object> emptyMap() );
+    }
+
+    /**
+     * count how many entities match the query with the given parameter values
+     *
+     * @param values parameter values by parameter name, all parameters must be bound
+     * @return number of matches
+     */
+    public long count( Map<String, ?> values )
+    {
+        CountOptions options = new CountOptions();
+        if ( hint instanceof String )
+        {
+            options.hintString( (String) hint );
+        }
+        else if ( hint != null )
+        {
+            options.hint( (Document) hint );
+        }
+        if ( maxTimeMS != null )
+        {
+            options.maxTime( maxTimeMS, TimeUnit.MILLISECONDS );
+        }
+        return coll.count( bind( values ), options );
+    }
+
+    /**
+     * returns the placeholder document the given parameter is rendered to within the filter template. Being a plain
+     * document it's encoded like any other filter value and replaced by the bound value on execution
+     *
+     * @param parameter to get the placeholder for
+     * @return placeholder document of the parameter
+     */
+    static Document placeholder( QueryParameter parameter )
+    {
+        return new Document( PARAM_KEY, parameter.getName() );
+    }
+
+    /**
+     * creates the filter for the given parameter values
+     */
+    private BsonDocument bind( Map<String, ?> values )
+    {
+        checkArgument( parameters.equals( values.keySet() ), "Query requires parameters %s, but got %s", parameters,
+            values.keySet() );
+        if ( parameters.isEmpty() )
+        {
+            return filter;
+        }
+        Map<String, BsonValue> encoded = Maps.newHashMapWithExpectedSize( values.size() );
+        for ( Map.Entry<String, ?> entry : values.entrySet() )
+        {
+            encoded.put( entry.getKey(), encode( entry.getValue() ) );
+        }
+        return bind( filter, encoded ).asDocument();
+    }
+
+    /**
+     * copies the given template, replacing all parameter placeholders with their values
+     */
+    private static BsonValue bind( BsonValue template, Map<String, BsonValue> values )
+    {
+        if ( template.isDocument() )
+        {
+            BsonDocument document = template.asDocument();
+            if ( document.size() == 1 && document.containsKey( PARAM_KEY ) )
+            {
+                return values.get( document.getString( PARAM_KEY ).getValue() );
+            }
+            BsonDocument bound = new BsonDocument();
+            for ( Map.Entry<String, BsonValue> entry : document.entrySet() )
+            {
+                bound.put( entry.getKey(), bind( entry.getValue(), values ) );
+            }
+            return bound;
+        }
+        if ( template.isArray() )
+        {
+            BsonArray bound = new BsonArray();
+            for ( BsonValue value : template.asArray() )
+            {
+                bound.add( bind( value, values ) );
+            }
+            return bound;
+        }
+        return template;
+    }
+
+    /**
+     * encodes the given value through the collections codecs. Enums are stored by their String representation,
+     * collections and arrays are encoded as array (as needed for in)
+     */
+    private BsonValue encode( Object value )
+    {
+        if ( value == null )
+        {
+            return BsonNull.VALUE;
+        }
+        if ( value.getClass().isEnum() )
+        {
+            value = value.toString();
+        }
+        if ( value instanceof Collection )
+        {
+            value = ( (Collection) value ).toArray();
+        }
+        if ( value.getClass().isArray() )
+        {
+            BsonArray array = new BsonArray();
+            for ( int i = 0; i < Array.getLength( value ); i++ )
+            {
+                array.add( encode( Array.get( value, i ) ) );
+            }
+            return array;
+        }
+        BsonDocument holder = new BsonDocument();
+        BsonDocumentWriter writer = new BsonDocumentWriter( holder );
+        writer.writeStartDocument();
+        writer.writeName( "v" );
+        ( (Codec<Object>) registry.get( value.getClass() ) ).encode( writer, value, EncoderContext.builder().build() );
+        writer.writeEndDocument();
+        return holder.get( "v" );
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.query;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.bson.BsonDocument;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mongodb.MongoNamespace;
+
+/**
+ * Cache for the results of queries, which opted in through {@link QueryEnd#cached()}. Results are cached by the
+ * collection and the rendered query (filter, sort, limit and skip) and expire after the configured time. Each result
+ * is cached with the {@link WriteGenerations write generation} of its collection. Cached results of an older generation
+ * aren't returned anymore, so writes through the EntityFactories of the same MongoDatabase are visible immediately,
+ * while writes from elsewhere become visible once the results expire.
+ *
+ * @author philnate
+ * @since 1.0.0
+ */
+public final class QueryCache
+{
+    private final Cache<Key, Result> cache;
+
+    /**
+     * creates a new cache with the given bounds
+     *
+     * @param maximumSize max number of query results to cache
+     * @param ttl time after which a cached query result expires
+     * @param unit unit of the ttl
+     */
+    public QueryCache( long maximumSize, long ttl, TimeUnit unit )
+    {
+        checkArgument( maximumSize > 0, "Cache size must be positive, but was %s", maximumSize );
+        checkArgument( ttl > 0, "Time to live must be positive, but was %s", ttl );
+        cache = CacheBuilder.newBuilder().maximumSize( maximumSize ).expireAfterWrite( ttl, unit ).build();
+    }
+
+    /**
+     * returns the cached result of the given query, if there's none or it's outdated the result is retrieved through
+     * the loader and cached
+     *
+     * @param generations write generations of the database the query is run against
+     * @param namespace collection the query is run against
+     * @param query rendered query
+     * @param loader retrieving the result from MongoDB
+     * @param <T> result type
+     * @return result of the query
+     */
+    <T> T get( WriteGenerations generations, MongoNamespace namespace, BsonDocument query, Supplier<T> loader )
+    {
+        return get( generations, namespace, query, Long.MAX_VALUE, loader );
+    }
+
+    /**
+     * returns the cached result of the given query, if there's none, it's outdated or older than the given age the
+     * result is retrieved through the loader and cached
+     *
+     * @param generations write generations of the database the query is run against
+     * @param namespace collection the query is run against
+     * @param query rendered query
+     * @param maxAge max age in nanoseconds of a cached result to be returned
+     * @param loader retrieving the result from MongoDB
+     * @param <T> result type
+     * @return result of the query
+     */
+    @SuppressWarnings( "unchecked" )
+    <T> T get( WriteGenerations generations, MongoNamespace namespace, BsonDocument query, long maxAge,
+        Supplier<T> loader )
+    {
+        // generation must be read before loading, so a concurrent write outdates the result loaded now
+        long generation = generations.get( namespace );
+        Key key = new Key( namespace, query );
+        Result result = cache.getIfPresent( key );
+        if ( result != null && result.generation == generation && System.nanoTime() - result.created <= maxAge )
+        {
+            return (T) result.value;
+        }
+        T value = loader.get();
+        cache.put( key, new Result( generation, value ) );
+        return value;
+    }
+
+    /**
+     * removes all cached results
+     */
+    public void invalidateAll()
+    {
+        cache.invalidateAll();
+    }
+
+    /**
+     * returns the number of cached results, including outdated ones not yet evicted
+     */
+    public long size()
+    {
+        return cache.size();
+    }
+
+    private static final class Key
+    {
+        private final MongoNamespace namespace;
+
+        private final BsonDocument query;
+
+        Key( MongoNamespace namespace, BsonDocument query )
+        {
+            this.namespace = namespace;
+            this.query = query;
+        }
+
+        @Override
+        public boolean equals( Object o )
+        {
+            if ( !( o instanceof Key ) )
+            {
+                return false;
+            }
+            Key other = (Key) o;
+            return namespace.equals( other.namespace ) && query.equals( other.query );
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hashCode( namespace, query );
+        }
+    }
+
+    private static final class Result
+    {
+        private final long generation;
+
+        private final Object value;
+
+        /**
+         * nanoTime at which the result was retrieved
+         */
+        private final long created = System.nanoTime();
+
+        Result( long generation, Object value )
+        {
+            this.generation = generation;
+            this.value = value;
+        }
+    }
+}
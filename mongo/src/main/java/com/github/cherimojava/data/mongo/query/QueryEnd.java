@@ -8,6 +8,12 @@
  */
 package com.github.cherimojava.data.mongo.query;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
 import com.github.cherimojava.data.mongo.entity.Entity;
 import com.mongodb.client.MongoCursor;
 
@@ -27,6 +33,121 @@ public interface QueryEnd<E extends Entity>
      */
     public MongoCursor<E> iterator();
 
+    /**
+     * runs the query and returns the result set as pipelined cursor. The documents are read from MongoDB and decoded
+     * into entities on the EntityFactory executor, so waiting for the network and decoding overlap. The entities are
+     * returned in the order of the result set. Only a bounded number of documents is read ahead, the cursor should be
+     * closed if it's not consumed completely. Like {@link #iterator()} the cursor can be cancelled and is profiled
+     *
+     * @return Cursor over the entities matching the query
+     */
+    public MongoCursor<E> pipelinedIterator();
+
+    /**
+     * runs the query and returns the result set as stream. Documents are decoded into entities by the thread consuming
+     * them, so a parallel stream decodes on its worker threads while the cursor fetches further batches. The stream
+     * should be closed after usage (e.g. through try-with-resources) to release the cursor, if it's not consumed
+     * completely
+     *
+     * @return Stream of the entities matching the query
+     */
+    public Stream<E> stream();
+
+    /**
+     * runs the query asynchronously and collects all matching entities into a list. The returned future is completed
+     * on a thread of the async driver, so dependent actions must not block. Requires an EntityFactory created with an
+     * async MongoDatabase
+     *
+     * @return future completed with the entities matching the query
+     */
+    public CompletableFuture<List<E>> listAsync();
+
+    /**
+     * runs the query asynchronously and hands each matching entity to the given consumer as soon as it's decoded. The
+     * consumer is called on a thread of the async driver, so it must not block. Requires an EntityFactory created with
+     * an async MongoDatabase
+     *
+     * @param consumer called for each entity matching the query
+     * @return future completed once all entities were consumed
+     */
+    public CompletableFuture<Void> forEachAsync( Consumer<? super E> consumer );
+
+    /**
+     * scans all entities matching the query in parallel. The matching documents are split into the given number of
+     * _id ranges, each of them is read and decoded on its own worker of the EntityFactory executor. Returns once all
+     * entities are consumed. Can't be combined with limit, skip or sort
+     *
+     * @param partitions number of partitions to split the scan into, usually the number of cores
+     * @param consumer called for each entity from the worker threads, thus must be thread safe
+     */
+    public void parallelForEach( int partitions, Consumer<? super E> consumer );
+
+    /**
+     * scans all entities matching the query as parallel stream. The matching documents are split into the given number
+     * of _id ranges, each of them is read and decoded on the EntityFactory executor, while the workers of the stream
+     * process the decoded entities. The stream isn't ordered and should be closed after usage. Can't be combined with
+     * limit, skip or sort
+     *
+     * @param partitions number of partitions to split the scan into, usually the number of cores
+     * @return parallel stream of the entities matching the query
+     */
+    public Stream<E> parallelStream( int partitions );
+
+    /**
+     * serves the results of {@link #iterator()} and {@link #count()} from the query cache of the EntityFactory. Results
+     * are cached until they expire or an entity of the queried collection is written through this JVM. Cached entities
+     * are shared among all callers and therefore sealed
+     */
+    public QueryEnd<E> cached();
+
+    /**
+     * forces MongoDB to use the index with the given name, which must be declared for the entity class (through
+     * {@link com.github.cherimojava.data.mongo.entity.annotation.Collection#indexes()}) or be the _id index "_id_".
+     * Indexes declared without name are named like MongoDB does, e.g. "field_1"
+     *
+     * @param indexName name of the index to use
+     */
+    public QueryEnd<E> hint( String indexName );
+
+    /**
+     * forces MongoDB to use the declared index consisting of exactly the given properties in the given order
+     *
+     * @param properties metamodel properties the index consists of
+     */
+    public QueryEnd<E> hint( QueryProperty<?, ?>... properties );
+
+    /**
+     * limits the time the server spends processing this query (maxTimeMS). If the limit is exceeded the query fails
+     * with a {@link com.mongodb.MongoExecutionTimeoutException}
+     *
+     * @param maxTime max processing time
+     * @param unit unit of the max time
+     */
+    public QueryEnd<E> maxTime( long maxTime, TimeUnit unit );
+
+    /**
+     * allows to cancel the running query through the given token. Cancelling closes the cursor of the query, which
+     * kills it on the server
+     *
+     * @param token cancelling the query
+     */
+    public QueryEnd<E> cancelWith( CancellationToken token );
+
+    /**
+     * number of documents MongoDB returns per batch
+     *
+     * @param batchSize documents per batch
+     */
+    public QueryEnd<E> batchSize( int batchSize );
+
+    /**
+     * prevents the server from timing out idle cursors (normally after 10 minutes of inactivity). Cursors without
+     * timeout must be exhausted or closed, as they're never cleaned up by the server otherwise
+     *
+     * @param noCursorTimeout true if the cursor should never time out
+     */
+    public QueryEnd<E> noCursorTimeout( boolean noCursorTimeout );
+
     /**
      * count how many entities match the given record
      * 
@@ -34,6 +155,62 @@ public interface QueryEnd<E extends Entity>
      */
     public long count();
 
+    /**
+     * count how many entities match the given record, but stop counting once the given number is reached. Useful if
+     * it's only of interest whether there are more than a certain number of matches, e.g. to display "100+"
+     *
+     * @param max number of matches after which counting stops
+     * @return number of matches, but at most max
+     */
+    public long countUpTo( long max );
+
+    /**
+     * count how many entities match the given record. The count is served from the query cache of the EntityFactory if
+     * the count of this query was cached not longer than maxAge ago, otherwise it's counted and cached. Like for
+     * {@link #cached()} writes through this JVM outdate cached counts immediately
+     *
+     * @param maxAge max age of a cached count to be served
+     * @param unit unit of the max age
+     * @return number of matches
+     */
+    public long count( long maxAge, TimeUnit unit );
+
+    /**
+     * checks if any entity matches the query. Only the _id of a single document is fetched, no entity is created
+     *
+     * @return true if at least one entity matches
+     */
+    public boolean exists();
+
+    /**
+     * returns the distinct values of the given property among the entities matching the query. The values are computed
+     * by MongoDB and decoded by the codec of the property type, no entity is created. For collection properties the
+     * distinct elements are returned. Limit, skip and sort don't apply
+     *
+     * @param methodCall Entity.getProperty call through {@link QueryStart#e()}.getProperty
+     * @param <T>
+     * @return distinct values of the property
+     */
+    public <T> List<T> distinct( T methodCall );
+
+    /**
+     * returns the distinct values of the given metamodel property among the entities matching the query
+     *
+     * @param property metamodel property to get the distinct values of, e.g. Person_.name
+     * @param <T>
+     * @return distinct values of the property
+     * @see #distinct(Object)
+     */
+    public <T> List<T> distinct( QueryProperty<E, T> property );
+
+    /**
+     * returns the ids of the entities matching the query, in the order of the result set. Only the _id of the matching
+     * documents is fetched, no entity is created
+     *
+     * @return ids of the matching entities
+     */
+    public List<Object> ids();
+
     /**
      * limit the number of results returned to the given number
      * 
@@ -54,4 +231,69 @@ public interface QueryEnd<E extends Entity>
      * @return
      */
     public QuerySort<E> sort();
+
+    /**
+     * runs the query and returns the first page of the given size. Other than {@link #skip(int)} pages are selected
+     * through a range filter on the sort properties (keyset pagination), so retrieving later pages doesn't become
+     * slower. The sort is always tie broken by _id, to be efficient there should be an index on the sort properties
+     * followed by _id. Can't be combined with limit or skip
+     *
+     * @param size number of entities per page
+     * @return first page of the result set
+     */
+    public Page<E> page( int size );
+
+    /**
+     * runs the query and returns the page of the given size following the page the given token was retrieved from.
+     * The token must originate from a page of a query with the same sort
+     *
+     * @param size number of entities per page
+     * @param token continuation token of the previous page, see {@link Page#getNextToken()}
+     * @return page following the given token
+     */
+    public Page<E> page( int size, String token );
+
+    /**
+     * groups the entities matching the query by the given properties. The grouping is computed by MongoDB through an
+     * aggregation pipeline, so only the groups are transferred. Without properties all matching entities form a single
+     * group. Can't be combined with limit, skip or sort, the grouping has its own
+     *
+     * @param methodCall Entity.getProperty calls through {@link QueryStart#e()}.getProperty to group by
+     * @return grouping to specify the accumulated values on
+     */
+    public QueryGroup<E> group( Object... methodCall );
+
+    /**
+     * groups the entities matching the query by the given metamodel properties
+     *
+     * @param properties metamodel properties to group by
+     * @return grouping to specify the accumulated values on
+     * @see #group(Object...)
+     */
+    public QueryGroup<E> group( QueryProperty<?, ?>... properties );
+
+    /**
+     * starts an update of all entities matching the query. The entities aren't loaded, instead the assignments are
+     * applied on the server through a single updateMany. Can't be combined with limit, skip or sort
+     *
+     * @return update to specify the assignments on
+     */
+    public QueryUpdate<E> updateAll();
+
+    /**
+     * deletes all entities matching the query through a single deleteMany, without loading them. Can't be combined
+     * with limit, skip or sort
+     *
+     * @return number of deleted entities
+     */
+    public long deleteAll();
+
+    /**
+     * creates an immutable, thread-safe version of this query, which can be executed multiple times. Values given as
+     * {@link QueryParameter} are bound on execution. Batch size, cursor timeout, hint and max time are kept, cached or
+     * cancellable queries and queries with in filters being chunked can't be prepared
+     *
+     * @return prepared version of this query
+     */
+    public PreparedQuery<E> prepare();
 }
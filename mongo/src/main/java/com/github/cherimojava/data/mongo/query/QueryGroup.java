@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.query;
+
+import com.github.cherimojava.data.mongo.entity.Entity;
+import com.mongodb.client.MongoCursor;
+
+/**
+ * Grouping of the entities matching a query, computed by MongoDB through an aggregation pipeline. Each group is
+ * returned as {@link GroupRow} holding the grouped properties and the accumulated values, which are accessed by the
+ * name given to the accumulator
+ *
+ * @author philnate
+ * @param <E> Entity class being grouped
+ * @since 1.0.0
+ */
+public interface QueryGroup<E extends Entity>
+{
+    /**
+     * counts the entities of each group
+     *
+     * @param name of the accumulated value
+     * @return this grouping for further configuration
+     */
+    public QueryGroup<E> count( String name );
+
+    /**
+     * sums up the given numeric property for each group
+     *
+     * @param name of the accumulated value
+     * @param methodCall Entity.getProperty call through {@link QueryStart#e()}.getProperty
+     * @param <N>
+     * @return this grouping for further configuration
+     */
+    public <N extends Number> QueryGroup<E> sum( String name, N methodCall );
+
+    /**
+     * sums up the given numeric metamodel property for each group
+     *
+     * @param name of the accumulated value
+     * @param property metamodel property to sum up, e.g. Order_.amount
+     * @return this grouping for further configuration
+     */
+    public QueryGroup<E> sum( String name, QueryProperty<E, ? extends Number> property );
+
+    /**
+     * computes the average of the given numeric property for each group
+     *
+     * @param name of the accumulated value
+     * @param methodCall Entity.getProperty call through {@link QueryStart#e()}.getProperty
+     * @param <N>
+     * @return this grouping for further configuration
+     */
+    public <N extends Number> QueryGroup<E> avg( String name, N methodCall );
+
+    /**
+     * computes the average of the given numeric metamodel property for each group
+     *
+     * @param name of the accumulated value
+     * @param property metamodel property to average, e.g. Order_.amount
+     * @return this grouping for further configuration
+     */
+    public QueryGroup<E> avg( String name, QueryProperty<E, ? extends Number> property );
+
+    /**
+     * determines the minimum of the given property for each group
+     *
+     * @param name of the accumulated value
+     * @param methodCall Entity.getProperty call through {@link QueryStart#e()}.getProperty
+     * @return this grouping for further configuration
+     */
+    public QueryGroup<E> min( String name, Object methodCall );
+
+    /**
+     * determines the minimum of the given metamodel property for each group
+     *
+     * @param name of the accumulated value
+     * @param property metamodel property to get the minimum of, e.g. Order_.amount
+     * @return this grouping for further configuration
+     */
+    public QueryGroup<E> min( String name, QueryProperty<E, ?> property );
+
+    /**
+     * determines the maximum of the given property for each group
+     *
+     * @param name of the accumulated value
+     * @param methodCall Entity.getProperty call through {@link QueryStart#e()}.getProperty
+     * @return this grouping for further configuration
+     */
+    public QueryGroup<E> max( String name, Object methodCall );
+
+    /**
+     * determines the maximum of the given metamodel property for each group
+     *
+     * @param name of the accumulated value
+     * @param property metamodel property to get the maximum of, e.g. Order_.amount
+     * @return this grouping for further configuration
+     */
+    public QueryGroup<E> max( String name, QueryProperty<E, ?> property );
+
+    /**
+     * sorts the groups by the given grouped property or accumulated value. Can be called multiple times, earlier sorts
+     * take precedence
+     *
+     * @param name mongo name of a grouped property or name of an accumulated value
+     * @param sortOrder direction to sort in
+     * @return this grouping for further configuration
+     */
+    public QueryGroup<E> sort( String name, QuerySort.Sort sortOrder );
+
+    /**
+     * limits the number of groups returned
+     *
+     * @param limit max number of groups to return
+     * @return this grouping for further configuration
+     */
+    public QueryGroup<E> limit( int limit );
+
+    /**
+     * allows MongoDB to write temporary data to disk, needed if the grouping exceeds the memory limit of the server
+     *
+     * @param allowDiskUse true if temporary data can be written to disk
+     * @return this grouping for further configuration
+     */
+    public QueryGroup<E> allowDiskUse( boolean allowDiskUse );
+
+    /**
+     * runs the aggregation and returns the cursor of the groups
+     *
+     * @return MongoCursor iterating through the groups
+     */
+    public MongoCursor<GroupRow> iterator();
+}
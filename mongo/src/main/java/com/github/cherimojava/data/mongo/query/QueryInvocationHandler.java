@@ -9,28 +9,57 @@
 package com.github.cherimojava.data.mongo.query;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.StreamSupport;
 
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.codecs.Decoder;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.conversions.Bson;
 
 import com.github.cherimojava.data.mongo.entity.Entity;
 import com.github.cherimojava.data.mongo.entity.EntityFactory;
 import com.github.cherimojava.data.mongo.entity.EntityProperties;
+import com.github.cherimojava.data.mongo.entity.EntityUtils;
 import com.github.cherimojava.data.mongo.entity.ParameterProperty;
 import com.google.common.base.Defaults;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.common.primitives.Primitives;
+import com.mongodb.async.SingleResultCallback;
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.DistinctIterable;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.CountOptions;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.Sorts;
+import com.mongodb.client.result.UpdateResult;
 
 /**
  * Outer invocation Handler joining all parts of the query building together like:
@@ -45,6 +74,11 @@ public class QueryInvocationHandler
 {
     private final MongoCollection<? extends Entity> coll;
 
+    /**
+     * async counterpart of coll, null if the query doesn't support asynchronous execution
+     */
+    private final com.mongodb.async.client.MongoCollection<? extends Entity> asyncColl;
+
     Class<? extends Entity> clazz;
 
     Supplier<Entity> entityProxy;
@@ -61,18 +95,72 @@ public class QueryInvocationHandler
 
     List<ParameterProperty> curQueriedProperty = Lists.newArrayList();
 
+    /**
+     * mongo name of the metamodel property currently queried, if the query is build through the metamodel
+     */
+    String curMetamodelProperty = null;
+
     List<Bson> filters = Lists.newArrayList();
 
     Integer limit = null;
 
     Integer skip = null;
 
+    Integer batchSize = null;
+
+    boolean noCursorTimeout = false;
+
     List<Bson> sorts = Lists.newArrayList();
 
     List<String> curSorts = Lists.newArrayList();
 
     private boolean sortSet = false;
 
+    Set<String> parameters = Sets.newHashSet();
+
+    /**
+     * executor running the partitions of parallel scans and decoding of pipelined cursors
+     */
+    private Executor executor;
+
+    /**
+     * cache for the results of this query, only used if the query is marked as cached
+     */
+    private QueryCache queryCache;
+
+    /**
+     * write generations of the queried database, increased by updateAll and deleteAll. Own ones unless the query was
+     * created through an EntityFactory
+     */
+    private WriteGenerations writeGenerations = new WriteGenerations();
+
+    private boolean cached = false;
+
+    /**
+     * index to use for this query, either its name or its key document
+     */
+    private Object hint = null;
+
+    private Long maxTimeMS = null;
+
+    private CancellationToken cancellationToken = null;
+
+    /**
+     * profiler recording the executions of this query, null if the query isn't profiled
+     */
+    private QueryProfiler profiler;
+
+    /**
+     * advisor observing the fields used by this query, null if the query isn't observed
+     */
+    private IndexAdvisor indexAdvisor;
+
+    /**
+     * $in filter with too many values, which is run in chunks. The complete $in filter is contained within the filters
+     * as well, for operations not supporting chunks
+     */
+    private ChunkedIn chunkedIn = null;
+
     public ParameterProperty getProperty( Method m )
     {
         return properties.getProperty( m );
@@ -94,8 +182,26 @@ public class QueryInvocationHandler
      */
     public <E extends Entity> QueryInvocationHandler( Class<E> clazz, MongoCollection<E> coll,
                                                       EntityProperties properties )
+    {
+        this( clazz, coll, null, properties );
+    }
+
+    /**
+     * Creates a new Invocation handler for the given Entity class and collections, along with the related
+     * EntityProperties. The async collection is used for asynchronous query execution
+     *
+     * @param clazz Entity class the query is based for
+     * @param coll Collection against which the query will be performed
+     * @param asyncColl async Collection against which asynchronous queries will be performed, might be null
+     * @param properties Entities properties of the entity class
+     * @param <E>
+     */
+    public <E extends Entity> QueryInvocationHandler( Class<E> clazz, MongoCollection<E> coll,
+                                                      com.mongodb.async.client.MongoCollection<E> asyncColl,
+                                                      EntityProperties properties )
     {
         this.coll = coll;
+        this.asyncColl = asyncColl;
         this.properties = properties;
         this.clazz = clazz;
         entityProxy = Suppliers.memoize( () -> (Entity) Proxy.newProxyInstance( getClass().getClassLoader(),
@@ -118,6 +224,57 @@ public class QueryInvocationHandler
         this.proxy = proxy;
     }
 
+    /**
+     * sets the executor on which the partitions of a parallel scan are run
+     *
+     * @param executor running the partitions of parallel scans
+     */
+    public void setExecutor( Executor executor )
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * sets the cache used for this query, if the query is marked as cached
+     *
+     * @param queryCache caching the results of this query
+     */
+    public void setQueryCache( QueryCache queryCache )
+    {
+        this.queryCache = queryCache;
+    }
+
+    /**
+     * sets the write generations of the database queried, which are increased by the writes of this query and outdate
+     * cached results
+     *
+     * @param writeGenerations write generations of the database
+     */
+    public void setWriteGenerations( WriteGenerations writeGenerations )
+    {
+        this.writeGenerations = writeGenerations;
+    }
+
+    /**
+     * sets the profiler recording the executions of this query, null if the query shouldn't be profiled
+     *
+     * @param profiler recording the executions of this query
+     */
+    public void setQueryProfiler( QueryProfiler profiler )
+    {
+        this.profiler = profiler;
+    }
+
+    /**
+     * sets the advisor observing the fields used by this query, null if the query shouldn't be observed
+     *
+     * @param indexAdvisor observing the fields used by this query
+     */
+    public void setIndexAdvisor( IndexAdvisor indexAdvisor )
+    {
+        this.indexAdvisor = indexAdvisor;
+    }
+
     @Override
     public Object invoke( Object proxy, Method method, Object[] args )
         throws Throwable
@@ -130,24 +287,129 @@ public class QueryInvocationHandler
                 return this.entityProxy.get();
             case "where":/* fallthrough */
             case "and":
+                if ( args[0] instanceof QueryProperty )
+                {
+                    curMetamodelProperty = checkMetamodelProperty( (QueryProperty) args[0] ).getMongoName();
+                }
                 return this.specifier.get();
             case "iterator":
-                FindIterable it = coll.find( Filters.and( filters.toArray( new Bson[] {} ) ) );
-                if ( limit != null )
+                checkNoParameters();
+                if ( cached )
                 {
-                    it.limit( limit );
+                    return new ListCursor<>(
+                        queryCache.get( writeGenerations, coll.getNamespace(), renderQuery( "find" ), () -> {
+                            List<Entity> entities = chunkedIn == null ? find( clazz ).into( Lists.newArrayList() )
+                                : Lists.newArrayList( findChunked( null, this::decode ) );
+                            // cached entities are shared, so they must not be modified
+                            entities.forEach( Entity::seal );
+                            return Collections.unmodifiableList( entities );
+                        } ) );
                 }
-                if ( skip != null )
+                return iterator();
+            case "cached":
+                checkNotNull( queryCache, "No query cache set" );
+                cached = true;
+                return queryEnd.get();
+            case "pipelinedIterator":
+                checkNoParameters();
+                return pipelinedIterator();
+            case "stream":
+                checkNoParameters();
+                // fetch the plain documents, so that decoding can happen on the consuming (worker) threads
+                observe();
+                MongoCursor<BsonDocument> cursor = cancellable( chunkedIn == null
+                    ? find( BsonDocument.class ).iterator() : findChunked( null, Function.identity() ) );
+                return StreamSupport.stream(
+                    new DecodingSpliterator<>( cursor, (Decoder<Entity>) coll.getCodecRegistry().get( clazz ) ),
+                    false ).onClose( cursor::close );
+            case "listAsync":
+                checkNoParameters();
+                CompletableFuture<List<Entity>> list = new CompletableFuture<>();
+                findAsync().into( Lists.newArrayList(), completing( list ) );
+                return list;
+            case "forEachAsync":
+                checkNoParameters();
+                CompletableFuture<Void> done = new CompletableFuture<>();
+                findAsync().forEach( ( (Consumer<Entity>) args[0] )::accept, completing( done ) );
+                return done;
+            case "parallelForEach":
+                checkNotNull( executor, "No executor for parallel scans set" );
+                parallelScan().forEach( (Integer) args[0], executor, (Consumer<Entity>) args[1] );
+                return null;
+            case "parallelStream":
+                checkNotNull( executor, "No executor for parallel scans set" );
+                return parallelScan().stream( (Integer) args[0], executor );
+            case "page":
+                checkNoParameters();
+                return page( (Integer) args[0], args.length > 1 ? (String) args[1] : null );
+            case "batchSize":
+                batchSize = (Integer) args[0];
+                return queryEnd.get();
+            case "noCursorTimeout":
+                noCursorTimeout = (Boolean) args[0];
+                return queryEnd.get();
+            case "count":
+                checkNoParameters();
+                if ( args != null )
                 {
-                    it.skip( skip );
+                    checkNotNull( queryCache, "No query cache set" );
+                    long maxAge = ( (TimeUnit) args[1] ).toNanos( (Long) args[0] );
+                    checkArgument( maxAge > 0, "Max age must be positive" );
+                    return queryCache.get( writeGenerations, coll.getNamespace(), renderQuery( "count" ), maxAge,
+                        () -> count( null ) );
                 }
-                if ( sorts.size() > 0 )
+                if ( cached )
                 {
-                    it.sort( Sorts.orderBy( sorts ) );
+                    return queryCache.get( writeGenerations, coll.getNamespace(), renderQuery( "count" ),
+                        () -> count( null ) );
                 }
-                return it.iterator();
-            case "count":
-                return coll.count( Filters.and( filters.toArray( new Bson[] {} ) ) );
+                return count( null );
+            case "countUpTo":
+                checkNoParameters();
+                checkArgument( (Long) args[0] > 0, "Max count must be positive" );
+                return count( (Long) args[0] );
+            case "exists":
+                checkNoParameters();
+                observe();
+                if ( chunkedIn != null )
+                {
+                    try (MongoCursor<BsonDocument> existing =
+                        findChunked( new Document( Entity.ID, 1 ), Function.identity() ))
+                    {
+                        return existing.hasNext();
+                    }
+                }
+                return find( BsonDocument.class ).projection( new Document( Entity.ID, 1 ) ).limit( 1 ).first() != null;
+            case "distinct":
+                checkNoParameters();
+                if ( args[0] instanceof QueryProperty )
+                {
+                    curMetamodelProperty = checkMetamodelProperty( (QueryProperty) args[0] ).getMongoName();
+                }
+                return distinct( getCurrentMongoName() );
+            case "ids":
+                checkNoParameters();
+                observe();
+                if ( chunkedIn != null )
+                {
+                    Decoder<Document> idDecoder = coll.getCodecRegistry().get( Document.class );
+                    return Lists.newArrayList( findChunked( new Document( Entity.ID, 1 ),
+                        d -> idDecoder.decode( new BsonDocumentReader( d ), DecoderContext.builder().build() )
+                            .get( Entity.ID ) ) );
+                }
+                return find( Document.class ).projection( new Document( Entity.ID, 1 ) ).map( d -> d.get( Entity.ID ) )
+                    .into( Lists.newArrayList() );
+            case "hint":
+                checkState( hint == null, "Hint can be specified only once" );
+                hint = resolveHint( args[0] );
+                return queryEnd.get();
+            case "maxTime":
+                maxTimeMS = ( (TimeUnit) args[1] ).toMillis( (Long) args[0] );
+                checkArgument( maxTimeMS > 0, "Max time must be at least one millisecond" );
+                return queryEnd.get();
+            case "cancelWith":
+                cancellationToken = checkNotNull( (CancellationToken) args[0] );
+                return queryEnd.get();
             case "limit":
                 limit = (Integer) args[0];
                 return queryEnd.get();
@@ -160,15 +422,598 @@ public class QueryInvocationHandler
                 return querySort.get();
             case "desc":/* fallthrough */
             case "asc":
-                return addSortInformation( "asc".equals( methodName ) );
+                return addSortInformation( "asc".equals( methodName ), (Object[]) args[0] );
             case "by":
-                return addSortInformation( args[0] == QuerySort.Sort.ASC );
+                return addSortInformation( args[0] == QuerySort.Sort.ASC, (Object[]) args[1] );
+            case "group":
+                checkNoParameters();
+                checkState( limit == null && skip == null && sorts.isEmpty(),
+                    "Grouping can't be combined with limit, skip or sort, use those of the grouping instead" );
+                // the groups of the chunks would need to be merged again, which isn't possible for all accumulators
+                checkState( chunkedIn == null, "Grouping can't be combined with more than %s values for in",
+                    ChunkedIn.CHUNK_SIZE );
+                List<String> keys = Lists.newArrayList();
+                if ( args[0] instanceof QueryProperty[] )
+                {
+                    for ( Object property : (Object[]) args[0] )
+                    {
+                        keys.add( checkMetamodelProperty( (QueryProperty) property ).getMongoName() );
+                    }
+                }
+                curQueriedProperty.forEach( parameterProperty -> keys.add( parameterProperty.getMongoName() ) );
+                curQueriedProperty.clear();
+                return Proxy.newProxyInstance( this.getClass().getClassLoader(), new Class[] { QueryGroup.class },
+                    new QueryGroupInvocationHandler( keys ) );
+            case "updateAll":
+                checkBulkWrite();
+                return Proxy.newProxyInstance( this.getClass().getClassLoader(), new Class[] { QueryUpdate.class },
+                    new QueryUpdateInvocationHandler() );
+            case "deleteAll":
+                checkBulkWrite();
+                try
+                {
+                    long deleted = 0;
+                    for ( Bson filter : chunkFilters() )
+                    {
+                        deleted += coll.deleteMany( filter ).getDeletedCount();
+                    }
+                    return deleted;
+                }
+                finally
+                {
+                    writeGenerations.invalidate( coll.getNamespace() );
+                }
+            case "prepare":
+                // prepared queries are shared, so they can't be bound to a single cancellation token or result cache
+                checkState( !cached && cancellationToken == null,
+                    "Cached or cancellable queries can't be prepared" );
+                checkState( chunkedIn == null, "Queries with more than %s values for in can't be prepared",
+                    ChunkedIn.CHUNK_SIZE );
+                return new PreparedQuery<>( (MongoCollection<Entity>) coll, filters, sorts, limit, skip, parameters,
+                    batchSize, noCursorTimeout, hint, maxTimeMS );
         }
         throw new IllegalStateException( "Unknown method found: " + methodName );
     }
 
-    private QuerySort addSortInformation( boolean asc )
+    /**
+     * creates the FindIterable for the current query, returning documents of the given type
+     */
+    private <T> FindIterable<T> find( Class<T> documentClass )
+    {
+        return find( documentClass, Filters.and( filters.toArray( new Bson[] {} ) ) );
+    }
+
+    /**
+     * creates the FindIterable for the current query with the given filter, returning documents of the given type
+     */
+    private <T> FindIterable<T> find( Class<T> documentClass, Bson filter )
+    {
+        FindIterable<T> it = coll.find( filter, documentClass );
+        if ( limit != null )
+        {
+            it.limit( limit );
+        }
+        if ( skip != null )
+        {
+            it.skip( skip );
+        }
+        if ( sorts.size() > 0 )
+        {
+            it.sort( Sorts.orderBy( sorts ) );
+        }
+        if ( batchSize != null )
+        {
+            it.batchSize( batchSize );
+        }
+        if ( noCursorTimeout )
+        {
+            it.noCursorTimeout( true );
+        }
+        applyOptions( it );
+        return it;
+    }
+
+    /**
+     * renders this query into the document identifying its results within the query cache and its shape for the
+     * profiler
+     *
+     * @param operation which is run with this query, as different operations have different results
+     */
+    private BsonDocument renderQuery( String operation )
+    {
+        CodecRegistry registry = coll.getCodecRegistry();
+        BsonDocument key = new BsonDocument( "op", new BsonString( operation ) );
+        key.put( "filter",
+            Filters.and( filters.toArray( new Bson[] {} ) ).toBsonDocument( BsonDocument.class, registry ) );
+        if ( sorts.size() > 0 )
+        {
+            key.put( "sort", Sorts.orderBy( sorts ).toBsonDocument( BsonDocument.class, registry ) );
+        }
+        if ( limit != null )
+        {
+            key.put( "limit", new BsonInt32( limit ) );
+        }
+        if ( skip != null )
+        {
+            key.put( "skip", new BsonInt32( skip ) );
+        }
+        return key;
+    }
+
+    /**
+     * retrieves the distinct values of the given property from the server, decoded by the codec of the property
+     * (element) type. Enums are stored by their name, so they're converted afterwards. Queries with a large $in filter
+     * retrieve the distinct values of each chunk, which are merged afterwards
+     */
+    @SuppressWarnings( "unchecked" )
+    private List<Object> distinct( String name )
     {
+        ParameterProperty property = properties.getProperty( name );
+        checkArgument( property != null, "Only properties of %s can be distinct, but was %s", clazz.getSimpleName(),
+            name );
+        Class<?> type = property.isCollection() ? property.getGenericType() : property.getType();
+        checkArgument( !Entity.class.isAssignableFrom( type ) && !property.isTransient() && !property.isComputed(),
+            "Can't get distinct values of entity, transient or computed property %s", name );
+        Set<Object> values = Sets.newLinkedHashSet();
+        for ( Bson filter : chunkFilters() )
+        {
+            DistinctIterable<?> it =
+                coll.distinct( name, type.isEnum() ? String.class : Primitives.wrap( type ) ).filter( filter );
+            if ( maxTimeMS != null )
+            {
+                it.maxTime( maxTimeMS, TimeUnit.MILLISECONDS );
+            }
+            for ( Object value : it )
+            {
+                values.add( type.isEnum() && value != null
+                    ? Enum.valueOf( (Class<? extends Enum>) type, (String) value ) : value );
+            }
+        }
+        return Lists.newArrayList( values );
+    }
+
+    /**
+     * lets the server explain how this query is executed
+     */
+    private BsonDocument explain()
+    {
+        return find( BsonDocument.class ).modifiers( modifiers().append( "$explain", true ) ).first();
+    }
+
+    /**
+     * runs this query and returns the cursor over the result
+     */
+    private MongoCursor<? extends Entity> iterator()
+    {
+        observe();
+        long start = System.nanoTime();
+        MongoCursor<? extends Entity> cursor =
+            chunkedIn == null ? find( clazz ).iterator() : findChunked( null, this::decode );
+        return cancellable( profiled( cursor, start ) );
+    }
+
+    /**
+     * runs this query and returns the cursor over the result, which fetches and decodes on the executor
+     */
+    @SuppressWarnings( "unchecked" )
+    private MongoCursor<Entity> pipelinedIterator()
+    {
+        checkNotNull( executor, "No executor for decoding set" );
+        observe();
+        long start = System.nanoTime();
+        MongoCursor<BsonDocument> documents =
+            chunkedIn == null ? find( BsonDocument.class ).iterator() : findChunked( null, Function.identity() );
+        // read ahead enough chunks to keep all cores busy with decoding
+        MongoCursor<Entity> cursor = new PipelinedCursor<>( documents,
+            (Decoder<Entity>) coll.getCodecRegistry().get( clazz ), executor,
+            2 * Runtime.getRuntime().availableProcessors() );
+        return cancellable( profiled( cursor, start ) );
+    }
+
+    /**
+     * hands the cursor to the profiler, if there's one
+     *
+     * @param cursor to profile
+     * @param start nano time at which the query was started
+     */
+    private <T> MongoCursor<T> profiled( MongoCursor<T> cursor, long start )
+    {
+        if ( profiler == null )
+        {
+            return cursor;
+        }
+        return profiler.profile( coll.getNamespace(), renderQuery( "find" ), System.nanoTime() - start, cursor,
+            this::explain, explainExecutor() );
+    }
+
+    /**
+     * counts the documents matching this query, but at most max documents if given
+     */
+    private long count( Long max )
+    {
+        if ( cancellationToken != null )
+        {
+            cancellationToken.checkNotCancelled();
+        }
+        observe();
+        CountOptions options = new CountOptions();
+        if ( max != null )
+        {
+            // the server stops counting once the limit is reached
+            options.limit( (int) Math.min( max, Integer.MAX_VALUE ) );
+        }
+        if ( hint instanceof String )
+        {
+            options.hintString( (String) hint );
+        }
+        else if ( hint != null )
+        {
+            options.hint( (Document) hint );
+        }
+        if ( maxTimeMS != null )
+        {
+            options.maxTime( maxTimeMS, TimeUnit.MILLISECONDS );
+        }
+        long start = System.nanoTime();
+        long count = 0;
+        if ( chunkedIn == null )
+        {
+            count = coll.count( Filters.and( filters.toArray( new Bson[] {} ) ), options );
+        }
+        else
+        {
+            List<CompletableFuture<Long>> counts = Lists.newArrayList();
+            for ( Bson chunk : chunkedIn.chunkFilters( filters ) )
+            {
+                counts.add( CompletableFuture.supplyAsync( () -> coll.count( chunk, options ), chunkExecutor() ) );
+            }
+            for ( CompletableFuture<Long> chunkCount : counts )
+            {
+                count += join( chunkCount );
+            }
+            if ( max != null )
+            {
+                count = Math.min( count, max );
+            }
+        }
+        if ( profiler != null )
+        {
+            profiler.record( coll.getNamespace(), renderQuery( "count" ), System.nanoTime() - start, 0,
+                this::explain, explainExecutor() );
+        }
+        return count;
+    }
+
+    /**
+     * hands the filter and sort of this query to the index advisor, if there's one
+     */
+    private void observe()
+    {
+        if ( indexAdvisor != null )
+        {
+            BsonDocument query = renderQuery( "find" );
+            indexAdvisor.record( clazz, query.getDocument( "filter" ),
+                query.containsKey( "sort" ) ? query.getDocument( "sort" ) : new BsonDocument() );
+        }
+    }
+
+    /**
+     * registers the cursor with the cancellation token of this query, if there's one
+     */
+    private <T> MongoCursor<T> cancellable( MongoCursor<T> cursor )
+    {
+        return cancellationToken != null ? cancellationToken.register( cursor ) : cursor;
+    }
+
+    /**
+     * query modifiers needed for the options of this query
+     */
+    private Document modifiers()
+    {
+        Document modifiers = new Document();
+        if ( hint != null )
+        {
+            modifiers.put( "$hint", hint );
+        }
+        return modifiers;
+    }
+
+    /**
+     * applies hint and max time of this query to the given find
+     */
+    private void applyOptions( FindIterable<?> it )
+    {
+        Document modifiers = modifiers();
+        if ( !modifiers.isEmpty() )
+        {
+            it.modifiers( modifiers );
+        }
+        if ( maxTimeMS != null )
+        {
+            it.maxTime( maxTimeMS, TimeUnit.MILLISECONDS );
+        }
+    }
+
+    /**
+     * resolves the given hint against the indexes declared for the queried entity
+     *
+     * @param hint either the name of the index or the metamodel properties it consists of
+     * @return name or key document of the index to use
+     */
+    private Object resolveHint( Object hint )
+    {
+        Map<String, Document> indexes = EntityUtils.getIndexes( clazz );
+        if ( hint instanceof String )
+        {
+            checkArgument( indexes.containsKey( hint ), "No index named %s declared for %s, known indexes are %s",
+                hint, clazz.getSimpleName(), indexes.keySet() );
+            return hint;
+        }
+        List<String> fields = Lists.newArrayList();
+        for ( Object property : (Object[]) hint )
+        {
+            fields.add( checkMetamodelProperty( (QueryProperty) property ).getMongoName() );
+        }
+        for ( Document keys : indexes.values() )
+        {
+            if ( Lists.newArrayList( keys.keySet() ).equals( fields ) )
+            {
+                return keys;
+            }
+        }
+        throw new IllegalArgumentException( String.format( "No index on %s declared for %s", fields,
+            clazz.getSimpleName() ) );
+    }
+
+    /**
+     * creates the parallel scan over the documents matching this query
+     */
+    @SuppressWarnings( "unchecked" )
+    private ParallelScan<Entity> parallelScan()
+    {
+        checkNoParameters();
+        checkState( limit == null && skip == null && sorts.isEmpty(),
+            "Parallel scans can't be combined with limit, skip or sort" );
+        checkState( chunkedIn == null, "Parallel scans can't be combined with more than %s values for in",
+            ChunkedIn.CHUNK_SIZE );
+        return new ParallelScan<>( (MongoCollection<Entity>) coll, Filters.and( filters.toArray( new Bson[] {} ) ),
+            batchSize, noCursorTimeout );
+    }
+
+    /**
+     * creates the async find for this query with all the options set
+     */
+    @SuppressWarnings( "unchecked" )
+    private com.mongodb.async.client.FindIterable<Entity> findAsync()
+    {
+        checkState( asyncColl != null, "Asynchronous operations require an EntityFactory with async MongoDatabase" );
+        checkState( chunkedIn == null, "Asynchronous queries can't be combined with more than %s values for in",
+            ChunkedIn.CHUNK_SIZE );
+        observe();
+        com.mongodb.async.client.FindIterable<Entity> it =
+            ( (com.mongodb.async.client.MongoCollection<Entity>) asyncColl ).find( Filters.and( filters
+                .toArray( new Bson[] {} ) ) );
+        if ( limit != null )
+        {
+            it.limit( limit );
+        }
+        if ( skip != null )
+        {
+            it.skip( skip );
+        }
+        if ( sorts.size() > 0 )
+        {
+            it.sort( Sorts.orderBy( sorts ) );
+        }
+        if ( batchSize != null )
+        {
+            it.batchSize( batchSize );
+        }
+        if ( noCursorTimeout )
+        {
+            it.noCursorTimeout( true );
+        }
+        Document modifiers = modifiers();
+        if ( !modifiers.isEmpty() )
+        {
+            it.modifiers( modifiers );
+        }
+        if ( maxTimeMS != null )
+        {
+            it.maxTime( maxTimeMS, TimeUnit.MILLISECONDS );
+        }
+        return it;
+    }
+
+    /**
+     * creates a callback completing the given future with the result of the async operation
+     */
+    private static <T> SingleResultCallback<T> completing( CompletableFuture<T> future )
+    {
+        return ( result, t ) -> {
+            if ( t != null )
+            {
+                future.completeExceptionally( t );
+            }
+            else
+            {
+                future.complete( result );
+            }
+        };
+    }
+
+    /**
+     * retrieves the page of the given size following the position of the given token (or the first page if the token
+     * is null)
+     */
+    private Page<Entity> page( int size, String token )
+    {
+        checkArgument( size > 0, "Page size must be positive, but was %s", size );
+        checkState( limit == null && skip == null, "Pagination can't be combined with limit or skip" );
+        checkState( chunkedIn == null, "Pagination can't be combined with more than %s values for in",
+            ChunkedIn.CHUNK_SIZE );
+        observe();
+        BsonDocument sort = KeysetPagination.withIdTieBreaker( sorts.isEmpty() ? new BsonDocument()
+            : Sorts.orderBy( sorts ).toBsonDocument( BsonDocument.class, coll.getCodecRegistry() ) );
+        List<Bson> pageFilters = Lists.newArrayList( filters );
+        if ( token != null )
+        {
+            pageFilters.add( KeysetPagination.filter( sort, token ) );
+        }
+        // fetch one more document than needed to know if there's a following page
+        FindIterable<BsonDocument> it =
+            coll.find( Filters.and( pageFilters.toArray( new Bson[] {} ) ), BsonDocument.class ).sort( sort )
+                .limit( size + 1 );
+        if ( noCursorTimeout )
+        {
+            it.noCursorTimeout( true );
+        }
+        applyOptions( it );
+        List<BsonDocument> documents = it.into( Lists.newArrayList() );
+        boolean hasNext = documents.size() > size;
+        if ( hasNext )
+        {
+            documents.remove( size );
+        }
+        Decoder<Entity> decoder = (Decoder<Entity>) coll.getCodecRegistry().get( clazz );
+        List<Entity> entities = Lists.newArrayListWithCapacity( documents.size() );
+        for ( BsonDocument document : documents )
+        {
+            entities.add( decoder.decode( new BsonDocumentReader( document ), DecoderContext.builder().build() ) );
+        }
+        return new Page<>( entities,
+            hasNext ? KeysetPagination.token( sort, documents.get( documents.size() - 1 ) ) : null );
+    }
+
+    private void checkNoParameters()
+    {
+        checkState( parameters.isEmpty(), "Query contains parameters %s, use prepare() to bind values", parameters );
+    }
+
+    /**
+     * runs this query as one query per chunk of its large $in filter. The chunks are queried in parallel and their
+     * results merged, sort, skip and limit are applied to the merged results
+     *
+     * @param projection of the returned documents, null to return them completely
+     * @param mapper converting the merged documents into the returned elements
+     */
+    private <T> MongoCursor<T> findChunked( Document projection, Function<BsonDocument, T> mapper )
+    {
+        BsonDocument sort = sorts.isEmpty() ? null
+            : Sorts.orderBy( sorts ).toBsonDocument( BsonDocument.class, coll.getCodecRegistry() );
+        Document fields = projection == null ? null : new Document( projection );
+        if ( fields != null && sort != null )
+        {
+            // merging needs the sort fields
+            for ( String key : sort.keySet() )
+            {
+                fields.put( key, 1 );
+            }
+        }
+        List<CompletableFuture<MongoCursor<BsonDocument>>> opening = Lists.newArrayList();
+        for ( Bson chunk : chunkedIn.chunkFilters( filters ) )
+        {
+            FindIterable<BsonDocument> it = find( BsonDocument.class, chunk ).skip( 0 ).projection( fields );
+            if ( limit != null && limit > 0 )
+            {
+                // each chunk might hold all of the merged results
+                it.limit( limit + ( skip == null ? 0 : skip ) );
+            }
+            opening.add( CompletableFuture.supplyAsync( it::iterator, chunkExecutor() ) );
+        }
+        List<MongoCursor<BsonDocument>> cursors = Lists.newArrayList();
+        try
+        {
+            for ( CompletableFuture<MongoCursor<BsonDocument>> cursor : opening )
+            {
+                cursors.add( join( cursor ) );
+            }
+        }
+        catch ( RuntimeException e )
+        {
+            opening.forEach( cursor -> cursor.thenAccept( MongoCursor::close ) );
+            throw e;
+        }
+        return new MergingCursor<>( cursors, sort, skip == null ? 0 : skip, limit, mapper );
+    }
+
+    /**
+     * executor running the queries of the chunks, if there's none they're run one after the other
+     */
+    private Executor chunkExecutor()
+    {
+        return executor != null ? executor : Runnable::run;
+    }
+
+    /**
+     * executor explaining the profiled executions of this query in the background
+     */
+    private Executor explainExecutor()
+    {
+        return executor != null ? executor : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * waits for the given future and rethrows its failure as is
+     */
+    private static <T> T join( CompletableFuture<T> future )
+    {
+        try
+        {
+            return future.join();
+        }
+        catch ( CompletionException e )
+        {
+            throw Throwables.propagate( e.getCause() );
+        }
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private Entity decode( BsonDocument document )
+    {
+        return ( (Decoder<Entity>) coll.getCodecRegistry().get( clazz ) ).decode( new BsonDocumentReader( document ),
+            DecoderContext.builder().build() );
+    }
+
+    /**
+     * verifies that the query can be run as updateMany or deleteMany, which neither support limit, skip nor sort
+     */
+    private void checkBulkWrite()
+    {
+        checkNoParameters();
+        checkState( limit == null && skip == null && sorts.isEmpty(),
+            "Updating or deleting by query can't be combined with limit, skip or sort" );
+    }
+
+    /**
+     * filter of this query or one filter per chunk if it has a large $in filter. Chunks don't overlap, so no document
+     * matches multiple filters
+     */
+    private List<Bson> chunkFilters()
+    {
+        return chunkedIn == null ? Lists.newArrayList( Filters.and( filters.toArray( new Bson[] {} ) ) )
+            : chunkedIn.chunkFilters( filters );
+    }
+
+    /**
+     * verifies that the given metamodel property belongs to the queried entity
+     */
+    private QueryProperty checkMetamodelProperty( QueryProperty property )
+    {
+        checkArgument( clazz.equals( property.getEntityClass() ), "Property %s doesn't belong to queried entity %s",
+            property, clazz.getSimpleName() );
+        return property;
+    }
+
+    private QuerySort addSortInformation( boolean asc, Object[] properties )
+    {
+        if ( properties instanceof QueryProperty[] )
+        {
+            for ( Object property : properties )
+            {
+                curSorts.add( checkMetamodelProperty( (QueryProperty) property ).getMongoName() );
+            }
+        }
         curQueriedProperty.forEach( parameterProperty -> curSorts.add( parameterProperty.getMongoName() ) );
         if ( asc )
         {
@@ -190,6 +1035,12 @@ public class QueryInvocationHandler
      */
     private String getCurrentMongoName()
     {
+        if ( curMetamodelProperty != null )
+        {
+            String name = curMetamodelProperty;
+            curMetamodelProperty = null;
+            return name;
+        }
         checkState( curQueriedProperty.size() == 1, "can't get mongo name from null property" );
         String name = curQueriedProperty.get( 0 ).getMongoName();
         // after this was set change back to null, as this invocation is exhausted
@@ -282,6 +1133,212 @@ public class QueryInvocationHandler
     }
 
 
+    /**
+     * InvocationHandler collecting the accumulators of a grouping and running it as aggregation pipeline
+     */
+    private class QueryGroupInvocationHandler
+        implements InvocationHandler
+    {
+        /**
+         * mongo names of the properties grouped by
+         */
+        private final List<String> keys;
+
+        private final Document accumulators = new Document();
+
+        private final Document groupSort = new Document();
+
+        private Integer groupLimit = null;
+
+        private boolean allowDiskUse = false;
+
+        QueryGroupInvocationHandler( List<String> keys )
+        {
+            this.keys = keys;
+        }
+
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args )
+            throws Throwable
+        {
+            String methodName = method.getName();
+            switch ( methodName )
+            {
+                case "count":
+                    accumulate( (String) args[0], new Document( "$sum", 1 ) );
+                    return proxy;
+                case "sum":/* fallthrough */
+                case "avg":/* fallthrough */
+                case "min":/* fallthrough */
+                case "max":
+                    if ( args[1] instanceof QueryProperty )
+                    {
+                        curMetamodelProperty = checkMetamodelProperty( (QueryProperty) args[1] ).getMongoName();
+                    }
+                    accumulate( (String) args[0], new Document( "$" + methodName, "$" + getCurrentMongoName() ) );
+                    return proxy;
+                case "sort":
+                    String name = (String) args[0];
+                    checkArgument( keys.contains( name ) || accumulators.containsKey( name ),
+                        "%s is neither grouped by nor accumulated", name );
+                    groupSort.put( keys.contains( name ) ? "_id." + GroupRow.keyName( name ) : name,
+                        args[1] == QuerySort.Sort.ASC ? 1 : -1 );
+                    return proxy;
+                case "limit":
+                    groupLimit = (Integer) args[0];
+                    return proxy;
+                case "allowDiskUse":
+                    allowDiskUse = (Boolean) args[0];
+                    return proxy;
+                case "iterator":
+                    AggregateIterable<Document> it =
+                        coll.aggregate( pipeline(), Document.class ).allowDiskUse( allowDiskUse );
+                    if ( maxTimeMS != null )
+                    {
+                        it.maxTime( maxTimeMS, TimeUnit.MILLISECONDS );
+                    }
+                    return cancellable( it.map( GroupRow::new ).iterator() );
+            }
+            throw new IllegalStateException( "Unknown method found: " + methodName );
+        }
+
+        private void accumulate( String name, Document accumulator )
+        {
+            checkArgument( name != null && !name.isEmpty() && !name.contains( "." ) && !name.startsWith( "$" )
+                && !"_id".equals( name ), "Invalid name %s for accumulated value", name );
+            checkArgument( !accumulators.containsKey( name ), "Name %s is already used by another accumulated value",
+                name );
+            accumulators.put( name, accumulator );
+        }
+
+        /**
+         * creates the aggregation pipeline filtering the entities through the query and grouping them
+         */
+        private List<Document> pipeline()
+        {
+            Document id = null;
+            if ( !keys.isEmpty() )
+            {
+                id = new Document();
+                for ( String key : keys )
+                {
+                    id.put( GroupRow.keyName( key ), "$" + key );
+                }
+            }
+            Document group = new Document( "_id", id );
+            group.putAll( accumulators );
+            List<Document> pipeline = Lists.newArrayList();
+            pipeline.add( new Document( "$match", Filters.and( filters.toArray( new Bson[] {} ) )
+                .toBsonDocument( BsonDocument.class, coll.getCodecRegistry() ) ) );
+            pipeline.add( new Document( "$group", group ) );
+            if ( !groupSort.isEmpty() )
+            {
+                pipeline.add( new Document( "$sort", groupSort ) );
+            }
+            if ( groupLimit != null )
+            {
+                pipeline.add( new Document( "$limit", groupLimit ) );
+            }
+            return pipeline;
+        }
+    }
+
+    /**
+     * InvocationHandler collecting the assignments of an update by query
+     */
+    private class QueryUpdateInvocationHandler
+        implements InvocationHandler
+    {
+        private final Document update = new Document();
+
+        private final Set<String> assigned = Sets.newHashSet();
+
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args )
+            throws Throwable
+        {
+            if ( "execute".equals( method.getName() ) )
+            {
+                checkState( !update.isEmpty(), "No assignments specified for update" );
+                try
+                {
+                    long matched = 0;
+                    Long modified = 0L;
+                    for ( Bson filter : chunkFilters() )
+                    {
+                        UpdateResult result = coll.updateMany( filter, update );
+                        matched += result.getMatchedCount();
+                        // servers before 2.6 don't report the number of modified documents
+                        modified = modified != null && result.isModifiedCountAvailable()
+                            ? modified + result.getModifiedCount() : null;
+                    }
+                    return UpdateResult.acknowledged( matched, modified, null );
+                }
+                finally
+                {
+                    writeGenerations.invalidate( coll.getNamespace() );
+                }
+            }
+            if ( args[0] instanceof QueryProperty )
+            {
+                curMetamodelProperty = checkMetamodelProperty( (QueryProperty) args[0] ).getMongoName();
+            }
+            ParameterProperty property = getUpdatedProperty();
+            switch ( method.getName() )
+            {
+                case "set":
+                    property.validate( args[1] );
+                    assign( "$set", property, args[1] != null && args[1].getClass().isEnum() ? args[1].toString()
+                        : args[1] );
+                    break;
+                case "unset":
+                    assign( "$unset", property, "" );
+                    break;
+                case "increment":
+                    checkArgument( Number.class.isAssignableFrom( Primitives.wrap( property.getType() ) ),
+                        "Only numeric properties can be incremented, but was %s", property.getPojoName() );
+                    checkNotNull( args[1], "Amount to increment by can't be null" );
+                    // incrementing by another type changes the stored type, which can't be decoded anymore
+                    checkArgument( Primitives.wrap( property.getType() ).isInstance( args[1] ),
+                        "Amount to increment %s by must be of type %s, but was %s", property.getPojoName(),
+                        Primitives.wrap( property.getType() ).getSimpleName(), args[1].getClass().getSimpleName() );
+                    assign( "$inc", property, args[1] );
+                    break;
+            }
+            return proxy;
+        }
+
+        /**
+         * retrieves the property currently assigned, which must be a plain property of the queried entity
+         */
+        private ParameterProperty getUpdatedProperty()
+        {
+            String name = getCurrentMongoName();
+            ParameterProperty property = properties.getProperty( name );
+            checkArgument( property != null, "Only properties of %s can be updated, but was %s",
+                clazz.getSimpleName(), name );
+            checkArgument( !Entity.ID.equals( name ), "Id of entities can't be updated" );
+            checkArgument( !property.isComputed() && !property.isTransient() && !property.isFinal(),
+                "Computed, transient or final property %s can't be updated", property.getPojoName() );
+            checkArgument( !property.isReference(), "Reference property %s can't be updated by query",
+                property.getPojoName() );
+            return property;
+        }
+
+        private void assign( String operator, ParameterProperty property, Object value )
+        {
+            checkArgument( assigned.add( property.getMongoName() ), "Property %s can be assigned only once",
+                property.getPojoName() );
+            Document assignments = (Document) update.get( operator );
+            if ( assignments == null )
+            {
+                assignments = new Document();
+                update.put( operator, assignments );
+            }
+            assignments.put( property.getMongoName(), value );
+        }
+    }
+
     /**
      * InvocationHandler creating the query condition
      */
@@ -302,6 +1359,17 @@ public class QueryInvocationHandler
         {
             // depending on the method add given filters to the query
             String property = getCurrentMongoName();
+            if ( args != null )
+            {
+                for ( int i = 0; i < args.length; i++ )
+                {
+                    if ( args[i] instanceof QueryParameter )
+                    {
+                        parameters.add( ( (QueryParameter) args[i] ).getName() );
+                        args[i] = PreparedQuery.placeholder( (QueryParameter) args[i] );
+                    }
+                }
+            }
             switch ( method.getName() )
             {
                 case "is":
@@ -324,7 +1392,23 @@ public class QueryInvocationHandler
                     filters.add( Filters.gte( property, args[0] ) );
                     break;
                 case "in":
-                    filters.add( Filters.in( property, enumsToString( (Object[]) args[0] ) ) );
+                    if ( args[0] instanceof Document )
+                    {
+                        // placeholder of a parameter, which is bound to the complete list of values
+                        filters.add( new Document( property, new Document( "$in", args[0] ) ) );
+                    }
+                    else
+                    {
+                        Object[] values = enumsToString( (Object[]) args[0] );
+                        ParameterProperty pp = properties.getProperty( property );
+                        // documents with array properties could match multiple chunks, so they're never chunked
+                        if ( chunkedIn == null && values.length > ChunkedIn.CHUNK_SIZE && pp != null
+                            && !pp.isCollection() )
+                        {
+                            chunkedIn = new ChunkedIn( property, values, filters.size() );
+                        }
+                        filters.add( Filters.in( property, values ) );
+                    }
                     break;
             }
             return parent.proxy;
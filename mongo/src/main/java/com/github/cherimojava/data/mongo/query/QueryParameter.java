@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.query;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Named placeholder for a query value, which is bound once a {@link PreparedQuery} gets executed. This allows to build
+ * a query once and run it with different values:
+ *
+ * <pre>
+ * PreparedQuery&lt;Person&gt; byAge = q.where( q.e().getAge() ).greaterThan( param( &quot;minAge&quot; ) ).prepare();
+ * byAge.iterator( ImmutableMap.of( &quot;minAge&quot;, 18 ) );
+ * </pre>
+ *
+ * @author philnate
+ * @since 1.0.0
+ */
+public final class QueryParameter
+{
+    private final String name;
+
+    private QueryParameter( String name )
+    {
+        this.name = name;
+    }
+
+    /**
+     * creates a new placeholder with the given name
+     *
+     * @param name of the parameter, used to bind the value on execution
+     * @return QueryParameter with the given name
+     */
+    public static QueryParameter param( String name )
+    {
+        checkArgument( name != null && !name.isEmpty(), "Parameter name must not be empty" );
+        return new QueryParameter( name );
+    }
+
+    /**
+     * returns the name of this parameter
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    @Override
+    public boolean equals( Object o )
+    {
+        return o instanceof QueryParameter && name.equals( ( (QueryParameter) o ).name );
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return name.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return ":" + name;
+    }
+}
@@ -0,0 +1,476 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.query;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.StringWriter;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.json.JsonWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Maps;
+import com.mongodb.MongoNamespace;
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+
+/**
+ * Collects statistics about the queries run through the fluent query API. Queries are grouped by their shape, which is
+ * the query with all values replaced by a placeholder. For each shape the number of executions, the time spent and the
+ * number of documents returned is recorded. Queries taking longer than the slow query threshold are logged. A sample
+ * of the executions is explained by the server in the background, shapes whose winning plan scans the whole collection
+ * are flagged and logged.
+ *
+ * @author philnate
+ * @since 1.0.0
+ */
+public final class QueryProfiler
+{
+    private static final Logger LOG = LoggerFactory.getLogger( QueryProfiler.class );
+
+    private static final BsonString PLACEHOLDER = new BsonString( "?" );
+
+    private static final BsonDocumentCodec CODEC = new BsonDocumentCodec();
+
+    private final ConcurrentMap<String, ShapeStatistics> statistics = Maps.newConcurrentMap();
+
+    private final long slowThreshold;
+
+    private final double explainRate;
+
+    /**
+     * creates a new profiler
+     *
+     * @param slowThreshold duration after which a query is logged as slow
+     * @param unit unit of the slow threshold
+     * @param explainRate rate between 0 (never) and 1 (always) of the executions to explain
+     */
+    public QueryProfiler( long slowThreshold, TimeUnit unit, double explainRate )
+    {
+        checkArgument( explainRate >= 0 && explainRate <= 1, "Explain rate must be between 0 and 1, but was %s",
+            explainRate );
+        this.slowThreshold = unit.toNanos( slowThreshold );
+        this.explainRate = explainRate;
+    }
+
+    /**
+     * records an execution of the given query
+     *
+     * @param namespace collection the query was run against
+     * @param query rendered query
+     * @param nanos duration of the execution
+     * @param documents number of documents returned
+     * @param explain retrieving the explain output of the query, only called for sampled executions
+     * @param executor running the explain, so that the caller isn't delayed by another round trip
+     */
+    void record( MongoNamespace namespace, BsonDocument query, long nanos, long documents,
+                 Supplier<BsonDocument> explain, Executor executor )
+    {
+        String shape = json( shape( query ) );
+        ShapeStatistics stats = statistics.computeIfAbsent( namespace.getFullName() + " " + shape,
+            k -> new ShapeStatistics( namespace.getFullName(), shape ) );
+        stats.record( nanos, documents );
+        if ( nanos > slowThreshold )
+        {
+            LOG.warn( "Slow query on {} took {} ms returning {} documents: {}", namespace.getFullName(),
+                TimeUnit.NANOSECONDS.toMillis( nanos ), documents, json( query ) );
+        }
+        if ( explainRate > 0 && ThreadLocalRandom.current().nextDouble() < explainRate )
+        {
+            executor.execute( () -> explain( namespace, query, stats, explain ) );
+        }
+    }
+
+    /**
+     * explains the given query and takes over its winning plan into the statistics of its shape
+     */
+    private void explain( MongoNamespace namespace, BsonDocument query, ShapeStatistics stats,
+                          Supplier<BsonDocument> explain )
+    {
+        BsonDocument plan;
+        try
+        {
+            plan = winningPlan( explain.get() );
+        }
+        catch ( RuntimeException e )
+        {
+            LOG.warn( "Failed to explain query on {}: {}", namespace.getFullName(), json( query ), e );
+            return;
+        }
+        boolean collectionScan = plan != null && isCollectionScan( plan );
+        if ( collectionScan && !stats.collectionScan )
+        {
+            LOG.warn( "Query on {} is answered through a collection scan: {}", namespace.getFullName(),
+                json( query ) );
+        }
+        stats.winningPlan = plan;
+        stats.collectionScan = collectionScan;
+    }
+
+    /**
+     * wraps the given cursor, so that the query is recorded once the cursor is exhausted or closed. The recorded time
+     * is the time spent within the cursor, excluding the time the consumer spends between the calls
+     */
+    <E> MongoCursor<E> profile( MongoNamespace namespace, BsonDocument query, long nanos, MongoCursor<E> cursor,
+                                Supplier<BsonDocument> explain, Executor executor )
+    {
+        return new ProfilingCursor<>( namespace, query, nanos, cursor, explain, executor );
+    }
+
+    /**
+     * returns the statistics of all recorded query shapes
+     *
+     * @return statistics per query shape
+     */
+    public Collection<ShapeStatistics> getStatistics()
+    {
+        return Collections.unmodifiableCollection( statistics.values() );
+    }
+
+    /**
+     * returns the statistics of all query shapes, whose last explained winning plan scans the whole collection
+     *
+     * @return statistics of query shapes not using an index
+     */
+    public List<ShapeStatistics> getCollectionScans()
+    {
+        return statistics.values().stream().filter( ShapeStatistics::isCollectionScan ).collect(
+            Collectors.toList() );
+    }
+
+    /**
+     * removes all recorded statistics
+     */
+    public void reset()
+    {
+        statistics.clear();
+    }
+
+    /**
+     * creates a human readable summary of all recorded statistics, sorted by the total time spent
+     *
+     * @return one line per query shape
+     */
+    public String dump()
+    {
+        return statistics.values().stream()
+            .sorted( ( a, b ) -> Long.compare( b.getTotalTime( TimeUnit.NANOSECONDS ),
+                a.getTotalTime( TimeUnit.NANOSECONDS ) ) ).map( ShapeStatistics::toString )
+            .collect( Collectors.joining( "\n" ) );
+    }
+
+    /**
+     * replaces all values within the query by a placeholder, keeping the field names and operators
+     */
+    static BsonDocument shape( BsonDocument query )
+    {
+        BsonDocument shape = new BsonDocument();
+        for ( Map.Entry<String, BsonValue> entry : query.entrySet() )
+        {
+            shape.put( entry.getKey(), shape( entry.getKey(), entry.getValue() ) );
+        }
+        return shape;
+    }
+
+    private static BsonValue shape( String key, BsonValue value )
+    {
+        if ( "sort".equals( key ) || "op".equals( key ) )
+        {
+            // sort directions and operation belong to the shape
+            return value;
+        }
+        if ( value.isDocument() )
+        {
+            return shape( value.asDocument() );
+        }
+        if ( value.isArray() && ( "$and".equals( key ) || "$or".equals( key ) || "$nor".equals( key ) ) )
+        {
+            BsonArray shapes = new BsonArray();
+            for ( BsonValue element : value.asArray() )
+            {
+                shapes.add( shape( key, element ) );
+            }
+            return shapes;
+        }
+        return PLACEHOLDER;
+    }
+
+    private static String json( BsonDocument document )
+    {
+        StringWriter writer = new StringWriter();
+        CODEC.encode( new JsonWriter( writer ), document, EncoderContext.builder().build() );
+        return writer.toString();
+    }
+
+    /**
+     * extracts the winning plan from the explain output, null if there's none
+     */
+    private static BsonDocument winningPlan( BsonDocument explain )
+    {
+        if ( explain == null )
+        {
+            return null;
+        }
+        if ( explain.isDocument( "queryPlanner" ) )
+        {
+            BsonDocument planner = explain.getDocument( "queryPlanner" );
+            return planner.isDocument( "winningPlan" ) ? planner.getDocument( "winningPlan" ) : null;
+        }
+        // servers before 3.0 report the cursor only
+        return explain.containsKey( "cursor" ) ? explain : null;
+    }
+
+    /**
+     * checks if any stage of the plan scans the whole collection
+     */
+    private static boolean isCollectionScan( BsonDocument plan )
+    {
+        if ( plan.isString( "stage" ) && "COLLSCAN".equals( plan.getString( "stage" ).getValue() ) )
+        {
+            return true;
+        }
+        if ( plan.isString( "cursor" ) && plan.getString( "cursor" ).getValue().startsWith( "BasicCursor" ) )
+        {
+            return true;
+        }
+        if ( plan.isDocument( "inputStage" ) && isCollectionScan( plan.getDocument( "inputStage" ) ) )
+        {
+            return true;
+        }
+        if ( plan.isArray( "inputStages" ) )
+        {
+            for ( BsonValue stage : plan.getArray( "inputStages" ) )
+            {
+                if ( stage.isDocument() && isCollectionScan( stage.asDocument() ) )
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Statistics of one query shape
+     */
+    public static final class ShapeStatistics
+    {
+        private final String namespace;
+
+        private final String shape;
+
+        private final AtomicLong executions = new AtomicLong();
+
+        private final AtomicLong totalTime = new AtomicLong();
+
+        private final AtomicLong maxTime = new AtomicLong();
+
+        private final AtomicLong documents = new AtomicLong();
+
+        private volatile BsonDocument winningPlan;
+
+        private volatile boolean collectionScan;
+
+        ShapeStatistics( String namespace, String shape )
+        {
+            this.namespace = namespace;
+            this.shape = shape;
+        }
+
+        void record( long nanos, long documents )
+        {
+            executions.incrementAndGet();
+            totalTime.addAndGet( nanos );
+            maxTime.accumulateAndGet( nanos, Math::max );
+            this.documents.addAndGet( documents );
+        }
+
+        /**
+         * full name of the queried collection
+         */
+        public String getNamespace()
+        {
+            return namespace;
+        }
+
+        /**
+         * query with all values replaced by a placeholder as JSON
+         */
+        public String getShape()
+        {
+            return shape;
+        }
+
+        public long getExecutions()
+        {
+            return executions.get();
+        }
+
+        public long getTotalTime( TimeUnit unit )
+        {
+            return unit.convert( totalTime.get(), TimeUnit.NANOSECONDS );
+        }
+
+        public long getMaxTime( TimeUnit unit )
+        {
+            return unit.convert( maxTime.get(), TimeUnit.NANOSECONDS );
+        }
+
+        /**
+         * total number of documents returned by all executions
+         */
+        public long getDocumentsReturned()
+        {
+            return documents.get();
+        }
+
+        /**
+         * winning plan of the last explained execution, null if no execution was explained yet
+         */
+        public BsonDocument getWinningPlan()
+        {
+            return winningPlan;
+        }
+
+        /**
+         * tells if the last explained execution scanned the whole collection
+         */
+        public boolean isCollectionScan()
+        {
+            return collectionScan;
+        }
+
+        @Override
+        public String toString()
+        {
+            long count = getExecutions();
+            return String.format( "%s %s: %d executions, %d ms total, %d ms avg, %d ms max, %d documents%s",
+                namespace, shape, count, getTotalTime( TimeUnit.MILLISECONDS ),
+                count == 0 ? 0 : getTotalTime( TimeUnit.MILLISECONDS ) / count, getMaxTime( TimeUnit.MILLISECONDS ),
+                getDocumentsReturned(), collectionScan ? ", COLLECTION SCAN" : "" );
+        }
+    }
+
+    /**
+     * Cursor measuring the time spent within it and counting the returned documents
+     */
+    private class ProfilingCursor<E>
+        implements MongoCursor<E>
+    {
+        private final MongoNamespace namespace;
+
+        private final BsonDocument query;
+
+        private final MongoCursor<E> cursor;
+
+        private final Supplier<BsonDocument> explain;
+
+        private final Executor executor;
+
+        private long nanos;
+
+        private long documents = 0;
+
+        private boolean recorded = false;
+
+        ProfilingCursor( MongoNamespace namespace, BsonDocument query, long nanos, MongoCursor<E> cursor,
+                         Supplier<BsonDocument> explain, Executor executor )
+        {
+            this.namespace = namespace;
+            this.query = query;
+            this.nanos = nanos;
+            this.cursor = cursor;
+            this.explain = explain;
+            this.executor = executor;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            long start = System.nanoTime();
+            boolean hasNext = cursor.hasNext();
+            nanos += System.nanoTime() - start;
+            if ( !hasNext )
+            {
+                record();
+            }
+            return hasNext;
+        }
+
+        @Override
+        public E next()
+        {
+            long start = System.nanoTime();
+            E next = cursor.next();
+            nanos += System.nanoTime() - start;
+            documents++;
+            return next;
+        }
+
+        @Override
+        public E tryNext()
+        {
+            long start = System.nanoTime();
+            E next = cursor.tryNext();
+            nanos += System.nanoTime() - start;
+            if ( next != null )
+            {
+                documents++;
+            }
+            return next;
+        }
+
+        @Override
+        public void close()
+        {
+            cursor.close();
+            record();
+        }
+
+        private void record()
+        {
+            if ( !recorded )
+            {
+                recorded = true;
+                QueryProfiler.this.record( namespace, query, nanos, documents, explain, executor );
+            }
+        }
+
+        @Override
+        public ServerCursor getServerCursor()
+        {
+            return cursor.getServerCursor();
+        }
+
+        @Override
+        public ServerAddress getServerAddress()
+        {
+            return cursor.getServerAddress();
+        }
+    }
+}
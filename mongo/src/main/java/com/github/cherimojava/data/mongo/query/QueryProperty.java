@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.query;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.String.format;
+
+import com.github.cherimojava.data.mongo.entity.Entity;
+import com.github.cherimojava.data.mongo.entity.EntityFactory;
+import com.github.cherimojava.data.mongo.entity.ParameterProperty;
+
+/**
+ * Typed reference to a queryable property of an Entity. QueryProperties are normally not created by hand, but
+ * generated as constants into the metamodel class of each Entity (e.g. Person_ for Person) by the
+ * {@link com.github.cherimojava.data.mongo.processor.EntityMetamodelProcessor}. They can be used instead of the
+ * recording entity proxy ({@link QueryStart#e()}) to build queries:
+ *
+ * <pre>
+ * QueryStart&lt;Person&gt; q = factory.query( Person.class );
+ * q.where( Person_.age ).greaterThan( 18 ).and( Person_.address.then( Address_.city ) ).is( &quot;Berlin&quot; );
+ * </pre>
+ *
+ * @param <E> Entity declaring the property
+ * @param <V> type of the property
+ * @author philnate
+ * @since 1.0.0
+ */
+public final class QueryProperty<E extends Entity, V>
+{
+    private final Class<E> entityClass;
+
+    private final String mongoName;
+
+    private final Class<? extends Entity> declaringClass;
+
+    private final String name;
+
+    private final Class<V> type;
+
+    private QueryProperty( Class<E> entityClass, String mongoName, Class<? extends Entity> declaringClass, String name,
+                           Class<V> type )
+    {
+        this.entityClass = entityClass;
+        this.mongoName = mongoName;
+        this.declaringClass = declaringClass;
+        this.name = name;
+        this.type = type;
+    }
+
+    /**
+     * creates a new QueryProperty for the property with the given mongo name
+     *
+     * @param entityClass entity declaring the property
+     * @param mongoName name of the property within MongoDB
+     * @param type type of the property
+     * @return QueryProperty representing the given property
+     */
+    public static <E extends Entity, V> QueryProperty<E, V> of( Class<E> entityClass, String mongoName, Class<V> type )
+    {
+        return new QueryProperty<>( entityClass, mongoName, entityClass, mongoName, type );
+    }
+
+    /**
+     * returns the Entity this property is queried on
+     */
+    public Class<E> getEntityClass()
+    {
+        return entityClass;
+    }
+
+    /**
+     * returns the (dotted) name of this property as used within MongoDB queries
+     */
+    public String getMongoName()
+    {
+        return mongoName;
+    }
+
+    /**
+     * returns the type of this property
+     */
+    public Class<V> getType()
+    {
+        return type;
+    }
+
+    /**
+     * navigates from this entity typed property into the given property of the nested entity. For embedded entities
+     * this results in a dotted path, for references only the id of the referenced entity can be queried
+     *
+     * @param nested property of the entity this property holds
+     * @param <W> type of the nested property
+     * @return QueryProperty representing the nested property
+     */
+    public <W> QueryProperty<E, W> then( QueryProperty<?, W> nested )
+    {
+        checkArgument( type.equals( nested.entityClass ), "Property %s is of type %s, but %s belongs to %s", mongoName,
+            type.getSimpleName(), nested.mongoName, nested.entityClass.getSimpleName() );
+        ParameterProperty pp = EntityFactory.getProperties( declaringClass ).getProperty( name );
+        if ( pp.isReference() )
+        {
+            // references are stored as id only, so the query is done against the property itself
+            checkArgument( !pp.isDBRef(), "nested search is currently not working on DBRef-References." );
+            checkArgument( Entity.ID.equals( nested.mongoName ),
+                "Only can perform nested query on id field, but was " + nested.mongoName );
+            return new QueryProperty<>( entityClass, mongoName, declaringClass, name, nested.type );
+        }
+        return new QueryProperty<>( entityClass, mongoName + "." + nested.mongoName, nested.declaringClass,
+            nested.name, nested.type );
+    }
+
+    @Override
+    public boolean equals( Object o )
+    {
+        if ( !( o instanceof QueryProperty ) )
+        {
+            return false;
+        }
+        QueryProperty other = (QueryProperty) o;
+        return entityClass.equals( other.entityClass ) && mongoName.equals( other.mongoName );
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return entityClass.hashCode() * 31 + mongoName.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return format( "%s.%s", entityClass.getSimpleName(), mongoName );
+    }
+}
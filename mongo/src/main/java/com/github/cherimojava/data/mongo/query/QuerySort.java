@@ -45,6 +45,31 @@ public interface QuerySort<E extends Entity>
      */
     public QuerySort<E> by( Sort sortOrder, Object... methodCall );
 
+    /**
+     * Adds the given metamodel properties to the sort criteria being sorted ascending
+     *
+     * @param properties to sort ascending
+     * @return
+     */
+    public QuerySort<E> asc( QueryProperty<?, ?>... properties );
+
+    /**
+     * Adds the given metamodel properties to the sort criteria being sorted descending
+     *
+     * @param properties to sort descending
+     * @return
+     */
+    public QuerySort<E> desc( QueryProperty<?, ?>... properties );
+
+    /**
+     * Adds the given metamodel properties to the sort criteria by the given sort order
+     *
+     * @param sortOrder
+     * @param properties
+     * @return
+     */
+    public QuerySort<E> by( Sort sortOrder, QueryProperty<?, ?>... properties );
+
     public static enum Sort
     {
         DESC, ASC
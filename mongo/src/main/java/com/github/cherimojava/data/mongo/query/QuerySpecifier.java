@@ -75,10 +75,72 @@ public interface QuerySpecifier<V, T extends Entity>
     public <N extends Number> OngoingQuery<T> greaterThanEqual( N number );
 
     /**
-     * checks that the given property is in the set of values given
+     * checks that the given property is in the set of values given. If there are very many values (more than 2000) for
+     * a non collection property, iterating, counting, exists and ids run one query per chunk of values in parallel and
+     * merge the results, applying sort, skip and limit to the merged results. Without sort the merged results are
+     * unordered. Distinct merges the values of the chunks, updates and deletes by query run one write per chunk.
+     * Grouping, pagination, asynchronous queries, parallel scans and prepared queries can't be combined with that many
+     * values
      * 
      * @param values possible values the property should have
      * @return
      */
     public OngoingQuery<T> in( V... values );
+
+    /**
+     * property must match the value bound to the given parameter
+     *
+     * @param param placeholder for the value bound on execution of the prepared query
+     * @return OngoingQuery for further query building
+     */
+    public OngoingQuery<T> is( QueryParameter param );
+
+    /**
+     * checks that the given property is between the values bound to the given parameters
+     *
+     * @param lower placeholder of the lower bound
+     * @param upper placeholder of the upper bound
+     * @return OngoingQuery for further query building
+     */
+    public OngoingQuery<T> between( QueryParameter lower, QueryParameter upper );
+
+    /**
+     * checks that the given property is less than the value bound to the given parameter
+     *
+     * @param param placeholder of the upper exclusive bound
+     * @return OngoingQuery for further query building
+     */
+    public OngoingQuery<T> lessThan( QueryParameter param );
+
+    /**
+     * checks that the given property is less than equal the value bound to the given parameter
+     *
+     * @param param placeholder of the upper inclusive bound
+     * @return OngoingQuery for further query building
+     */
+    public OngoingQuery<T> lessThanEqual( QueryParameter param );
+
+    /**
+     * checks that the given property is greater than the value bound to the given parameter
+     *
+     * @param param placeholder of the lower exclusive bound
+     * @return OngoingQuery for further query building
+     */
+    public OngoingQuery<T> greaterThan( QueryParameter param );
+
+    /**
+     * checks that the given property is greater than equal the value bound to the given parameter
+     *
+     * @param param placeholder of the lower inclusive bound
+     * @return OngoingQuery for further query building
+     */
+    public OngoingQuery<T> greaterThanEqual( QueryParameter param );
+
+    /**
+     * checks that the given property is in the collection/array of values bound to the given parameter
+     *
+     * @param param placeholder of the possible values
+     * @return OngoingQuery for further query building
+     */
+    public OngoingQuery<T> in( QueryParameter param );
 }
@@ -27,6 +27,15 @@ public interface QueryStart<E extends Entity>
      */
     public <T> QuerySpecifier<T, E> where( T methodCall );
 
+    /**
+     * Start point to build a query through the generated metamodel of the Entity
+     *
+     * @param property metamodel property to query, e.g. Person_.name
+     * @param <T>
+     * @return object allowing to specify the check against the property
+     */
+    public <T> QuerySpecifier<T, E> where( QueryProperty<E, T> property );
+
     /**
      * gives access to a simple entity proxy recoding which property is currently queried
      * 
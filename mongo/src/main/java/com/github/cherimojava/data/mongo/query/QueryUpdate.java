@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.query;
+
+import com.github.cherimojava.data.mongo.entity.Entity;
+import com.mongodb.client.result.UpdateResult;
+
+/**
+ * Assignments applied to all entities matching a query without loading them. All assignments are sent as single
+ * update to MongoDB once {@link #execute()} is called. Each property can be assigned only once per update
+ *
+ * @author philnate
+ * @param <E> Entity class being updated
+ * @since 1.0.0
+ */
+public interface QueryUpdate<E extends Entity>
+{
+    /**
+     * sets the given property to the given value
+     *
+     * @param methodCall Entity.getProperty call through {@link QueryStart#e()}.getProperty
+     * @param value new value of the property
+     * @param <T>
+     * @return this update for further assignments
+     */
+    public <T> QueryUpdate<E> set( T methodCall, T value );
+
+    /**
+     * sets the given metamodel property to the given value
+     *
+     * @param property metamodel property to set, e.g. Person_.name
+     * @param value new value of the property
+     * @param <T>
+     * @return this update for further assignments
+     */
+    public <T> QueryUpdate<E> set( QueryProperty<E, T> property, T value );
+
+    /**
+     * removes the given property
+     *
+     * @param methodCall Entity.getProperty call through {@link QueryStart#e()}.getProperty
+     * @return this update for further assignments
+     */
+    public QueryUpdate<E> unset( Object methodCall );
+
+    /**
+     * removes the given metamodel property
+     *
+     * @param property metamodel property to remove, e.g. Person_.name
+     * @return this update for further assignments
+     */
+    public QueryUpdate<E> unset( QueryProperty<E, ?> property );
+
+    /**
+     * increments the given numeric property by the given amount, negative amounts decrement it. Properties not set
+     * are set to the amount
+     *
+     * @param methodCall Entity.getProperty call through {@link QueryStart#e()}.getProperty
+     * @param amount to add to the property
+     * @param <N>
+     * @return this update for further assignments
+     */
+    public <N extends Number> QueryUpdate<E> increment( N methodCall, N amount );
+
+    /**
+     * increments the given numeric metamodel property by the given amount, negative amounts decrement it
+     *
+     * @param property metamodel property to increment, e.g. Person_.age
+     * @param amount to add to the property
+     * @param <N>
+     * @return this update for further assignments
+     */
+    public <N extends Number> QueryUpdate<E> increment( QueryProperty<E, N> property, N amount );
+
+    /**
+     * applies the assignments to all entities matching the query through a single updateMany
+     *
+     * @return number of matched and modified entities
+     */
+    public UpdateResult execute();
+}
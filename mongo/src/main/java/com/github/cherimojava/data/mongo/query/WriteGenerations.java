@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.query;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.Maps;
+import com.mongodb.MongoNamespace;
+
+/**
+ * Write generations of the collections of one MongoDatabase. The generation of a collection is increased with every
+ * write done through entities or the EntityFactory, which outdates the results cached for the collection by any
+ * {@link QueryCache}. All EntityFactories of the same MongoDatabase share one instance, so writes to a collection of
+ * the same name within another database or cluster don't affect each other.
+ *
+ * @author philnate
+ * @since 1.0.0
+ */
+public final class WriteGenerations
+{
+    private final ConcurrentMap<MongoNamespace, AtomicLong> generations = Maps.newConcurrentMap();
+
+    /**
+     * marks all cached results of the given collection as outdated. Needs to be called for each write to the
+     * collection
+     *
+     * @param namespace collection which was written to
+     */
+    public void invalidate( MongoNamespace namespace )
+    {
+        generation( namespace ).incrementAndGet();
+    }
+
+    /**
+     * returns the current write generation of the given collection
+     *
+     * @param namespace collection to get the generation for
+     * @return current generation of the collection
+     */
+    long get( MongoNamespace namespace )
+    {
+        return generation( namespace ).get();
+    }
+
+    private AtomicLong generation( MongoNamespace namespace )
+    {
+        return generations.computeIfAbsent( namespace, ns -> new AtomicLong() );
+    }
+}
@@ -18,6 +18,7 @@ import org.junit.BeforeClass;
 import com.github.cherimojava.data.mongo.entity.EntityFactory;
 import com.mongodb.MongoClient;
 import com.mongodb.ServerAddress;
+import com.mongodb.async.client.MongoClients;
 import com.mongodb.client.MongoDatabase;
 
 /**
@@ -33,6 +34,8 @@ public abstract class MongoBase
 
     protected MongoClient client;
 
+    protected com.mongodb.async.client.MongoClient asyncClient;
+
     protected EntityFactory factory;
 
     @After
@@ -40,6 +43,7 @@ public abstract class MongoBase
     {
         db.drop();
         client.close();
+        asyncClient.close();
     }
 
     @BeforeClass
@@ -60,6 +64,7 @@ public abstract class MongoBase
     {
         client = new MongoClient( new ServerAddress( "localhost", Suite.getPort() ) );
         db = client.getDatabase( this.getClass().getSimpleName() );
-        factory = new EntityFactory( db );
+        asyncClient = MongoClients.create( "mongodb://localhost:" + Suite.getPort() );
+        factory = new EntityFactory( db, asyncClient.getDatabase( this.getClass().getSimpleName() ) );
     }
 }
@@ -410,6 +410,17 @@ public class _EntityInvocationHandler
         assertJson( sameJSONAs( "{ \"Integer\" : 1}" ), pe );
     }
 
+    @Test
+    public void toStringWithoutDatabase()
+    {
+        PrimitiveEntity pe = EntityFactory.instantiate( PrimitiveEntity.class );
+        pe.setInteger( 1 );
+        assertJson( sameJSONAs( "{ \"Integer\" : 1}" ), pe );
+        String fingerprint = EntityUtils.fingerprint( pe );
+        assertEquals( fingerprint, EntityUtils.fingerprint( EntityFactory.instantiate( PrimitiveEntity.class )
+            .setInteger( 1 ) ) );
+    }
+
     @Test
     public void validationMsg()
     {
@@ -270,6 +270,58 @@ public class _EntityUtils
         }
     }
 
+    /**
+     * Test that fingerprints only depend on the entity data and change once the entity is modified
+     */
+    @Test
+    public void fingerprint()
+    {
+        PrimitiveEntity first = EntityFactory.instantiate( PrimitiveEntity.class );
+        first.setString( "some" ).setInteger( 4 );
+        PrimitiveEntity second = EntityFactory.instantiate( PrimitiveEntity.class );
+        second.setInteger( 4 );
+        second.setString( "some" );
+        String fingerprint = EntityUtils.fingerprint( first );
+        assertEquals( fingerprint, EntityUtils.fingerprint( second ) );
+        assertEquals( fingerprint, EntityUtils.fingerprint( first ) );
+
+        first.setString( "other" );
+        assertFalse( fingerprint.equals( EntityUtils.fingerprint( first ) ) );
+        first.setString( "some" );
+        assertEquals( fingerprint, EntityUtils.fingerprint( first ) );
+    }
+
+    /**
+     * Test that modifications of contained collections are reflected in the fingerprint
+     */
+    @Test
+    public void fingerprintContainedCollection()
+    {
+        AddEntity entity = EntityFactory.instantiate( AddEntity.class );
+        entity.addString( "one" );
+        String fingerprint = EntityUtils.fingerprint( entity );
+        entity.getString().add( "two" );
+        assertFalse( fingerprint.equals( EntityUtils.fingerprint( entity ) ) );
+    }
+
+    /**
+     * Test that modifications of contained entities are reflected in the fingerprint of the containing entity
+     */
+    @Test
+    public void fingerprintContainedEntity()
+    {
+        PrimitiveEntity pe = EntityFactory.instantiate( PrimitiveEntity.class );
+        pe.setString( "some" );
+        NestedEntity entity = EntityFactory.instantiate( NestedEntity.class );
+        entity.setPE( pe );
+        String fingerprint = EntityUtils.fingerprint( entity );
+        assertEquals( fingerprint, EntityUtils.fingerprint( entity ) );
+        pe.setString( "other" );
+        assertFalse( fingerprint.equals( EntityUtils.fingerprint( entity ) ) );
+        pe.setString( "some" );
+        assertEquals( fingerprint, EntityUtils.fingerprint( entity ) );
+    }
+
     private static interface IdNameTest
         extends Entity<IdNameTest>
     {
@@ -15,6 +15,9 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 import static uk.co.datumedge.hamcrest.json.SameJSONAs.sameJSONAs;
 
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 import javax.inject.Named;
 
 import org.bson.Document;
@@ -24,6 +27,8 @@ import com.github.cherimojava.data.mongo.MongoBase;
 import com.github.cherimojava.data.mongo.entity.annotation.Collection;
 import com.github.cherimojava.data.mongo.entity.annotation.Index;
 import com.github.cherimojava.data.mongo.entity.annotation.IndexField;
+import com.github.cherimojava.data.mongo.query.QueryStart;
+import com.google.common.collect.Lists;
 
 public class _Indexes
     extends MongoBase
@@ -65,12 +70,61 @@ public class _Indexes
         }
     }
 
+    @Test
+    public void declaredIndexes()
+    {
+        Map<String, Document> indexes = EntityUtils.getIndexes( IndexedEntity.class );
+        assertEquals( Lists.newArrayList( "_id_", "single", "string_-1_anotherString_1" ),
+            Lists.newArrayList( indexes.keySet() ) );
+        assertEquals( new Document( "string", -1 ).append( "anotherString", 1 ),
+            indexes.get( "string_-1_anotherString_1" ) );
+    }
+
+    @Test
+    public void queryWithHint()
+    {
+        factory.create( IndexedEntity.class ).setString( "a" ).setAnotherString( "b" ).save();
+        QueryStart<IndexedEntity> query = factory.query( IndexedEntity.class );
+        assertEquals( 1, query.where( query.e().getString() ).is( "a" ).hint( "single" )
+            .maxTime( 10, TimeUnit.SECONDS ).count() );
+        query = factory.query( IndexedEntity.class );
+        assertEquals( 1, Lists.newArrayList( query.where( query.e().getString() ).is( "a" )
+            .hint( _Indexes_IndexedEntity_.string, _Indexes_IndexedEntity_.anotherString ).iterator() ).size() );
+    }
+
+    @Test
+    public void hintNeedsDeclaredIndex()
+    {
+        QueryStart<IndexedEntity> query = factory.query( IndexedEntity.class );
+        try
+        {
+            query.where( query.e().getString() ).is( "a" ).hint( "unknown" );
+            fail( "should throw an exception" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            assertThat( e.getMessage(), containsString( "No index named unknown" ) );
+        }
+        query = factory.query( IndexedEntity.class );
+        try
+        {
+            // fields must match the index in order
+            query.where( query.e().getString() ).is( "a" ).hint( _Indexes_IndexedEntity_.anotherString,
+                _Indexes_IndexedEntity_.string );
+            fail( "should throw an exception" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            assertThat( e.getMessage(), containsString( "No index on [anotherString, string]" ) );
+        }
+    }
+
     @Collection( indexes = {
         @Index( name = "single", value = { @IndexField( field = "string", order = IndexField.Ordering.ASC ) }),
         @Index( value = { @IndexField( field = "string", order = IndexField.Ordering.DESC ),
             @IndexField( field = "anotherString", order = IndexField.Ordering.ASC ) }, unique = true) })
     @Named( "collection" )
-    private interface IndexedEntity
+    interface IndexedEntity
         extends Entity<IndexedEntity>
     {
         public String getString();
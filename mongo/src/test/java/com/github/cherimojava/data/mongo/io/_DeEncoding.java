@@ -32,6 +32,7 @@ import static uk.co.datumedge.hamcrest.json.SameJSONAs.sameJSONAs;
 import java.io.StringWriter;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.StringUtils;
@@ -366,6 +367,188 @@ public class _DeEncoding
         assertEquals( pe, read );
     }
 
+    @Test
+    public void saveAndLoadAsync()
+        throws Exception
+    {
+        PrimitiveEntity pe = factory.create( PrimitiveEntity.class );
+        pe.setInteger( 1 );
+        pe.setString( "async" );
+
+        factory.saveAsync( pe ).get( 10, TimeUnit.SECONDS );
+        assertTrue( EntityUtils.isPersisted( pe ) );
+        assertEquals( pe, factory.load( PrimitiveEntity.class, pe.get( ID ) ) );
+
+        pe.setString( "changed" );
+        factory.saveAsync( pe ).get( 10, TimeUnit.SECONDS );
+        assertEquals( pe, factory.loadAsync( PrimitiveEntity.class, pe.get( ID ) ).get( 10, TimeUnit.SECONDS ) );
+        assertEquals( 1, factory.getCollection( PrimitiveEntity.class ).count() );
+    }
+
+    @Test
+    public void loadAsyncNotExisting()
+        throws Exception
+    {
+        assertNull( factory.loadAsync( PrimitiveEntity.class, new ObjectId() ).get( 10, TimeUnit.SECONDS ) );
+    }
+
+    @Test
+    public void atomicIncrement()
+    {
+        PrimitiveEntity pe = factory.create( PrimitiveEntity.class ).setString( "counter" );
+        pe.setInteger( 1 );
+        pe.save();
+        PrimitiveEntity other = factory.load( PrimitiveEntity.class, pe.get( ID ) );
+
+        assertEquals( 3, pe.increment( "Integer", 2 ) );
+        // increments of other instances aren't lost
+        assertEquals( 8, other.increment( "Integer", 5 ) );
+        assertEquals( 7, pe.increment( "Integer", -1 ) );
+        assertEquals( 7, (int) pe.getInteger() );
+        assertEquals( 7, (int) factory.load( PrimitiveEntity.class, pe.get( ID ) ).getInteger() );
+        try
+        {
+            pe.increment( "string", 1 );
+            fail( "should throw an exception" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            assertThat( e.getMessage(), containsString( "isn't numeric" ) );
+        }
+    }
+
+    @Test
+    public void atomicUpdateNeedsSavedEntity()
+    {
+        PrimitiveEntity pe = factory.create( PrimitiveEntity.class );
+        try
+        {
+            pe.increment( "Integer", 1 );
+            fail( "should throw an exception" );
+        }
+        catch ( IllegalStateException e )
+        {
+            assertThat( e.getMessage(), containsString( "must be saved" ) );
+        }
+    }
+
+    @Test
+    public void atomicPushAndAddToSet()
+    {
+        CollectionEntity ce = factory.create( CollectionEntity.class );
+        ce.setStrings( Lists.newArrayList( "one" ) );
+        ce.save();
+        CollectionEntity other = factory.load( CollectionEntity.class, ce.get( ID ) );
+
+        ce.push( "strings", "two", "one" );
+        assertEquals( Lists.newArrayList( "one", "two", "one" ), ce.getStrings() );
+        other.addToSet( "strings", "one", "three" );
+        assertEquals( Lists.newArrayList( "one", "two", "one", "three" ), other.getStrings() );
+        assertEquals( other.getStrings(), factory.load( CollectionEntity.class, ce.get( ID ) ).getStrings() );
+    }
+
+    @Test
+    public void atomicUpdateRejectsUnsavedModifications()
+    {
+        CollectionEntity ce = factory.create( CollectionEntity.class );
+        ce.setStrings( Lists.newArrayList( "one" ) );
+        ce.save();
+        ce.getStrings().add( "local" );
+        try
+        {
+            ce.push( "strings", "two" );
+            fail( "should throw an exception" );
+        }
+        catch ( IllegalStateException e )
+        {
+            assertThat( e.getMessage(), containsString( "unsaved modifications" ) );
+        }
+        // nothing was written and the local addition is kept
+        assertEquals( Lists.newArrayList( "one", "local" ), ce.getStrings() );
+        assertEquals( Lists.newArrayList( "one" ), factory.load( CollectionEntity.class, ce.get( ID ) ).getStrings() );
+
+        ce.save();
+        ce.push( "strings", "two" );
+        assertEquals( Lists.newArrayList( "one", "local", "two" ), ce.getStrings() );
+
+        PrimitiveEntity pe = factory.create( PrimitiveEntity.class ).setString( "counter" );
+        pe.setInteger( 1 );
+        pe.save();
+        pe.setInteger( 5 );
+        try
+        {
+            pe.increment( "Integer", 1 );
+            fail( "should throw an exception" );
+        }
+        catch ( IllegalStateException e )
+        {
+            assertThat( e.getMessage(), containsString( "unsaved modifications" ) );
+        }
+
+        // loaded entities have no unsaved modifications
+        CollectionEntity loaded = factory.load( CollectionEntity.class, ce.get( ID ) );
+        loaded.push( "strings", "three" );
+        assertEquals( Lists.newArrayList( "one", "local", "two", "three" ), loaded.getStrings() );
+        loaded.getStrings().set( 0, "replaced" );
+        try
+        {
+            loaded.push( "strings", "four" );
+            fail( "should throw an exception" );
+        }
+        catch ( IllegalStateException e )
+        {
+            assertThat( e.getMessage(), containsString( "unsaved modifications" ) );
+        }
+    }
+
+    @Test
+    public void appendedElementsArePushed()
+    {
+        CommonInterfaces.AddEntity ae = factory.create( CommonInterfaces.AddEntity.class ).setId( "appending" );
+        ae.addString( "a" );
+        ae.save();
+        // modify the list behind the entity, which isn't overwritten if only appended elements are saved
+        factory.getCollection( CommonInterfaces.AddEntity.class ).updateOne( new Document( ID, "appending" ),
+            new Document( "$push", new Document( "string", "external" ) ) );
+
+        ae.addString( "b" );
+        ae.addString( "c" );
+        ae.save();
+        assertEquals( Lists.newArrayList( "a", "external", "b", "c" ),
+            factory.load( CommonInterfaces.AddEntity.class, "appending" ).getString() );
+
+        // other modifications rewrite the whole list
+        ae.getString().remove( "a" );
+        ae.addString( "d" );
+        ae.save();
+        assertEquals( Lists.newArrayList( "b", "c", "d" ),
+            factory.load( CommonInterfaces.AddEntity.class, "appending" ).getString() );
+    }
+
+    @Test
+    public void appendedElementsOfLoadedEntityArePushed()
+    {
+        CommonInterfaces.AddEntity ae = factory.create( CommonInterfaces.AddEntity.class ).setId( "loaded" );
+        ae.setString( Lists.newArrayList( "a", "b" ) );
+        ae.save();
+        CommonInterfaces.AddEntity loaded = factory.load( CommonInterfaces.AddEntity.class, "loaded" );
+        factory.getCollection( CommonInterfaces.AddEntity.class ).updateOne( new Document( ID, "loaded" ),
+            new Document( "$push", new Document( "string", "external" ) ) );
+
+        // the decoded elements are equal, but not the same as the ones saved
+        loaded.getString().add( "c" );
+        loaded.save();
+        assertEquals( Lists.newArrayList( "a", "b", "external", "c" ),
+            factory.load( CommonInterfaces.AddEntity.class, "loaded" ).getString() );
+
+        // replacing elements through the getter rewrites the whole list
+        loaded.getString().set( 0, "z" );
+        loaded.getString().add( "d" );
+        loaded.save();
+        assertEquals( Lists.newArrayList( "z", "b", "c", "d" ),
+            factory.load( CommonInterfaces.AddEntity.class, "loaded" ).getString() );
+    }
+
     @Test
     public void persistAfterSave()
     {
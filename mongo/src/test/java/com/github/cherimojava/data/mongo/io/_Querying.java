@@ -8,31 +8,59 @@
  */
 package com.github.cherimojava.data.mongo.io;
 
+import static com.github.cherimojava.data.mongo.query.QueryParameter.param;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.isIn;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.junit.Before;
 import org.junit.Test;
 
 import com.github.cherimojava.data.mongo.CommonInterfaces;
+import com.github.cherimojava.data.mongo.CommonInterfaces_PrimitiveEntity_;
 import com.github.cherimojava.data.mongo.MongoBase;
+import com.github.cherimojava.data.mongo.Suite;
 import com.github.cherimojava.data.mongo.entity.Entity;
+import com.github.cherimojava.data.mongo.entity.EntityFactory;
+import com.github.cherimojava.data.mongo.entity.ExistenceFilter;
+import com.github.cherimojava.data.mongo.entity.LoadResult;
 import com.github.cherimojava.data.mongo.entity.annotation.Id;
 import com.github.cherimojava.data.mongo.entity.annotation.Reference;
+import com.github.cherimojava.data.mongo.query.CancellationToken;
+import com.github.cherimojava.data.mongo.query.GroupRow;
 import com.github.cherimojava.data.mongo.query.OngoingQuery;
+import com.github.cherimojava.data.mongo.query.Page;
+import com.github.cherimojava.data.mongo.query.PreparedQuery;
+import com.github.cherimojava.data.mongo.query.QueryProperty;
 import com.github.cherimojava.data.mongo.query.QuerySort;
 import com.github.cherimojava.data.mongo.query.QueryStart;
+import com.github.cherimojava.data.mongo.query.QueryUpdate;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
 import com.mongodb.client.MongoCursor;
+import com.mongodb.client.result.UpdateResult;
 
 public class _Querying
     extends MongoBase
@@ -303,6 +331,921 @@ public class _Querying
         i.where(i.e().getInt());
     }
 
+    @Test
+    public void preparedQuery()
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        PreparedQuery<CommonInterfaces.PrimitiveEntity> prepared =
+            query.where( query.e().getInteger() ).greaterThanEqual( param( "min" ) ).sort()
+                .desc( query.e().getInteger() ).prepare();
+        assertEquals( ImmutableSet.of( "min" ), prepared.getParameters() );
+        assertThat( Lists.newArrayList( prepared.iterator( ImmutableMap.of( "min", 2 ) ) ),
+            equalTo( Lists.newArrayList( entityList.get( 2 ), entityList.get( 1 ) ) ) );
+        assertThat( Lists.newArrayList( prepared.iterator( ImmutableMap.of( "min", 3 ) ) ),
+            equalTo( Lists.newArrayList( entityList.get( 2 ) ) ) );
+        assertEquals( 3, prepared.count( ImmutableMap.of( "min", 1 ) ) );
+    }
+
+    @Test
+    public void preparedQueryWithoutParameters()
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        PreparedQuery<CommonInterfaces.PrimitiveEntity> prepared =
+            query.where( query.e().getString() ).is( "two" ).prepare();
+        assertThat( Lists.newArrayList( prepared.iterator() ), containsInAnyOrder( entityList.get( 1 ) ) );
+        assertThat( Lists.newArrayList( prepared.iterator() ), containsInAnyOrder( entityList.get( 1 ) ) );
+    }
+
+    @Test
+    public void preparedQueryIn()
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        PreparedQuery<CommonInterfaces.PrimitiveEntity> prepared =
+            query.where( query.e().getString() ).in( param( "names" ) ).and( query.e().getInteger() )
+                .lessThan( param( "max" ) ).prepare();
+        assertThat(
+            Lists.newArrayList( prepared.iterator( ImmutableMap.of( "names", Lists.newArrayList( "one", "three" ),
+                "max", 5 ) ) ), containsInAnyOrder( entityList.get( 0 ), entityList.get( 2 ) ) );
+        assertEquals( 1, prepared.count( ImmutableMap.of( "names", new String[] { "one", "three" }, "max", 2 ) ) );
+    }
+
+    @Test
+    public void preparedQueryEnum()
+    {
+        factory.create( EnumEntity.class ).setEnum( TestEnum.A ).save();
+        factory.create( EnumEntity.class ).setEnum( TestEnum.C ).save();
+        QueryStart<EnumEntity> q = factory.query( EnumEntity.class );
+        PreparedQuery<EnumEntity> prepared = q.where( q.e().getEnum() ).is( param( "enum" ) ).prepare();
+        assertEquals( 1, prepared.count( ImmutableMap.of( "enum", TestEnum.A ) ) );
+        assertEquals( 0, prepared.count( ImmutableMap.of( "enum", TestEnum.B ) ) );
+    }
+
+    @Test
+    public void preparedQueryKeepsOptions()
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        PreparedQuery<CommonInterfaces.PrimitiveEntity> prepared =
+            query.where( query.e().getInteger() ).lessThan( param( "max" ) ).batchSize( 1 )
+                .maxTime( 10, TimeUnit.SECONDS ).prepare();
+        assertThat( Lists.newArrayList( prepared.iterator( ImmutableMap.of( "max", 3 ) ) ),
+            containsInAnyOrder( entityList.get( 0 ), entityList.get( 1 ) ) );
+        assertEquals( 2, prepared.count( ImmutableMap.of( "max", 3 ) ) );
+
+        query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        try
+        {
+            query.where( query.e().getInteger() ).is( 1 ).cancelWith( new CancellationToken() ).prepare();
+            fail( "should throw an exception" );
+        }
+        catch ( IllegalStateException e )
+        {
+            assertThat( e.getMessage(), containsString( "can't be prepared" ) );
+        }
+    }
+
+    @Test
+    public void preparedQueryRequiresAllParameters()
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        PreparedQuery<CommonInterfaces.PrimitiveEntity> prepared =
+            query.where( query.e().getInteger() ).is( param( "int" ) ).prepare();
+        try
+        {
+            prepared.iterator();
+            fail( "should throw an exception" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            assertThat( e.getMessage(), containsString( "requires parameters" ) );
+        }
+    }
+
+    @Test
+    public void parametersNeedPreparedQuery()
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        try
+        {
+            query.where( query.e().getInteger() ).is( param( "int" ) ).iterator();
+            fail( "should throw an exception" );
+        }
+        catch ( IllegalStateException e )
+        {
+            assertThat( e.getMessage(), containsString( "use prepare()" ) );
+        }
+    }
+
+    @Test
+    public void metamodelQuery()
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        MongoCursor<CommonInterfaces.PrimitiveEntity> result =
+            query.where( CommonInterfaces_PrimitiveEntity_.integer ).between( 1, 2 )
+                .and( CommonInterfaces_PrimitiveEntity_.string ).is( "two" ).iterator();
+        assertThat( Lists.newArrayList( result ), containsInAnyOrder( entityList.get( 1 ) ) );
+    }
+
+    @Test
+    public void metamodelSorting()
+    {
+        fillSortingList();
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        MongoCursor<CommonInterfaces.PrimitiveEntity> cursor =
+            query.where( CommonInterfaces_PrimitiveEntity_.string ).in( "a", "b" ).sort()
+                .asc( CommonInterfaces_PrimitiveEntity_.integer ).desc( CommonInterfaces_PrimitiveEntity_.string )
+                .iterator();
+        assertThat( Lists.newArrayList( cursor ),
+            equalTo( Lists.newArrayList( entityList.get( 1 ), entityList.get( 2 ), entityList.get( 0 ) ) ) );
+    }
+
+    @Test
+    public void metamodelMixedWithProxy()
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        assertEquals( 1, query.where( CommonInterfaces_PrimitiveEntity_.integer ).lessThan( 3 )
+            .and( query.e().getString() ).is( "one" ).count() );
+    }
+
+    @Test
+    public void metamodelReferenceId()
+    {
+        Inner inner = factory.create( Inner.class ).setName( "something" );
+        inner.save();
+        Outer one = factory.create( Outer.class ).setInner( inner );
+        one.save();
+        factory.create( Outer.class ).save();
+        QueryStart<Outer> query = factory.query( Outer.class );
+        QueryProperty<Outer, String> innerName =
+            QueryProperty.of( Outer.class, "inner", Inner.class ).then( QueryProperty.of( Inner.class, "_id",
+                String.class ) );
+        assertEquals( "inner", innerName.getMongoName() );
+        assertEquals( Lists.newArrayList( one ), Lists.newArrayList( query.where( innerName ).is( "something" )
+            .iterator() ) );
+    }
+
+    @Test
+    public void metamodelOfOtherEntityRejected()
+    {
+        QueryStart<Outer> query = factory.query( Outer.class );
+        try
+        {
+            query.where( (QueryProperty) CommonInterfaces_PrimitiveEntity_.string ).is( "one" );
+            fail( "should throw an exception" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            assertThat( e.getMessage(), containsString( "doesn't belong to queried entity" ) );
+        }
+    }
+
+    @Test
+    public void stream()
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        try (Stream<CommonInterfaces.PrimitiveEntity> stream =
+            query.where( query.e().getInteger() ).lessThan( 3 ).sort().asc( query.e().getInteger() ).stream())
+        {
+            assertThat( stream.collect( Collectors.toList() ),
+                equalTo( Lists.newArrayList( entityList.get( 0 ), entityList.get( 1 ) ) ) );
+        }
+    }
+
+    @Test
+    public void parallelStream()
+    {
+        for ( int i = 0; i < 2500; i++ )
+        {
+            createSaveEntity( i, "parallel" );
+        }
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        try (Stream<CommonInterfaces.PrimitiveEntity> stream =
+            query.where( query.e().getString() ).is( "parallel" ).sort().asc( query.e().getInteger() ).batchSize( 100 )
+                .stream().parallel())
+        {
+            List<Integer> ints = stream.map( CommonInterfaces.PrimitiveEntity::getInteger ).collect( Collectors.toList() );
+            assertEquals( 2500, ints.size() );
+            for ( int i = 0; i < 2500; i++ )
+            {
+                // parallel streams keep the encounter order
+                assertEquals( i, (int) ints.get( i ) );
+            }
+        }
+    }
+
+    @Test
+    public void batchSizeAndNoCursorTimeout()
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        MongoCursor<CommonInterfaces.PrimitiveEntity> cursor =
+            query.where( query.e().getInteger() ).lessThan( 4 ).batchSize( 1 ).noCursorTimeout( true ).iterator();
+        assertEquals( 3, Lists.newArrayList( cursor ).size() );
+    }
+
+    @Test
+    public void listAsync()
+        throws Exception
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        List<CommonInterfaces.PrimitiveEntity> found =
+            query.where( query.e().getInteger() ).greaterThan( 1 ).sort().asc( query.e().getInteger() ).listAsync()
+                .get( 10, TimeUnit.SECONDS );
+        assertThat( found, equalTo( Lists.newArrayList( entityList.get( 1 ), entityList.get( 2 ) ) ) );
+    }
+
+    @Test
+    public void forEachAsync()
+        throws Exception
+    {
+        List<CommonInterfaces.PrimitiveEntity> found = new CopyOnWriteArrayList<>();
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        query.where( query.e().getInteger() ).lessThan( 3 ).forEachAsync( found::add ).get( 10, TimeUnit.SECONDS );
+        assertThat( found, containsInAnyOrder( entityList.get( 0 ), entityList.get( 1 ) ) );
+    }
+
+    @Test
+    public void cachedQuery()
+    {
+        assertEquals( 2, cachedLessThanThree().size() );
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        assertEquals( 2L, query.where( query.e().getInteger() ).lessThan( 3 ).cached().count() );
+        // writes bypassing entities aren't seen until the cache expires
+        factory.getCollection( CommonInterfaces.PrimitiveEntity.class ).insertOne( createEntity( 0, "zero" ) );
+        assertEquals( 2, cachedLessThanThree().size() );
+        query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        assertEquals( 2L, query.where( query.e().getInteger() ).lessThan( 3 ).cached().count() );
+
+        // saving an entity of the class invalidates the cached results
+        createSaveEntity( -1, "minus one" );
+        assertEquals( 4, cachedLessThanThree().size() );
+        query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        assertEquals( 4L, query.where( query.e().getInteger() ).lessThan( 3 ).cached().count() );
+
+        entityList.get( 0 ).drop();
+        assertEquals( 3, cachedLessThanThree().size() );
+    }
+
+    @Test
+    public void cachedQueryPerDatabase()
+    {
+        assertEquals( 2, cachedLessThanThree().size() );
+        // same collection reached through another client, as if it were a different cluster
+        MongoClient otherClient = new MongoClient( new ServerAddress( "localhost", Suite.getPort() ) );
+        try
+        {
+            EntityFactory other = new EntityFactory( otherClient.getDatabase( db.getName() ) );
+            other.create( CommonInterfaces.PrimitiveEntity.class ).setString( "zero" ).setInteger( 0 ).save();
+            assertEquals( 2, cachedLessThanThree().size() );
+        }
+        finally
+        {
+            otherClient.close();
+        }
+
+        // entities loaded through the factory share its write generations
+        CommonInterfaces.PrimitiveEntity loaded = factory.load( CommonInterfaces.PrimitiveEntity.class,
+            entityList.get( 2 ).get( Entity.ID ) );
+        loaded.setInteger( -3 );
+        loaded.save();
+        assertEquals( 4, cachedLessThanThree().size() );
+    }
+
+    @Test
+    public void cachedEntitiesAreSealed()
+    {
+        CommonInterfaces.PrimitiveEntity cached = cachedLessThanThree().get( 0 );
+        try
+        {
+            cached.setString( "modified" );
+            fail( "should throw an exception" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            assertThat( e.getMessage(), containsString( "sealed" ) );
+        }
+    }
+
+    private List<CommonInterfaces.PrimitiveEntity> cachedLessThanThree()
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        return Lists.newArrayList( query.where( query.e().getInteger() ).lessThan( 3 ).sort()
+            .asc( query.e().getInteger() ).cached().iterator() );
+    }
+
+    @Test
+    public void pipelinedIterator()
+    {
+        for ( int i = 0; i < 1000; i++ )
+        {
+            createSaveEntity( i, "pipelined" );
+        }
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        try (MongoCursor<CommonInterfaces.PrimitiveEntity> cursor =
+            query.where( query.e().getString() ).is( "pipelined" ).sort().asc( query.e().getInteger() ).batchSize( 50 )
+                .pipelinedIterator())
+        {
+            int i = 0;
+            while ( cursor.hasNext() )
+            {
+                assertEquals( i++, (int) cursor.next().getInteger() );
+            }
+            assertEquals( 1000, i );
+        }
+    }
+
+    @Test
+    public void pipelinedIteratorClosedEarly()
+    {
+        for ( int i = 0; i < 1000; i++ )
+        {
+            createSaveEntity( i, "pipelined" );
+        }
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        MongoCursor<CommonInterfaces.PrimitiveEntity> cursor =
+            query.where( query.e().getString() ).is( "pipelined" ).batchSize( 10 ).pipelinedIterator();
+        assertTrue( cursor.hasNext() );
+        cursor.next();
+        cursor.close();
+        assertFalse( cursor.hasNext() );
+    }
+
+    @Test
+    public void pipelinedIteratorCancelled()
+    {
+        for ( int i = 0; i < 1000; i++ )
+        {
+            createSaveEntity( i, "pipelined" );
+        }
+        CancellationToken token = new CancellationToken();
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        MongoCursor<CommonInterfaces.PrimitiveEntity> cursor = query.where( query.e().getString() ).is( "pipelined" )
+            .batchSize( 10 ).cancelWith( token ).pipelinedIterator();
+        assertTrue( cursor.hasNext() );
+        cursor.next();
+        token.cancel();
+        try
+        {
+            cursor.hasNext();
+            fail( "should throw an exception" );
+        }
+        catch ( CancellationException e )
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void parallelForEach()
+    {
+        for ( int i = 0; i < 1000; i++ )
+        {
+            createSaveEntity( i, "scan" );
+        }
+        Set<Integer> found = Sets.newConcurrentHashSet();
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        query.where( query.e().getString() ).is( "scan" ).parallelForEach( 4, pe -> {
+            assertTrue( "entity scanned twice", found.add( pe.getInteger() ) );
+        } );
+        assertEquals( 1000, found.size() );
+    }
+
+    @Test
+    public void parallelScanWholeCollection()
+    {
+        for ( int i = 0; i < 100; i++ )
+        {
+            createSaveEntity( i, "scan" );
+        }
+        AtomicInteger count = new AtomicInteger();
+        factory.parallelScan( CommonInterfaces.PrimitiveEntity.class, 8, pe -> count.incrementAndGet() );
+        assertEquals( 103, count.get() );
+        try (Stream<CommonInterfaces.PrimitiveEntity> stream =
+            factory.parallelStream( CommonInterfaces.PrimitiveEntity.class, 8 ))
+        {
+            assertEquals( 103, stream.map( pe -> pe.get( Entity.ID ) ).distinct().count() );
+        }
+    }
+
+    @Test
+    public void parallelScanNotWithSort()
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        try
+        {
+            query.where( query.e().getInteger() ).lessThan( 4 ).sort().asc( query.e().getInteger() )
+                .parallelForEach( 2, pe -> {
+                } );
+            fail( "should throw an exception" );
+        }
+        catch ( IllegalStateException e )
+        {
+            assertThat( e.getMessage(), containsString( "limit, skip or sort" ) );
+        }
+    }
+
+    @Test
+    public void cancelQuery()
+    {
+        CancellationToken token = new CancellationToken();
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        MongoCursor<CommonInterfaces.PrimitiveEntity> cursor =
+            query.where( query.e().getInteger() ).lessThan( 4 ).batchSize( 1 ).cancelWith( token ).iterator();
+        assertTrue( cursor.hasNext() );
+        cursor.next();
+        token.cancel();
+        assertTrue( token.isCancelled() );
+        try
+        {
+            cursor.hasNext();
+            fail( "should throw an exception" );
+        }
+        catch ( CancellationException e )
+        {
+            assertThat( e.getMessage(), containsString( "cancelled" ) );
+        }
+    }
+
+    @Test
+    public void paging()
+    {
+        for ( int i = 0; i < 10; i++ )
+        {
+            // duplicate sort values must neither be skipped nor repeated across pages
+            createSaveEntity( i / 3, "page" );
+        }
+        List<CommonInterfaces.PrimitiveEntity> found = Lists.newArrayList();
+        String token = null;
+        int pages = 0;
+        do
+        {
+            QueryStart<CommonInterfaces.PrimitiveEntity> query =
+                factory.query( CommonInterfaces.PrimitiveEntity.class );
+            OngoingQuery<CommonInterfaces.PrimitiveEntity> ongoing =
+                query.where( query.e().getString() ).is( "page" );
+            Page<CommonInterfaces.PrimitiveEntity> page = token == null
+                ? ongoing.sort().desc( query.e().getInteger() ).page( 4 )
+                : ongoing.sort().desc( query.e().getInteger() ).page( 4, token );
+            assertTrue( page.getEntities().size() <= 4 );
+            found.addAll( page.getEntities() );
+            token = page.getNextToken();
+            pages++;
+        }
+        while ( token != null );
+        assertEquals( 3, pages );
+        assertEquals( 10, found.size() );
+        assertEquals( 10, ImmutableSet.copyOf( found ).size() );
+        for ( int i = 1; i < found.size(); i++ )
+        {
+            assertTrue( found.get( i - 1 ).getInteger() >= found.get( i ).getInteger() );
+        }
+    }
+
+    @Test
+    public void pagingWithNullSortValues()
+    {
+        for ( int i = 0; i < 4; i++ )
+        {
+            createSaveEntity( i, "nulls" );
+            // null and missing values sort last in descending order
+            factory.create( CommonInterfaces.PrimitiveEntity.class ).setString( "nulls" ).save();
+        }
+        List<CommonInterfaces.PrimitiveEntity> found = Lists.newArrayList();
+        String token = null;
+        do
+        {
+            QueryStart<CommonInterfaces.PrimitiveEntity> query =
+                factory.query( CommonInterfaces.PrimitiveEntity.class );
+            OngoingQuery<CommonInterfaces.PrimitiveEntity> ongoing =
+                query.where( query.e().getString() ).is( "nulls" );
+            Page<CommonInterfaces.PrimitiveEntity> page = token == null
+                ? ongoing.sort().desc( query.e().getInteger() ).page( 3 )
+                : ongoing.sort().desc( query.e().getInteger() ).page( 3, token );
+            found.addAll( page.getEntities() );
+            token = page.getNextToken();
+        }
+        while ( token != null );
+        assertEquals( 8, ImmutableSet.copyOf( found ).size() );
+        assertEquals( Lists.newArrayList( 3, 2, 1, 0, null, null, null, null ), found.stream()
+            .map( CommonInterfaces.PrimitiveEntity::getInteger ).collect( Collectors.toList() ) );
+    }
+
+    @Test
+    public void pagingLastPageHasNoToken()
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        Page<CommonInterfaces.PrimitiveEntity> page =
+            query.where( query.e().getInteger() ).lessThan( 4 ).sort().asc( query.e().getInteger() ).page( 3 );
+        assertThat( page.getEntities(), equalTo( entityList ) );
+        assertFalse( page.hasNext() );
+    }
+
+    @Test
+    public void pagingTokenOfOtherSortRejected()
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        Page<CommonInterfaces.PrimitiveEntity> page =
+            query.where( query.e().getInteger() ).lessThan( 4 ).sort().asc( query.e().getInteger() ).page( 1 );
+        assertTrue( page.hasNext() );
+        query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        try
+        {
+            query.where( query.e().getInteger() ).lessThan( 4 ).sort().asc( query.e().getString() ).page( 1,
+                page.getNextToken() );
+            fail( "should throw an exception" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            assertThat( e.getMessage(), containsString( "doesn't match the sort" ) );
+        }
+    }
+
+    @Test
+    public void pagingNotWithSkip()
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        try
+        {
+            query.where( query.e().getInteger() ).lessThan( 4 ).skip( 1 ).page( 1 );
+            fail( "should throw an exception" );
+        }
+        catch ( IllegalStateException e )
+        {
+            assertThat( e.getMessage(), containsString( "limit or skip" ) );
+        }
+    }
+
+    @Test
+    public void chunkedIn()
+    {
+        List<CommonInterfaces.PrimitiveEntity> entities = Lists.newArrayList();
+        for ( int i = 0; i < 5000; i++ )
+        {
+            entities.add( createEntity( i, "chunked" ) );
+        }
+        factory.saveAll( CommonInterfaces.PrimitiveEntity.class, entities );
+        Integer[] values = new Integer[4600];
+        for ( int i = 0; i < values.length; i++ )
+        {
+            // the matching values are spread over all chunks, duplicates are ignored
+            values[i] = ( i * 7 ) % 4500 + 500;
+        }
+
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        assertEquals( 4500, query.where( query.e().getInteger() ).in( values ).count() );
+        query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        assertEquals( 100, query.where( query.e().getInteger() ).in( values ).countUpTo( 100 ) );
+
+        query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        List<Integer> found = Lists.newArrayList( query.where( query.e().getInteger() ).in( values ).sort()
+            .desc( query.e().getInteger() ).skip( 10 ).limit( 20 ).iterator() ).stream()
+            .map( CommonInterfaces.PrimitiveEntity::getInteger ).collect( Collectors.toList() );
+        assertEquals( 20, found.size() );
+        for ( int i = 0; i < 20; i++ )
+        {
+            assertEquals( 4989 - i, (int) found.get( i ) );
+        }
+
+        query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        try (Stream<CommonInterfaces.PrimitiveEntity> stream =
+            query.where( query.e().getString() ).is( "chunked" ).and( query.e().getInteger() ).in( values ).stream())
+        {
+            assertEquals( 4500, stream.map( CommonInterfaces.PrimitiveEntity::getInteger ).distinct().count() );
+        }
+
+        query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        assertTrue( query.where( query.e().getInteger() ).in( values ).exists() );
+        query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        assertEquals( 4500, query.where( query.e().getInteger() ).in( values ).ids().size() );
+        query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        assertEquals( 4500, query.where( query.e().getInteger() ).in( values ).distinct( query.e().getInteger() )
+            .size() );
+        query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        assertEquals( 4500, Lists.newArrayList( query.where( query.e().getInteger() ).in( values ).cached().iterator() )
+            .size() );
+
+        query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        UpdateResult result = query.where( query.e().getInteger() ).in( values ).updateAll()
+            .set( query.e().getString(), "updated" ).execute();
+        assertEquals( 4500, result.getMatchedCount() );
+        query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        assertEquals( 4500, query.where( query.e().getString() ).is( "updated" ).count() );
+        query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        assertEquals( 4500, query.where( query.e().getInteger() ).in( values ).deleteAll() );
+
+        query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        try
+        {
+            query.where( query.e().getInteger() ).in( values ).page( 10 );
+            fail( "should throw an exception" );
+        }
+        catch ( IllegalStateException e )
+        {
+            assertThat( e.getMessage(), containsString( "more than 2000 values for in" ) );
+        }
+    }
+
+    @Test
+    public void countUpTo()
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        assertEquals( 2, query.where( query.e().getInteger() ).greaterThan( 0 ).countUpTo( 2 ) );
+        query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        assertEquals( 3, query.where( query.e().getInteger() ).greaterThan( 0 ).countUpTo( 100 ) );
+    }
+
+    @Test
+    public void countWithMaxAge()
+        throws InterruptedException
+    {
+        assertEquals( 2, countLessThanThree( 1, TimeUnit.HOURS ) );
+        // writes bypassing entities aren't seen while the count is young enough
+        factory.getCollection( CommonInterfaces.PrimitiveEntity.class ).insertOne( createEntity( 0, "zero" ) );
+        assertEquals( 2, countLessThanThree( 1, TimeUnit.HOURS ) );
+        Thread.sleep( 5 );
+        assertEquals( 3, countLessThanThree( 1, TimeUnit.MILLISECONDS ) );
+    }
+
+    private long countLessThanThree( long maxAge, TimeUnit unit )
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        return query.where( query.e().getInteger() ).lessThan( 3 ).count( maxAge, unit );
+    }
+
+    @Test
+    public void estimatedCount()
+    {
+        assertEquals( 3, factory.estimatedCount( CommonInterfaces.PrimitiveEntity.class ) );
+        assertEquals( 0, factory.estimatedCount( EnumEntity.class ) );
+    }
+
+    @Test
+    public void loadAll()
+    {
+        ObjectId unknown = new ObjectId();
+        Object first = entityList.get( 0 ).get( Entity.ID );
+        Object third = entityList.get( 2 ).get( Entity.ID );
+        List<Object> ids = Lists.newArrayList( third, unknown, first, third );
+        LoadResult<CommonInterfaces.PrimitiveEntity> result =
+            factory.loadAll( CommonInterfaces.PrimitiveEntity.class, ids );
+        assertFalse( result.isComplete() );
+        assertEquals( Lists.newArrayList( unknown ), result.getMissingIds() );
+        assertEquals( Lists.newArrayList( 3, 1 ), result.getEntities().stream()
+            .map( CommonInterfaces.PrimitiveEntity::getInteger ).collect( Collectors.toList() ) );
+        assertEquals( Lists.newArrayList( third, first ), Lists.newArrayList( result.asMap().keySet() ) );
+        assertEquals( "one", result.asMap().get( first ).getString() );
+
+        assertTrue( factory.loadAll( CommonInterfaces.PrimitiveEntity.class, Lists.newArrayList() ).isComplete() );
+    }
+
+    @Test
+    public void loadAllNumericIds()
+    {
+        // stored as Int32, while loaded through Int64 ids
+        factory.create( CommonInterfaces.PrimitiveTypeEntity.class ).setInt( 5 ).save();
+        ExistenceFilter filter = new ExistenceFilter( 1000, 0.001, 100, 1, TimeUnit.MINUTES );
+        factory.setExistenceFilter( CommonInterfaces.PrimitiveTypeEntity.class, filter );
+        try
+        {
+            LoadResult<CommonInterfaces.PrimitiveTypeEntity> result =
+                factory.loadAll( CommonInterfaces.PrimitiveTypeEntity.class, Lists.newArrayList( 5L, 6L ) );
+            assertEquals( Lists.newArrayList( 6L ), result.getMissingIds() );
+            assertEquals( 5, result.asMap().get( 5L ).getInt() );
+            // found ids aren't cached as missing
+            assertTrue( filter.mightExist( 5L ) );
+            assertTrue( filter.mightExist( 5 ) );
+            assertEquals( 5, factory.load( CommonInterfaces.PrimitiveTypeEntity.class, 5 ).getInt() );
+        }
+        finally
+        {
+            factory.removeExistenceFilter( CommonInterfaces.PrimitiveTypeEntity.class );
+        }
+    }
+
+    @Test
+    public void existenceFilter()
+    {
+        ExistenceFilter filter = new ExistenceFilter( 1000, 0.001, 100, 1, TimeUnit.MINUTES );
+        factory.setExistenceFilter( CommonInterfaces.PrimitiveEntity.class, filter );
+        ObjectId hidden = new ObjectId();
+        try
+        {
+            assertEquals( filter, factory.getExistenceFilter( CommonInterfaces.PrimitiveEntity.class ) );
+            Object first = entityList.get( 0 ).get( Entity.ID );
+            assertTrue( filter.mightExist( first ) );
+            assertEquals( "one", factory.load( CommonInterfaces.PrimitiveEntity.class, first ).getString() );
+
+            // written behind the filter's back, so loads don't query it
+            db.getCollection( factory.getCollection( CommonInterfaces.PrimitiveEntity.class ).getNamespace()
+                .getCollectionName() ).insertOne( new Document( Entity.ID, hidden ).append( "string", "hidden" ) );
+            assertFalse( filter.mightExist( hidden ) );
+            assertNull( factory.load( CommonInterfaces.PrimitiveEntity.class, hidden ) );
+            LoadResult<CommonInterfaces.PrimitiveEntity> result =
+                factory.loadAll( CommonInterfaces.PrimitiveEntity.class, Lists.newArrayList( first, hidden ) );
+            assertEquals( Lists.newArrayList( hidden ), result.getMissingIds() );
+
+            CommonInterfaces.PrimitiveEntity saved = createSaveEntity( 4, "four" );
+            assertTrue( filter.mightExist( saved.get( Entity.ID ) ) );
+            assertEquals( "four", factory.load( CommonInterfaces.PrimitiveEntity.class, saved.get( Entity.ID ) )
+                .getString() );
+
+            // dropped ids are cached as missing
+            saved.drop();
+            assertFalse( filter.mightExist( saved.get( Entity.ID ) ) );
+            saved.save();
+            assertTrue( filter.mightExist( saved.get( Entity.ID ) ) );
+        }
+        finally
+        {
+            factory.removeExistenceFilter( CommonInterfaces.PrimitiveEntity.class );
+        }
+        assertEquals( null, factory.getExistenceFilter( CommonInterfaces.PrimitiveEntity.class ) );
+        assertEquals( "hidden", factory.load( CommonInterfaces.PrimitiveEntity.class, hidden ).getString() );
+    }
+
+    @Test
+    public void existenceFilterPerDatabase()
+    {
+        factory.setExistenceFilter( CommonInterfaces.PrimitiveEntity.class, new ExistenceFilter( 1000, 0.001 ) );
+        // same collection reached through another client, as if it were a different cluster
+        MongoClient otherClient = new MongoClient( new ServerAddress( "localhost", Suite.getPort() ) );
+        try
+        {
+            EntityFactory other = new EntityFactory( otherClient.getDatabase( db.getName() ) );
+            assertNull( other.getExistenceFilter( CommonInterfaces.PrimitiveEntity.class ) );
+            CommonInterfaces.PrimitiveEntity saved =
+                other.create( CommonInterfaces.PrimitiveEntity.class ).setString( "other" );
+            saved.save();
+            // saves through other instances of the database are known to the filter as well
+            assertEquals( "other", factory.load( CommonInterfaces.PrimitiveEntity.class, saved.get( Entity.ID ) )
+                .getString() );
+            assertEquals( "other", other.load( CommonInterfaces.PrimitiveEntity.class, saved.get( Entity.ID ) )
+                .getString() );
+        }
+        finally
+        {
+            otherClient.close();
+            factory.removeExistenceFilter( CommonInterfaces.PrimitiveEntity.class );
+        }
+    }
+
+    @Test
+    public void exists()
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        assertTrue( query.where( query.e().getString() ).is( "two" ).exists() );
+        query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        assertFalse( query.where( query.e().getString() ).is( "four" ).exists() );
+    }
+
+    @Test
+    public void distinct()
+    {
+        createSaveEntity( 4, "two" );
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        List<String> strings = query.where( query.e().getInteger() ).greaterThan( 1 ).distinct( query.e().getString() );
+        assertThat( strings, containsInAnyOrder( "two", "three" ) );
+        query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        List<Integer> integers = query.where( query.e().getString() ).is( "two" )
+            .distinct( CommonInterfaces_PrimitiveEntity_.integer );
+        assertThat( integers, containsInAnyOrder( 2, 4 ) );
+
+        factory.create( EnumEntity.class ).setEnum( TestEnum.A ).save();
+        factory.create( EnumEntity.class ).setEnum( TestEnum.A ).save();
+        factory.create( EnumEntity.class ).setEnum( TestEnum.C ).save();
+        QueryStart<EnumEntity> q = factory.query( EnumEntity.class );
+        assertThat( q.where( q.e().getEnum() ).in( TestEnum.A, TestEnum.B, TestEnum.C ).distinct( q.e().getEnum() ),
+            containsInAnyOrder( TestEnum.A, TestEnum.C ) );
+    }
+
+    @Test
+    public void ids()
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        assertEquals( Lists.newArrayList( entityList.get( 2 ).get( Entity.ID ), entityList.get( 1 ).get( Entity.ID ) ),
+            query.where( query.e().getInteger() ).greaterThan( 1 ).sort().desc( query.e().getInteger() ).ids() );
+    }
+
+    @Test
+    public void group()
+    {
+        createSaveEntity( 4, "two" );
+        createSaveEntity( 6, "two" );
+        createSaveEntity( 5, "one" );
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        List<GroupRow> rows = Lists.newArrayList( query.where( query.e().getInteger() ).lessThan( 10 )
+            .group( query.e().getString() ).count( "count" ).sum( "total", query.e().getInteger() )
+            .avg( "avg", CommonInterfaces_PrimitiveEntity_.integer ).min( "min", query.e().getInteger() )
+            .max( "max", CommonInterfaces_PrimitiveEntity_.integer ).sort( "total", QuerySort.Sort.DESC ).limit( 2 )
+            .allowDiskUse( true ).iterator() );
+        assertEquals( 2, rows.size() );
+
+        GroupRow two = rows.get( 0 );
+        assertEquals( "two", two.getKey( "string" ) );
+        assertEquals( "two", two.getKey( CommonInterfaces_PrimitiveEntity_.string ) );
+        assertEquals( 3, two.getLong( "count" ) );
+        assertEquals( 12, two.getLong( "total" ) );
+        assertEquals( 4.0, two.getDouble( "avg" ), 0.001 );
+        assertEquals( 2, two.getLong( "min" ) );
+        assertEquals( 6, two.getLong( "max" ) );
+
+        GroupRow one = rows.get( 1 );
+        assertEquals( "one", one.getKey( CommonInterfaces_PrimitiveEntity_.string ) );
+        assertEquals( 6, one.getLong( "total" ) );
+    }
+
+    @Test
+    public void groupWithoutProperties()
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        MongoCursor<GroupRow> rows = query.where( query.e().getInteger() ).greaterThan( 1 )
+            .group( new QueryProperty<?, ?>[0] ).count( "count" ).sum( "total", query.e().getInteger() ).iterator();
+        GroupRow all = rows.next();
+        assertFalse( rows.hasNext() );
+        assertEquals( 2, all.getLong( "count" ) );
+        assertEquals( 5, all.getLong( "total" ) );
+        try
+        {
+            query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+            query.where( query.e().getInteger() ).greaterThan( 1 ).group().count( "count" ).sort( "unknown",
+                QuerySort.Sort.ASC );
+            fail( "should throw an exception" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            assertThat( e.getMessage(), containsString( "neither grouped by nor accumulated" ) );
+        }
+    }
+
+    @Test
+    public void updateAll()
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        UpdateResult result = query.where( query.e().getInteger() ).lessThan( 3 ).updateAll()
+            .set( query.e().getString(), "updated" ).increment( query.e().getInteger(), 5 ).execute();
+        assertEquals( 2, result.getMatchedCount() );
+        assertEquals( 2, result.getModifiedCount() );
+
+        query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        List<CommonInterfaces.PrimitiveEntity> updated =
+            Lists.newArrayList( query.where( query.e().getString() ).is( "updated" ).iterator() );
+        assertEquals( 2, updated.size() );
+        assertThat( updated.stream().map( CommonInterfaces.PrimitiveEntity::getInteger ).collect( Collectors.toList() ),
+            containsInAnyOrder( 6, 7 ) );
+
+        query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        query.where( CommonInterfaces_PrimitiveEntity_.integer ).is( 3 ).updateAll()
+            .unset( CommonInterfaces_PrimitiveEntity_.string ).execute();
+        assertEquals( null, factory.load( CommonInterfaces.PrimitiveEntity.class, entityList.get( 2 ).get( Entity.ID ) )
+            .getString() );
+    }
+
+    @Test
+    public void updateAllRejectsInvalidAssignments()
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        QueryUpdate<CommonInterfaces.PrimitiveEntity> update =
+            query.where( query.e().getInteger() ).lessThan( 3 ).updateAll().set( query.e().getString(), "a" );
+        try
+        {
+            update.set( query.e().getString(), "b" );
+            fail( "should throw an exception" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            assertThat( e.getMessage(), containsString( "only once" ) );
+        }
+
+        query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        try
+        {
+            // a long amount would turn the stored Int32 into an Int64
+            query.where( query.e().getInteger() ).lessThan( 3 ).updateAll().increment( query.e().getInteger(), 5L );
+            fail( "should throw an exception" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            assertThat( e.getMessage(), containsString( "must be of type Integer, but was Long" ) );
+        }
+
+        query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        try
+        {
+            query.where( query.e().getInteger() ).lessThan( 3 ).limit( 1 ).updateAll();
+            fail( "should throw an exception" );
+        }
+        catch ( IllegalStateException e )
+        {
+            assertThat( e.getMessage(), containsString( "limit, skip or sort" ) );
+        }
+    }
+
+    @Test
+    public void deleteAll()
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        assertEquals( 2, query.where( query.e().getInteger() ).greaterThan( 1 ).deleteAll() );
+        assertEquals( 1, factory.getCollection( CommonInterfaces.PrimitiveEntity.class ).count() );
+    }
+
     private void fillSortingList()
     {
         factory.getCollection( CommonInterfaces.PrimitiveEntity.class ).drop();
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.processor;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.cherimojava.data.mongo.TestBase;
+import com.github.cherimojava.data.mongo.query.QueryProperty;
+import com.google.common.base.Charsets;
+
+public class _EntityMetamodelProcessor
+    extends TestBase
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String PERSON = "package meta;\n" + "import java.util.List;\n"
+        + "import javax.inject.Named;\n" + "import com.github.cherimojava.data.mongo.entity.Entity;\n"
+        + "import com.github.cherimojava.data.mongo.entity.annotation.Id;\n"
+        + "public interface Person extends Entity<Person> {\n" + "    @Id public String getName();\n"
+        + "    public Person setName( String name );\n" + "    @Named( \"years\" ) public int getAge();\n"
+        + "    public boolean isActive();\n" + "    public List<String> getTags();\n"
+        + "    public Address getAddress();\n"
+        + "    public static interface Address extends Entity<Address> { public String getCity(); }\n" + "}\n";
+
+    @Test
+    public void metamodelGenerated()
+        throws Exception
+    {
+        File out = compile( PERSON );
+        String source =
+            new String( Files.readAllBytes( new File( out, "meta/Person_.java" ).toPath() ), Charsets.UTF_8 );
+        assertThat( source, containsString( "public final class Person_" ) );
+        assertTrue( new File( out, "meta/Person_Address_.java" ).exists() );
+
+        try (URLClassLoader loader = new URLClassLoader( new URL[] { out.toURI().toURL() }, getClass().getClassLoader() ))
+        {
+            Class<?> metamodel = loader.loadClass( "meta.Person_" );
+            assertProperty( metamodel, "name", "_id", String.class );
+            assertProperty( metamodel, "age", "years", Integer.class );
+            assertProperty( metamodel, "active", "active", Boolean.class );
+            assertProperty( metamodel, "tags", "tags", List.class );
+            assertProperty( metamodel, "address", "address", loader.loadClass( "meta.Person$Address" ) );
+            assertProperty( loader.loadClass( "meta.Person_Address_" ), "city", "city", String.class );
+        }
+    }
+
+    @Test
+    public void nonEntitiesIgnored()
+        throws IOException
+    {
+        File out = compile( "package meta;\npublic interface Plain { public String getName(); }\n" );
+        assertFalse( new File( out, "meta/Plain_.java" ).exists() );
+    }
+
+    private void assertProperty( Class<?> metamodel, String field, String mongoName, Class<?> type )
+        throws Exception
+    {
+        QueryProperty property = (QueryProperty) metamodel.getField( field ).get( null );
+        assertEquals( mongoName, property.getMongoName() );
+        assertEquals( type, property.getType() );
+    }
+
+    /**
+     * compiles the given source with the metamodel processor and returns the directory holding the generated sources
+     * and classes
+     */
+    private File compile( String source )
+        throws IOException
+    {
+        File out = folder.newFolder();
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        List<String> options = Arrays.asList( "-classpath", System.getProperty( "java.class.path" ), "-d",
+            out.getAbsolutePath(), "-s", out.getAbsolutePath(), "-processor", EntityMetamodelProcessor.class.getName() );
+        String name = source.substring( source.indexOf( "interface " ) + 10 ).split( "\\s" )[0];
+        JavaFileObject file = new SimpleJavaFileObject( URI.create( "string:///meta/" + name + ".java" ),
+            JavaFileObject.Kind.SOURCE )
+        {
+            @Override
+            public CharSequence getCharContent( boolean ignoreEncodingErrors )
+            {
+                return source;
+            }
+        };
+        assertTrue( compiler.getTask( null, null, null, options, null, Arrays.asList( file ) ).call() );
+        return out;
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.query;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.bson.conversions.Bson;
+import org.junit.Test;
+
+import com.github.cherimojava.data.mongo.TestBase;
+import com.google.common.collect.Lists;
+import com.mongodb.client.model.Filters;
+
+public class _ChunkedIn
+    extends TestBase
+{
+    @Test
+    public void numbersAreDistinctRegardlessOfType()
+    {
+        Object[] values = new Object[3 * ChunkedIn.CHUNK_SIZE];
+        for ( int i = 0; i < ChunkedIn.CHUNK_SIZE; i++ )
+        {
+            values[i] = i;
+            values[i + ChunkedIn.CHUNK_SIZE] = (long) i;
+            values[i + 2 * ChunkedIn.CHUNK_SIZE] = (double) i;
+        }
+        List<Bson> filters = Lists.newArrayList( Filters.in( "Integer", values ) );
+        // all values are equal for MongoDB, so they fit into one chunk
+        assertEquals( 1, new ChunkedIn( "Integer", values, 0 ).chunkFilters( filters ).size() );
+
+        // strings aren't equal to numbers though
+        for ( int i = 0; i < ChunkedIn.CHUNK_SIZE; i++ )
+        {
+            values[i + ChunkedIn.CHUNK_SIZE] = Integer.toString( i );
+        }
+        assertEquals( 2, new ChunkedIn( "Integer", values, 0 ).chunkFilters( filters ).size() );
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.query;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.cherimojava.data.mongo.MongoBase;
+import com.github.cherimojava.data.mongo.entity.Entity;
+import com.github.cherimojava.data.mongo.entity.annotation.Collection;
+import com.github.cherimojava.data.mongo.entity.annotation.Index;
+import com.github.cherimojava.data.mongo.entity.annotation.IndexField;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+public class _IndexAdvisor
+    extends MongoBase
+{
+    private IndexAdvisor advisor;
+
+    @Before
+    public void setupAdvisor()
+    {
+        advisor = new IndexAdvisor();
+        factory.setIndexAdvisor( advisor );
+    }
+
+    @Test
+    public void servingIndex()
+    {
+        IndexAdvisor.Pattern pattern = new IndexAdvisor.Pattern( ImmutableSet.of( "a" ),
+            new BsonDocument( "b", new BsonInt32( -1 ) ), ImmutableSet.of( "c" ) );
+        assertTrue( IndexAdvisor.serves( new Document( "a", 1 ).append( "b", -1 ).append( "c", 1 ), pattern ) );
+        // reversed sort direction can be served as well
+        assertTrue( IndexAdvisor.serves( new Document( "a", 1 ).append( "b", 1 ).append( "c", 1 ).append( "d", 1 ),
+            pattern ) );
+        // range before sort doesn't serve the sort
+        assertFalse( IndexAdvisor.serves( new Document( "a", 1 ).append( "c", 1 ).append( "b", -1 ), pattern ) );
+        assertFalse( IndexAdvisor.serves( new Document( "b", -1 ).append( "a", 1 ).append( "c", 1 ), pattern ) );
+        assertEquals( new Document( "a", 1 ).append( "b", -1 ).append( "c", 1 ), pattern.suggest() );
+    }
+
+    @Test
+    public void reportsMissingAndUnusedIndexes()
+    {
+        QueryStart<Advised> query = factory.query( Advised.class );
+        Lists.newArrayList( query.where( query.e().getA() ).is( "x" ).and( query.e().getB() ).greaterThan( 1 )
+            .iterator() );
+        query = factory.query( Advised.class );
+        query.where( query.e().getA() ).is( "x" ).sort().desc( query.e().getB() ).count();
+        for ( int i = 0; i < 2; i++ )
+        {
+            query = factory.query( Advised.class );
+            Lists.newArrayList( query.where( query.e().getC() ).greaterThan( "m" ).and( query.e().getA() ).is( "y" )
+                .sort().asc( query.e().getB() ).iterator() );
+        }
+
+        List<IndexAdvisor.IndexSuggestion> missing = advisor.getMissingIndexes( Advised.class );
+        assertEquals( 1, missing.size() );
+        assertEquals( new Document( "a", 1 ).append( "b", 1 ).append( "c", 1 ), missing.get( 0 ).getKeys() );
+        assertEquals( 2, missing.get( 0 ).getQueries() );
+        assertEquals( ImmutableSet.of( "c" ), advisor.getUnusedIndexes( Advised.class ) );
+        assertThat( advisor.report(), containsString( "index c is unused" ) );
+
+        advisor.reset();
+        assertTrue( advisor.getMissingIndexes( Advised.class ).isEmpty() );
+    }
+
+    @Collection( indexes = {
+        @Index( name = "ab", value = { @IndexField( field = "a" ), @IndexField( field = "b" ) }),
+        @Index( name = "c", value = { @IndexField( field = "c" ) }),
+        @Index( value = { @IndexField( field = "c" ), @IndexField( field = "b" ) }, unique = true) })
+    public interface Advised
+        extends Entity<Advised>
+    {
+        public String getA();
+
+        public Advised setA( String a );
+
+        public Integer getB();
+
+        public Advised setB( Integer b );
+
+        public String getC();
+
+        public Advised setC( String c );
+    }
+}
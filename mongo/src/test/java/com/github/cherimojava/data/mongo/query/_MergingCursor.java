@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.query;
+
+import static org.hamcrest.core.StringContains.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import org.bson.BsonArray;
+import org.bson.BsonBinary;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.junit.Test;
+
+import com.github.cherimojava.data.mongo.TestBase;
+
+public class _MergingCursor
+    extends TestBase
+{
+    @Test
+    public void compareNumbersExactly()
+    {
+        long big = ( 1L << 53 ) + 1;
+        assertOrdered( new BsonInt64( big - 1 ), new BsonInt64( big ) );
+        assertOrdered( new BsonDouble( big - 1 ), new BsonInt64( big ) );
+        assertOrdered( new BsonDouble( Double.NaN ), new BsonInt32( Integer.MIN_VALUE ) );
+        assertOrdered( new BsonInt32( 1 ), new BsonDouble( 1.5 ) );
+        assertEquals( 0, MergingCursor.compare( new BsonInt32( 1 ), new BsonDouble( 1 ) ) );
+        assertEquals( 0, MergingCursor.compare( new BsonDouble( -0.0 ), new BsonInt64( 0 ) ) );
+    }
+
+    @Test
+    public void compareStringsByUtf8()
+    {
+        assertOrdered( new BsonString( "Z" ), new BsonString( "a" ) );
+        // U+FF5E is a single UTF-16 unit, while U+1F600 is a surrogate pair sorted before it in UTF-16
+        assertOrdered( new BsonString( "\uFF5E" ), new BsonString( "\uD83D\uDE00" ) );
+        assertOrdered( new BsonString( "ab" ), new BsonString( "abc" ) );
+    }
+
+    @Test
+    public void compareBinaries()
+    {
+        assertOrdered( new BsonBinary( new byte[] { -1 } ), new BsonBinary( new byte[] { 0, 0 } ) );
+        assertOrdered( new BsonBinary( new byte[] { 1 } ), new BsonBinary( new byte[] { -1 } ) );
+    }
+
+    @Test
+    public void rejectUnorderedTypes()
+    {
+        try
+        {
+            MergingCursor.compare( new BsonArray(), new BsonArray() );
+            fail( "should throw an exception" );
+        }
+        catch ( IllegalStateException e )
+        {
+            assertThat( e.getMessage(), containsString( "can't be sorted by values of type ARRAY" ) );
+        }
+    }
+
+    private void assertOrdered( BsonValue lower, BsonValue higher )
+    {
+        assertEquals( -1, Integer.signum( MergingCursor.compare( lower, higher ) ) );
+        assertEquals( 1, Integer.signum( MergingCursor.compare( higher, lower ) ) );
+    }
+}
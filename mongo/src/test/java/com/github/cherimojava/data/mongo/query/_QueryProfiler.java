@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata) Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy of the
+ * License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.cherimojava.data.mongo.query;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.cherimojava.data.mongo.CommonInterfaces;
+import com.github.cherimojava.data.mongo.MongoBase;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+public class _QueryProfiler
+    extends MongoBase
+{
+    private QueryProfiler profiler;
+
+    @Before
+    public void setupProfiler()
+    {
+        profiler = new QueryProfiler( 1, TimeUnit.MINUTES, 1 );
+        factory.setQueryProfiler( profiler );
+        for ( int i = 0; i < 3; i++ )
+        {
+            factory.create( CommonInterfaces.PrimitiveEntity.class ).setString( "s" + i ).setInteger( i ).save();
+        }
+    }
+
+    @Test
+    public void shapeReplacesValues()
+    {
+        BsonDocument query = new BsonDocument( "op", new BsonString( "find" ) ).append( "filter",
+            new BsonDocument( "$or", new BsonArray( Lists.newArrayList(
+                new BsonDocument( "a", new BsonInt32( 1 ) ),
+                new BsonDocument( "b", new BsonDocument( "$in", new BsonArray() ) ) ) ) ) ).append( "sort",
+            new BsonDocument( "a", new BsonInt32( -1 ) ) ).append( "limit", new BsonInt32( 10 ) );
+        BsonDocument shape = new BsonDocument( "op", new BsonString( "find" ) ).append( "filter",
+            new BsonDocument( "$or", new BsonArray( Lists.newArrayList(
+                new BsonDocument( "a", new BsonString( "?" ) ),
+                new BsonDocument( "b", new BsonDocument( "$in", new BsonString( "?" ) ) ) ) ) ) ).append( "sort",
+            new BsonDocument( "a", new BsonInt32( -1 ) ) ).append( "limit", new BsonString( "?" ) );
+        assertEquals( shape, QueryProfiler.shape( query ) );
+    }
+
+    @Test
+    public void recordsPerShape()
+    {
+        for ( int i = 0; i < 3; i++ )
+        {
+            QueryStart<CommonInterfaces.PrimitiveEntity> query =
+                factory.query( CommonInterfaces.PrimitiveEntity.class );
+            assertEquals( 1, Lists.newArrayList( query.where( query.e().getInteger() ).is( i ).iterator() ).size() );
+        }
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        query.where( query.e().getString() ).is( "s1" ).count();
+
+        assertEquals( 2, profiler.getStatistics().size() );
+        QueryProfiler.ShapeStatistics find = Iterables.find( profiler.getStatistics(),
+            s -> s.getShape().contains( "find" ) );
+        assertEquals( 3, find.getExecutions() );
+        assertEquals( 3, find.getDocumentsReturned() );
+        assertThat( find.getShape(), containsString( "Integer" ) );
+        assertThat( profiler.dump(), containsString( "3 executions" ) );
+    }
+
+    @Test
+    public void detectsCollectionScan()
+        throws InterruptedException
+    {
+        QueryStart<CommonInterfaces.PrimitiveEntity> query = factory.query( CommonInterfaces.PrimitiveEntity.class );
+        query.where( query.e().getString() ).is( "s1" ).count();
+        QueryProfiler.ShapeStatistics stats = explained();
+        assertNotNull( stats.getWinningPlan() );
+        assertTrue( stats.isCollectionScan() );
+        assertEquals( 1, profiler.getCollectionScans().size() );
+    }
+
+    @Test
+    public void noCollectionScanForId()
+        throws InterruptedException
+    {
+        QueryStart<CommonInterfaces.ExplicitIdEntity> query = factory.query( CommonInterfaces.ExplicitIdEntity.class );
+        query.where( query.e().getName() ).is( "none" ).count();
+        QueryProfiler.ShapeStatistics stats = explained();
+        assertNotNull( stats.getWinningPlan() );
+        assertFalse( stats.isCollectionScan() );
+        profiler.reset();
+        assertTrue( profiler.getStatistics().isEmpty() );
+    }
+
+    @Test
+    public void explainsInBackground()
+        throws InterruptedException
+    {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch blocked = new CountDownLatch( 1 );
+        try
+        {
+            factory.setExecutor( executor );
+            executor.execute( () -> Uninterruptibles.awaitUninterruptibly( blocked ) );
+            QueryStart<CommonInterfaces.PrimitiveEntity> query =
+                factory.query( CommonInterfaces.PrimitiveEntity.class );
+            // the query returns while the executor is still busy, so the explain can't have run yet
+            assertEquals( 1, query.where( query.e().getString() ).is( "s1" ).count() );
+            assertNull( Iterables.getOnlyElement( profiler.getStatistics() ).getWinningPlan() );
+            blocked.countDown();
+            assertNotNull( explained().getWinningPlan() );
+        }
+        finally
+        {
+            blocked.countDown();
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * executions are explained in the background, so waits for the winning plan of the only recorded shape
+     */
+    private QueryProfiler.ShapeStatistics explained()
+        throws InterruptedException
+    {
+        QueryProfiler.ShapeStatistics stats = Iterables.getOnlyElement( profiler.getStatistics() );
+        for ( int i = 0; i < 100 && stats.getWinningPlan() == null; i++ )
+        {
+            Thread.sleep( 50 );
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata/spring) Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy
+ * of the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.cherimojava.data.spring;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.GenericHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+
+import com.github.cherimojava.data.mongo.entity.Entity;
+import com.github.cherimojava.data.mongo.entity.EntityFactory;
+import com.github.cherimojava.data.mongo.io.EntityCodec;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Converts a raw BSON HTTPMessage to and from Entity. Compared to the JSON based {@link EntityConverter} this saves the
+ * text encoding and parsing, which makes it the better choice for service to service communication. Clients opt in
+ * through content negotiation with the media type {@link #APPLICATION_BSON}. Single entities are transferred as one
+ * BSON document, collections of entities as a sequence of BSON documents (the same format mongodump uses). To enable
+ * this converter add it to your
+ * {@link org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter}, just like the
+ * EntityConverter.
+ *
+ * @author philnate
+ * @since 1.0.0
+ */
+public class BsonEntityConverter
+    extends AbstractHttpMessageConverter<Object>
+    implements GenericHttpMessageConverter<Object>
+{
+    /**
+     * Media type for raw BSON documents
+     */
+    public static final MediaType APPLICATION_BSON = new MediaType( "application", "bson" );
+
+    /**
+     * max size of a BSON document accepted by MongoDB, larger sizes are rejected before allocating the document
+     */
+    static final int MAX_DOCUMENT_SIZE = 16 * 1024 * 1024;
+
+    private final EntityFactory factory;
+
+    /**
+     * codecs used so far, creating a codec is rather expensive so keep them
+     */
+    private final Map<Class<? extends Entity>, EntityCodec> codecs = Maps.newConcurrentMap();
+
+    /**
+     * creates a new BsonEntityConverter which utilizes the given @{link
+     * com.github.cherimojava.data.mongo.entity.EntityFactory}
+     *
+     * @param factory to be used to convert from/to HTTPMessage/Entity
+     */
+    public BsonEntityConverter( EntityFactory factory )
+    {
+        super( APPLICATION_BSON );
+        this.factory = factory;
+    }
+
+    /**
+     * Checks if the given class can be handled by this Converter or not. Returns true for all
+     * {@link com.github.cherimojava.data.mongo.entity.Entity} based classes, false otherwise
+     *
+     * @param clazz to check if it's supported
+     * @return true if the given class can be assigned to Entity, false otherwise
+     */
+    @Override
+    protected boolean supports( Class<?> clazz )
+    {
+        return Entity.class.isAssignableFrom( clazz );
+    }
+
+    @Override
+    protected Object readInternal( Class<?> clazz, HttpInputMessage inputMessage )
+        throws IOException, HttpMessageNotReadableException
+    {
+        return readEntity( (Class<? extends Entity>) clazz, new Body( inputMessage ) );
+    }
+
+    @Override
+    public Object read( Type type, Class<?> contextClass, HttpInputMessage inputMessage )
+        throws IOException, HttpMessageNotReadableException
+    {
+        Body in = new Body( inputMessage );
+        // as this method is only called after we decided that we can decode the requested type, we only need to check
+        // what we have (plain entity/list of entities)
+        if ( type instanceof Class )
+        {
+            return readEntity( (Class<? extends Entity>) type, in );
+        }
+        else
+        {
+            Class<? extends Entity> clazz =
+                (Class<? extends Entity>) ( (ParameterizedType) type ).getActualTypeArguments()[0];
+            List<Entity> entities = Lists.newArrayList();
+            Entity e;
+            while ( ( e = readEntity( clazz, in ) ) != null )
+            {
+                entities.add( e );
+            }
+            return entities;
+        }
+    }
+
+    /**
+     * reads the next BSON document from the stream. The document size is read from the untrusted body, so sizes beyond
+     * the max BSON document size or the remaining content length are rejected
+     *
+     * @return entity read or null if the stream has no more documents
+     */
+    private Entity readEntity( Class<? extends Entity> clazz, Body in )
+        throws IOException
+    {
+        int first = in.read();
+        if ( first == -1 )
+        {
+            return null;
+        }
+        byte[] document;
+        try
+        {
+            // document size is stored as little endian int32 and includes the size bytes itself
+            byte[] size = new byte[] { (byte) first, in.readByte(), in.readByte(), in.readByte() };
+            int length = ( size[0] & 0xff ) | ( size[1] & 0xff ) << 8 | ( size[2] & 0xff ) << 16 | size[3] << 24;
+            if ( length < 5 || length > MAX_DOCUMENT_SIZE || length - 4 > in.remaining() )
+            {
+                throw new HttpMessageNotReadableException( "Invalid BSON document size " + length );
+            }
+            document = new byte[length];
+            System.arraycopy( size, 0, document, 0, 4 );
+            in.readFully( document, 4, length - 4 );
+        }
+        catch ( EOFException e )
+        {
+            throw new HttpMessageNotReadableException( "Unexpected end of BSON document", e );
+        }
+        return getCodec( clazz ).fromBson( document );
+    }
+
+    /**
+     * body of a request, keeping track of the bytes remaining according to the content length header
+     */
+    private static final class Body
+        extends DataInputStream
+    {
+        private final long contentLength;
+
+        Body( HttpInputMessage inputMessage )
+            throws IOException
+        {
+            super( new CountingInputStream( inputMessage.getBody() ) );
+            contentLength = inputMessage.getHeaders().getContentLength();
+        }
+
+        /**
+         * returns the number of bytes left according to the content length, Long.MAX_VALUE if it's unknown
+         */
+        long remaining()
+        {
+            return contentLength < 0 ? Long.MAX_VALUE : contentLength - ( (CountingInputStream) in ).getCount();
+        }
+    }
+
+    @Override
+    protected void writeInternal( Object o, HttpOutputMessage outputMessage )
+        throws IOException, HttpMessageNotWritableException
+    {
+        try (OutputStream os = outputMessage.getBody())
+        {
+            if ( o instanceof Collection )
+            {
+                for ( Entity e : (Collection<Entity>) o )
+                {
+                    write( e, os );
+                }
+            }
+            else
+            {
+                write( (Entity) o, os );
+            }
+        }
+    }
+
+    private void write( Entity e, OutputStream os )
+        throws IOException
+    {
+        os.write( getCodec( e.entityClass() ).asBson( e ) );
+    }
+
+    private EntityCodec getCodec( Class<? extends Entity> clazz )
+    {
+        return codecs.computeIfAbsent( clazz,
+            c -> new EntityCodec( factory.getDb(), EntityFactory.getProperties( c ) ) );
+    }
+
+    @Override
+    public boolean canRead( Type type, Class<?> contextClass, MediaType mediaType )
+    {
+        if ( APPLICATION_BSON.equals( mediaType ) )
+        {
+            if ( type instanceof Class )
+            {
+                // check if this is a simple entity class
+                return Entity.class.isAssignableFrom( (Class) type );
+            }
+            if ( type instanceof ParameterizedType )
+            {
+                ParameterizedType pt = (ParameterizedType) type;
+                if ( pt.getRawType() instanceof Class && Collection.class.isAssignableFrom( (Class) pt.getRawType() ) )
+                {
+                    // is this collection generic an entity
+                    Type generic = pt.getActualTypeArguments()[0];
+                    return generic instanceof Class && Entity.class.isAssignableFrom( (Class) generic );
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean canWrite( Class<?> clazz, MediaType mediaType )
+    {
+        return APPLICATION_BSON.equals( mediaType )
+            && ( Entity.class.isAssignableFrom( clazz ) || Collection.class.isAssignableFrom( clazz ) );
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata/spring) Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy
+ * of the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.cherimojava.data.spring;
+
+import java.util.List;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import com.github.cherimojava.data.mongo.entity.Entity;
+import com.github.cherimojava.data.mongo.entity.EntityUtils;
+
+/**
+ * Adds an ETag header to responses returning a single {@link Entity} and answers conditional GET/HEAD requests with
+ * <em>304 Not Modified</em> if the If-None-Match header matches the current entity state. The ETag is derived from
+ * {@link EntityUtils#fingerprint(Entity)}, so the entity isn't serialized if the client already has the current
+ * version. To enable this advice register it as bean within your web application context, it will be picked up by the
+ * {@link org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter}.
+ *
+ * @author philnate
+ * @since 1.0.0
+ */
+@ControllerAdvice
+public class EntityETagAdvice
+    implements ResponseBodyAdvice<Object>
+{
+    @Override
+    public boolean supports( MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType )
+    {
+        return Entity.class.isAssignableFrom( returnType.getParameterType() );
+    }
+
+    @Override
+    public Object beforeBodyWrite( Object body, MethodParameter returnType, MediaType selectedContentType,
+        Class<? extends HttpMessageConverter<?>> selectedConverterType, ServerHttpRequest request,
+        ServerHttpResponse response )
+    {
+        if ( !( body instanceof Entity )
+            || !( HttpMethod.GET == request.getMethod() || HttpMethod.HEAD == request.getMethod() ) )
+        {
+            return body;
+        }
+        String etag = "\"" + EntityUtils.fingerprint( (Entity) body ) + "\"";
+        response.getHeaders().setETag( etag );
+        if ( matches( etag, request.getHeaders().getIfNoneMatch() ) )
+        {
+            response.setStatusCode( HttpStatus.NOT_MODIFIED );
+            // write the headers, as no body will be written
+            response.close();
+            return null;
+        }
+        return body;
+    }
+
+    /**
+     * checks if any of the given If-None-Match values matches the given etag. Weak validators are compared by their
+     * value
+     */
+    private static boolean matches( String etag, List<String> ifNoneMatch )
+    {
+        for ( String candidate : ifNoneMatch )
+        {
+            String value = candidate.trim();
+            if ( value.startsWith( "W/" ) )
+            {
+                value = value.substring( 2 );
+            }
+            if ( "*".equals( value ) || etag.equals( value ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
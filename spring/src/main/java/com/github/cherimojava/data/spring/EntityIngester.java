@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata/spring) Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy
+ * of the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.cherimojava.data.spring;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.List;
+
+import org.bson.json.JsonReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.cherimojava.data.mongo.entity.Entity;
+import com.github.cherimojava.data.mongo.entity.EntityFactory;
+import com.github.cherimojava.data.mongo.entity.EntityProperties;
+import com.github.cherimojava.data.mongo.entity.EntityUtils;
+import com.github.cherimojava.data.mongo.io.EntityCodec;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteResult;
+
+/**
+ * Ingests large JSON arrays of entities, like they're received through an HTTP request. The array is read
+ * incrementally from the stream and persisted in bulk writes of a fixed batch size while it's being decoded, so that
+ * never more than a single batch of entities is held in memory. As the next batch is only read after the previous one
+ * was written, a slow database naturally slows down the consumption of the request stream. Use it from within a MVC
+ * controller like:
+ *
+ * <pre>
+ * &#064;RequestMapping( value = &quot;/import&quot;, method = RequestMethod.POST )
+ * public &#064;ResponseBody IngestResult ingest( HttpServletRequest request )
+ * {
+ *     return ingester.ingest( MyEntity.class, request.getInputStream() );
+ * }
+ * </pre>
+ *
+ * @author philnate
+ * @since 1.0.0
+ */
+public class EntityIngester
+{
+    private static final Logger LOG = LoggerFactory.getLogger( EntityIngester.class );
+
+    /**
+     * default number of entities written with a single bulk write
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final EntityFactory factory;
+
+    private final int batchSize;
+
+    /**
+     * creates a new EntityIngester using the {@link #DEFAULT_BATCH_SIZE}
+     *
+     * @param factory to decode and save entities with
+     */
+    public EntityIngester( EntityFactory factory )
+    {
+        this( factory, DEFAULT_BATCH_SIZE );
+    }
+
+    /**
+     * creates a new EntityIngester writing entities in batches of the given size
+     *
+     * @param factory to decode and save entities with
+     * @param batchSize max number of entities held in memory and written with a single bulk write
+     */
+    public EntityIngester( EntityFactory factory, int batchSize )
+    {
+        checkArgument( batchSize > 0, "Batch size must be positive, but was %s", batchSize );
+        this.factory = factory;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * reads a JSON array of entities of the given class from the stream and saves them. Entities which can't be
+     * decoded, are invalid, lack their explicit id or can't be written are counted as failed, but won't stop the
+     * ingest
+     *
+     * @param clazz entity class the array contains
+     * @param json stream containing the UTF-8 encoded JSON array
+     * @param <T> Entity class
+     * @return summary of the ingest
+     * @throws org.springframework.http.converter.HttpMessageNotReadableException if the stream doesn't contain a JSON
+     *             array of documents
+     */
+    public <T extends Entity> IngestResult ingest( Class<T> clazz, InputStream json )
+        throws IOException
+    {
+        IngestResult result =
+            EntityFactory.instantiate( IngestResult.class ).setInserted( 0 ).setUpdated( 0 ).setFailed( 0 );
+        JsonArraySplitter splitter =
+            new JsonArraySplitter( new BufferedReader( new InputStreamReader( json, Charsets.UTF_8 ) ) );
+        EntityProperties properties = EntityFactory.getProperties( clazz );
+        EntityCodec<T> codec = new EntityCodec<>( factory.getDb(), properties );
+        List<T> batch = Lists.newArrayListWithCapacity( batchSize );
+        String element;
+        while ( ( element = splitter.next() ) != null )
+        {
+            try
+            {
+                T entity = codec.decode( new JsonReader( element ), null );
+                EntityUtils.validate( entity );
+                // explicit ids can't be generated, so an entity without one would fail the whole batch
+                checkArgument( !properties.hasExplicitId() || entity.get( Entity.ID ) != null,
+                    "An explicit defined Id must be set before saving" );
+                batch.add( entity );
+            }
+            catch ( RuntimeException e )
+            {
+                LOG.info( "Failed to decode entity of class {}: {}", clazz, e.getMessage() );
+                result.setFailed( result.getFailed() + 1 );
+            }
+            if ( batch.size() == batchSize )
+            {
+                write( clazz, batch, result );
+            }
+        }
+        if ( !batch.isEmpty() )
+        {
+            write( clazz, batch, result );
+        }
+        return result;
+    }
+
+    /**
+     * writes the given batch and adds the outcome to the result. The batch is cleared afterwards
+     */
+    private <T extends Entity> void write( Class<T> clazz, List<T> batch, IngestResult result )
+    {
+        BulkWriteResult written;
+        try
+        {
+            written = factory.saveAll( clazz, batch );
+        }
+        catch ( MongoBulkWriteException e )
+        {
+            LOG.info( "Failed to write {} of {} entities of class {}", e.getWriteErrors().size(), batch.size(),
+                clazz );
+            result.setFailed( result.getFailed() + e.getWriteErrors().size() );
+            written = e.getWriteResult();
+        }
+        result.setInserted( result.getInserted() + written.getUpserts().size() );
+        result.setUpdated( result.getUpdated() + written.getMatchedCount() );
+        batch.clear();
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata/spring) Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy
+ * of the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.cherimojava.data.spring;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+
+import com.github.cherimojava.data.mongo.entity.Entity;
+import com.github.cherimojava.data.mongo.entity.EntityFactory;
+import com.github.cherimojava.data.mongo.io.EntityCodec;
+import com.github.cherimojava.data.mongo.query.QueryEnd;
+import com.google.common.base.Charsets;
+import com.mongodb.client.MongoCursor;
+
+/**
+ * Streams the results of a query to the client while the MongoDB cursor is iterated. This allows controllers to return
+ * a {@link QueryEnd} (or an already opened {@link MongoCursor}) instead of a List, so that the result set is never
+ * held in memory completely and the first entities reach the client right away. Entities are written as newline
+ * delimited JSON ({@link #APPLICATION_NDJSON}) or, if the client asks for JSON, as JSON array. The cursor is closed
+ * once all entities are written or the client disconnected. To enable this converter add it to your
+ * {@link org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter}, just like the
+ * EntityConverter.
+ *
+ * @author philnate
+ * @since 1.0.0
+ */
+public class EntityStreamConverter
+    extends AbstractHttpMessageConverter<Object>
+{
+    /**
+     * Media type for newline delimited JSON
+     */
+    public static final MediaType APPLICATION_NDJSON = new MediaType( "application", "x-ndjson" );
+
+    /**
+     * number of entities after which the written data is flushed to the client
+     */
+    private static final int FLUSH_INTERVAL = 100;
+
+    /**
+     * creates a new EntityStreamConverter writing newline delimited JSON and JSON arrays
+     */
+    public EntityStreamConverter()
+    {
+        super( APPLICATION_NDJSON, MediaType.APPLICATION_JSON );
+    }
+
+    /**
+     * Checks if the given class can be handled by this Converter or not. Returns true for queries and cursors, false
+     * otherwise
+     *
+     * @param clazz to check if it's supported
+     * @return true if the given class can be assigned to QueryEnd or MongoCursor, false otherwise
+     */
+    @Override
+    protected boolean supports( Class<?> clazz )
+    {
+        return QueryEnd.class.isAssignableFrom( clazz ) || MongoCursor.class.isAssignableFrom( clazz );
+    }
+
+    @Override
+    public boolean canRead( Class<?> clazz, MediaType mediaType )
+    {
+        // streaming is only supported for writing
+        return false;
+    }
+
+    @Override
+    protected Object readInternal( Class<?> clazz, HttpInputMessage inputMessage )
+        throws IOException, HttpMessageNotReadableException
+    {
+        throw new HttpMessageNotReadableException( "Reading of entity streams is not supported" );
+    }
+
+    @Override
+    protected void writeInternal( Object o, HttpOutputMessage outputMessage )
+        throws IOException, HttpMessageNotWritableException
+    {
+        boolean array = MediaType.APPLICATION_JSON.isCompatibleWith( outputMessage.getHeaders().getContentType() );
+        try (MongoCursor<? extends Entity> cursor =
+            ( o instanceof QueryEnd ) ? ( (QueryEnd<? extends Entity>) o ).iterator() : (MongoCursor) o;
+             Writer writer = new OutputStreamWriter( outputMessage.getBody(), Charsets.UTF_8 ))
+        {
+            EntityCodec codec = null;
+            int written = 0;
+            if ( array )
+            {
+                writer.write( "[" );
+            }
+            while ( cursor.hasNext() )
+            {
+                Entity e = cursor.next();
+                if ( codec == null )
+                {
+                    // all entities of a cursor are from the same class, so one codec is enough
+                    codec = new EntityCodec<>( null, EntityFactory.getProperties( e.entityClass() ) );
+                }
+                if ( array && written > 0 )
+                {
+                    writer.write( ", " );
+                }
+                writer.write( codec.asString( e ) );
+                if ( !array )
+                {
+                    writer.write( "\n" );
+                }
+                if ( written++ % FLUSH_INTERVAL == 0 )
+                {
+                    // get the first entity out immediately, afterwards in chunks
+                    writer.flush();
+                }
+            }
+            if ( array )
+            {
+                writer.write( "]" );
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata/spring) Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy
+ * of the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.cherimojava.data.spring;
+
+import com.github.cherimojava.data.mongo.entity.Entity;
+
+/**
+ * Summary of a bulk ingest run through {@link EntityIngester}. Being an entity itself it can be directly returned from
+ * a MVC controller and will be written through {@link EntityConverter}.
+ *
+ * @author philnate
+ * @since 1.0.0
+ */
+public interface IngestResult
+    extends Entity<IngestResult>
+{
+    /**
+     * number of entities which didn't exist before and were inserted
+     */
+    public int getInserted();
+
+    public IngestResult setInserted( int inserted );
+
+    /**
+     * number of entities which were already existing and got updated
+     */
+    public int getUpdated();
+
+    public IngestResult setUpdated( int updated );
+
+    /**
+     * number of entities which couldn't be decoded, validated or written
+     */
+    public int getFailed();
+
+    public IngestResult setFailed( int failed );
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata/spring) Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy
+ * of the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.cherimojava.data.spring;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+/**
+ * Reads a JSON array incrementally from a Reader, handing out one top level array element (document) at a time. Only
+ * the currently read element is held in memory, allowing to process arrays of arbitrary size.
+ *
+ * @author philnate
+ * @since 1.0.0
+ */
+class JsonArraySplitter
+{
+    private final Reader reader;
+
+    /**
+     * if the opening bracket of the array was read already
+     */
+    private boolean started = false;
+
+    /**
+     * if the closing bracket of the array was read already
+     */
+    private boolean finished = false;
+
+    /**
+     * creates a new splitter reading from the given reader, the reader should be buffered
+     *
+     * @param reader to read the JSON array from
+     */
+    JsonArraySplitter( Reader reader )
+    {
+        this.reader = reader;
+    }
+
+    /**
+     * returns the next element of the array or null if the end of the array is reached
+     *
+     * @return JSON String of the next array element or null if there are no more elements
+     * @throws HttpMessageNotReadableException if the read data isn't a JSON array of documents
+     */
+    String next()
+        throws IOException
+    {
+        if ( finished )
+        {
+            return null;
+        }
+        int c = nextNonWhitespace();
+        if ( !started )
+        {
+            check( c == '[', "Expected JSON array, but found '%s'", c );
+            started = true;
+            c = nextNonWhitespace();
+            if ( c == ']' )
+            {
+                finished = true;
+                return null;
+            }
+        }
+        check( c == '{', "Expected JSON document as array element, but found '%s'", c );
+        String element = readDocument();
+        c = nextNonWhitespace();
+        check( c == ',' || c == ']', "Expected ',' or ']' after array element, but found '%s'", c );
+        finished = ( c == ']' );
+        return element;
+    }
+
+    /**
+     * reads a complete document, where the opening brace was already consumed
+     */
+    private String readDocument()
+        throws IOException
+    {
+        StringBuilder sb = new StringBuilder().append( '{' );
+        int depth = 1;
+        boolean inString = false;
+        boolean escaped = false;
+        while ( depth > 0 )
+        {
+            int c = reader.read();
+            check( c != -1, "Unexpected end of JSON array within document", c );
+            sb.append( (char) c );
+            if ( inString )
+            {
+                if ( escaped )
+                {
+                    escaped = false;
+                }
+                else if ( c == '\\' )
+                {
+                    escaped = true;
+                }
+                else if ( c == '"' )
+                {
+                    inString = false;
+                }
+                continue;
+            }
+            switch ( c )
+            {
+                case '"':
+                    inString = true;
+                    break;
+                case '{':/* fallthrough */
+                case '[':
+                    depth++;
+                    break;
+                case '}':/* fallthrough */
+                case ']':
+                    depth--;
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    private int nextNonWhitespace()
+        throws IOException
+    {
+        int c;
+        do
+        {
+            c = reader.read();
+        }
+        while ( c != -1 && Character.isWhitespace( c ) );
+        return c;
+    }
+
+    private static void check( boolean expression, String message, int c )
+    {
+        if ( !expression )
+        {
+            throw new HttpMessageNotReadableException(
+                String.format( message, c == -1 ? "end of stream" : String.valueOf( (char) c ) ) );
+        }
+    }
+}
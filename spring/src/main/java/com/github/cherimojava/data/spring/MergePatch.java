@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata/spring) Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy
+ * of the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.cherimojava.data.spring;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.String.format;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonInvalidOperationException;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.json.JsonParseException;
+import org.bson.json.JsonReader;
+import org.bson.types.ObjectId;
+
+import com.github.cherimojava.data.mongo.entity.Entity;
+import com.github.cherimojava.data.mongo.entity.EntityFactory;
+import com.github.cherimojava.data.mongo.entity.EntityProperties;
+import com.github.cherimojava.data.mongo.entity.ParameterProperty;
+import com.github.cherimojava.data.mongo.io.EntityCodec;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.result.UpdateResult;
+
+/**
+ * Partial update of an Entity following the JSON merge patch format (RFC 7396). Properties present within the patch
+ * are set to the given value, properties with a null value are removed and nested (non reference) entities are merged
+ * recursively. The patch is validated against the property constraints of the entity while parsing and applied as
+ * targeted $set/$unset update directly on the collection, so the existing entity doesn't need to be loaded. Patches are
+ * immutable and normally created through the {@link MergePatchConverter}.
+ *
+ * @param <T> Entity type this patch applies to
+ * @author philnate
+ * @since 1.0.0
+ */
+public final class MergePatch<T extends Entity>
+{
+    private final Class<T> clazz;
+
+    private final BsonDocument set;
+
+    private final BsonDocument unset;
+
+    private MergePatch( Class<T> clazz, BsonDocument set, BsonDocument unset )
+    {
+        this.clazz = clazz;
+        this.set = set;
+        this.unset = unset;
+    }
+
+    /**
+     * parses the given JSON merge patch for the given Entity class. Throws an IllegalArgumentException if the patch
+     * isn't a JSON document, references unknown properties or tries to modify the id, computed, transient or final
+     * properties. Values violating the declared constraints cause a ConstraintViolationException
+     *
+     * @param clazz entity class this patch applies to
+     * @param factory factory used to decode the patch values
+     * @param json merge patch
+     * @param <T> Entity type
+     * @return MergePatch representing the given JSON
+     */
+    public static <T extends Entity> MergePatch<T> parse( Class<T> clazz, EntityFactory factory, String json )
+    {
+        BsonDocument patch;
+        try
+        {
+            patch = new BsonDocumentCodec().decode( new JsonReader( json ), DecoderContext.builder().build() );
+        }
+        catch ( JsonParseException | BsonInvalidOperationException e )
+        {
+            throw new IllegalArgumentException( "Merge patch must be a JSON document", e );
+        }
+        BsonDocument set = new BsonDocument();
+        BsonDocument unset = new BsonDocument();
+        collect( factory, EntityFactory.getProperties( clazz ), "", patch, set, unset );
+        return new MergePatch<>( clazz, set, unset );
+    }
+
+    /**
+     * validates the given patch level and adds the resulting set/unset operations with the given path prefix
+     */
+    private static void collect( EntityFactory factory, EntityProperties properties, String prefix, BsonDocument patch,
+        BsonDocument set, BsonDocument unset )
+    {
+        BsonDocument values = new BsonDocument();
+        for ( Map.Entry<String, BsonValue> entry : patch.entrySet() )
+        {
+            String name = entry.getKey();
+            ParameterProperty pp = properties.getProperty( name );
+            checkArgument( pp != null, "Entity %s has no property %s", properties.getEntityClass().getSimpleName(),
+                prefix + name );
+            checkArgument( !Entity.ID.equals( name ), "Id property %s can't be patched", prefix + name );
+            checkArgument( !pp.isComputed() && !pp.isTransient(), "Computed or transient property %s can't be patched",
+                prefix + name );
+            checkArgument( !pp.isFinal(), "Final property %s can't be patched", prefix + name );
+            BsonValue value = entry.getValue();
+            if ( value.isNull() )
+            {
+                pp.validate( null );
+                unset.put( prefix + name, new BsonString( "" ) );
+            }
+            else if ( value.isDocument() && Entity.class.isAssignableFrom( pp.getType() ) && !pp.isReference() )
+            {
+                collect( factory, EntityFactory.getProperties( (Class<? extends Entity>) pp.getType() ), prefix + name
+                    + ".", value.asDocument(), set, unset );
+            }
+            else
+            {
+                values.put( name, value );
+            }
+        }
+        if ( values.isEmpty() )
+        {
+            return;
+        }
+        // decode through the entity codec so that values are validated and converted into their stored format
+        EntityCodec codec = new EntityCodec( factory.getDb(), properties );
+        Entity partial = (Entity) codec.decode( new BsonDocumentReader( values ), DecoderContext.builder().build() );
+        BsonDocument encoded = codec.asDocument( partial );
+        for ( String name : values.keySet() )
+        {
+            checkArgument( encoded.containsKey( name ), "Value of property %s can't be stored", prefix + name );
+            set.put( prefix + name, encoded.get( name ) );
+        }
+    }
+
+    /**
+     * returns the entity class this patch applies to
+     */
+    public Class<T> getEntityClass()
+    {
+        return clazz;
+    }
+
+    /**
+     * returns the (dotted) names of all properties being set by this patch
+     */
+    public Set<String> getSetProperties()
+    {
+        return Collections.unmodifiableSet( set.keySet() );
+    }
+
+    /**
+     * returns the (dotted) names of all properties being removed by this patch
+     */
+    public Set<String> getUnsetProperties()
+    {
+        return Collections.unmodifiableSet( unset.keySet() );
+    }
+
+    /**
+     * returns true if this patch doesn't modify anything
+     */
+    public boolean isEmpty()
+    {
+        return set.isEmpty() && unset.isEmpty();
+    }
+
+    /**
+     * returns the MongoDB update document representing this patch
+     *
+     * @return update document containing $set and/or $unset
+     */
+    public BsonDocument toUpdate()
+    {
+        BsonDocument update = new BsonDocument();
+        if ( !set.isEmpty() )
+        {
+            update.put( "$set", copy( set ) );
+        }
+        if ( !unset.isEmpty() )
+        {
+            update.put( "$unset", copy( unset ) );
+        }
+        return update;
+    }
+
+    private static BsonDocument copy( BsonDocument document )
+    {
+        BsonDocument copy = new BsonDocument();
+        copy.putAll( document );
+        return copy;
+    }
+
+    /**
+     * applies this patch to the entity with the given id. String ids are converted to ObjectId if the entity uses
+     * ObjectIds. The entity isn't loaded, check the matched count of the result to see if the entity exists
+     *
+     * @param factory factory whose collection holds the entity
+     * @param id id of the entity to patch
+     * @return result of the update
+     */
+    public UpdateResult apply( EntityFactory factory, Object id )
+    {
+        MongoCollection<T> collection = factory.getCollection( clazz );
+        Document filter = new Document( Entity.ID, toId( id ) );
+        if ( isEmpty() )
+        {
+            // nothing to update, only tell if the entity exists
+            return UpdateResult.acknowledged( collection.count( filter, new CountOptions().limit( 1 ) ), 0L, null );
+        }
+        UpdateResult result = collection.updateOne( filter, toUpdate() );
+        factory.getWriteGenerations().invalidate( collection.getNamespace() );
+        return result;
+    }
+
+    private Object toId( Object id )
+    {
+        ParameterProperty idProperty = EntityFactory.getProperties( clazz ).getIdProperty();
+        if ( id instanceof String && ( idProperty == null || idProperty.getType() == ObjectId.class ) )
+        {
+            checkArgument( ObjectId.isValid( (String) id ), "%s is no valid ObjectId", id );
+            return new ObjectId( (String) id );
+        }
+        return id;
+    }
+
+    @Override
+    public String toString()
+    {
+        return format( "MergePatch<%s>%s", clazz.getSimpleName(), toUpdate() );
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata/spring) Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy
+ * of the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.cherimojava.data.spring;
+
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+
+import javax.validation.ValidationException;
+
+import org.apache.commons.io.IOUtils;
+import org.bson.BSONException;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.GenericHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+
+import com.github.cherimojava.data.mongo.entity.Entity;
+import com.github.cherimojava.data.mongo.entity.EntityFactory;
+import com.google.common.base.Charsets;
+
+/**
+ * Reads JSON merge patch request bodies into a {@link MergePatch} of the requested entity type, so controllers can
+ * apply partial updates without receiving and storing the full entity:
+ *
+ * <pre>
+ * &#064;RequestMapping( value = "/user/{id}", method = RequestMethod.PATCH )
+ * public ResponseEntity&lt;Void&gt; patch( &#064;PathVariable String id, &#064;RequestBody MergePatch&lt;User&gt; patch )
+ * {
+ *     return patch.apply( factory, id ).getMatchedCount() == 0 ? notFound : ok;
+ * }
+ * </pre>
+ *
+ * Invalid patches (unknown properties, values of the wrong type, constraint violations, etc.) are rejected with
+ * HttpMessageNotReadableException. To enable this converter add it to your
+ * {@link org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter}, just like the
+ * EntityConverter.
+ *
+ * @author philnate
+ * @since 1.0.0
+ */
+public class MergePatchConverter
+    extends AbstractHttpMessageConverter<Object>
+    implements GenericHttpMessageConverter<Object>
+{
+    /**
+     * Media type of JSON merge patches
+     */
+    public static final MediaType APPLICATION_MERGE_PATCH_JSON = new MediaType( "application", "merge-patch+json" );
+
+    private final EntityFactory factory;
+
+    /**
+     * creates a new MergePatchConverter which uses the given factory to decode patch values
+     *
+     * @param factory to be used to decode the patches
+     */
+    public MergePatchConverter( EntityFactory factory )
+    {
+        super( APPLICATION_MERGE_PATCH_JSON, MediaType.APPLICATION_JSON );
+        this.factory = factory;
+    }
+
+    @Override
+    protected boolean supports( Class<?> clazz )
+    {
+        return MergePatch.class.equals( clazz );
+    }
+
+    @Override
+    public boolean canRead( Type type, Class<?> contextClass, MediaType mediaType )
+    {
+        return getEntityClass( type ) != null && canRead( mediaType );
+    }
+
+    @Override
+    public boolean canWrite( Class<?> clazz, MediaType mediaType )
+    {
+        // patches are only read
+        return false;
+    }
+
+    @Override
+    public Object read( Type type, Class<?> contextClass, HttpInputMessage inputMessage )
+        throws IOException, HttpMessageNotReadableException
+    {
+        Class<? extends Entity> clazz = getEntityClass( type );
+        if ( clazz == null )
+        {
+            throw new HttpMessageNotReadableException( "MergePatch needs to declare its Entity type, got " + type );
+        }
+        try
+        {
+            return MergePatch.parse( clazz, factory, IOUtils.toString( inputMessage.getBody(), Charsets.UTF_8.name() ) );
+        }
+        catch ( IllegalArgumentException | ClassCastException | ValidationException | BSONException e )
+        {
+            throw new HttpMessageNotReadableException( "Invalid merge patch: " + e.getMessage(), e );
+        }
+    }
+
+    @Override
+    protected Object readInternal( Class<?> clazz, HttpInputMessage inputMessage )
+        throws IOException, HttpMessageNotReadableException
+    {
+        throw new HttpMessageNotReadableException( "MergePatch needs to declare its Entity type" );
+    }
+
+    @Override
+    protected void writeInternal( Object o, HttpOutputMessage outputMessage )
+        throws IOException, HttpMessageNotWritableException
+    {
+        throw new HttpMessageNotWritableException( "MergePatches can't be written" );
+    }
+
+    /**
+     * returns the Entity class of the given MergePatch type or null if the type isn't a MergePatch of some Entity
+     */
+    private static Class<? extends Entity> getEntityClass( Type type )
+    {
+        if ( type instanceof ParameterizedType && MergePatch.class.equals( ( (ParameterizedType) type ).getRawType() ) )
+        {
+            Type generic = ( (ParameterizedType) type ).getActualTypeArguments()[0];
+            if ( generic instanceof Class && Entity.class.isAssignableFrom( (Class) generic ) )
+            {
+                return (Class<? extends Entity>) generic;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata/spring) Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy
+ * of the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.cherimojava.data.spring;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.bson.codecs.configuration.CodecRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Controller;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import com.github.cherimojava.data.mongo.entity.Entity;
+import com.github.cherimojava.data.mongo.entity.EntityFactory;
+import com.github.cherimojava.data.mongo.io.EntityCodec;
+import com.google.common.collect.Lists;
+import com.google.common.reflect.TypeToken;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+public class _BsonEntityConverter
+    extends TestBase
+{
+    @Mock
+    MongoCollection coll;
+
+    @Mock
+    MongoDatabase db;
+
+    EntityFactory factory;
+
+    @Before
+    public void setupMock()
+    {
+        MockitoAnnotations.initMocks( this );
+        when( db.getCollection( anyString() ) ).thenReturn( coll );
+        when( coll.withDocumentClass( any( Class.class ) ) ).thenReturn( coll );
+        when( coll.withCodecRegistry( any( CodecRegistry.class ) ) ).thenReturn( coll );
+        factory = new EntityFactory( db );
+    }
+
+    @Test
+    public void writeReadSingleEntity()
+        throws IOException
+    {
+        BsonEntityConverter conv = new BsonEntityConverter( factory );
+        SimpleEntity se = EntityFactory.instantiate( SimpleEntity.class ).setString( "SomeString" );
+        byte[] written = write( conv, se );
+        assertArrayEquals( new EntityCodec<>( db, EntityFactory.getProperties( SimpleEntity.class ) ).asBson( se ),
+            written );
+
+        HttpInputMessage him = mock( HttpInputMessage.class );
+        when( him.getBody() ).thenReturn( new ByteArrayInputStream( written ) );
+        when( him.getHeaders() ).thenReturn( new HttpHeaders() );
+        assertEquals( "SomeString", ( (SimpleEntity) conv.readInternal( SimpleEntity.class, him ) ).getString() );
+    }
+
+    @Test
+    public void writeReadEntityList()
+        throws IOException
+    {
+        BsonEntityConverter conv = new BsonEntityConverter( factory );
+        byte[] written = write( conv, Lists.newArrayList( EntityFactory.instantiate( SimpleEntity.class )
+            .setString( "one" ), EntityFactory.instantiate( SimpleEntity.class ).setString( "two" ) ) );
+
+        HttpInputMessage him = mock( HttpInputMessage.class );
+        when( him.getBody() ).thenReturn( new ByteArrayInputStream( written ) );
+        when( him.getHeaders() ).thenReturn( new HttpHeaders() );
+        List<SimpleEntity> read = (List<SimpleEntity>) conv.read( new TypeToken<List<SimpleEntity>>()
+        {
+        }.getType(), null, him );
+        assertEquals( 2, read.size() );
+        assertEquals( "one", read.get( 0 ).getString() );
+        assertEquals( "two", read.get( 1 ).getString() );
+    }
+
+    @Test
+    public void rejectOversizedDocument()
+        throws IOException
+    {
+        BsonEntityConverter conv = new BsonEntityConverter( factory );
+        // 12 bytes claiming a document of 2GB
+        assertRejected( conv, new byte[] { -1, -1, -1, 127, 0, 0, 0, 0, 0, 0, 0, 0 }, new HttpHeaders() );
+        // within the max document size, but beyond the content length
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentLength( 12 );
+        assertRejected( conv, new byte[] { 0, 16, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 }, headers );
+    }
+
+    private void assertRejected( BsonEntityConverter conv, byte[] body, HttpHeaders headers )
+        throws IOException
+    {
+        HttpInputMessage him = mock( HttpInputMessage.class );
+        when( him.getBody() ).thenReturn( new ByteArrayInputStream( body ) );
+        when( him.getHeaders() ).thenReturn( headers );
+        try
+        {
+            conv.readInternal( SimpleEntity.class, him );
+            fail();
+        }
+        catch ( HttpMessageNotReadableException e )
+        {
+            assertThat( e.getMessage(), containsString( "Invalid BSON document size" ) );
+        }
+    }
+
+    @Test
+    public void onlyBson()
+    {
+        BsonEntityConverter conv = new BsonEntityConverter( factory );
+        assertFalse( conv.canRead( SimpleEntity.class, null, MediaType.APPLICATION_JSON ) );
+        assertFalse( conv.canWrite( SimpleEntity.class, MediaType.APPLICATION_JSON ) );
+        assertTrue( conv.canRead( SimpleEntity.class, null, BsonEntityConverter.APPLICATION_BSON ) );
+        assertTrue( conv.canWrite( SimpleEntity.class, BsonEntityConverter.APPLICATION_BSON ) );
+    }
+
+    @Test
+    public void integrationContentNegotiation()
+        throws Exception
+    {
+        EntityCodec<SimpleEntity> codec = new EntityCodec<>( db, EntityFactory.getProperties( SimpleEntity.class ) );
+        MockMvc mvc = MockMvcBuilders.standaloneSetup( new EntityController() )
+            .setMessageConverters( new EntityConverter( factory ), new BsonEntityConverter( factory ) ).build();
+        byte[] response = mvc.perform( post( "/t" ).contentType( BsonEntityConverter.APPLICATION_BSON )
+            .content( codec.asBson( EntityFactory.instantiate( SimpleEntity.class ).setString( "ping" ) ) )
+            .accept( BsonEntityConverter.APPLICATION_BSON ) ).andExpect( status().isOk() ).andReturn().getResponse()
+            .getContentAsByteArray();
+        assertEquals( "PONG", codec.fromBson( response ).getString() );
+    }
+
+    private static byte[] write( BsonEntityConverter conv, Object o )
+        throws IOException
+    {
+        HttpOutputMessage hom = mock( HttpOutputMessage.class );
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        when( hom.getBody() ).thenReturn( os );
+        conv.writeInternal( o, hom );
+        return os.toByteArray();
+    }
+
+    private static interface SimpleEntity
+        extends Entity
+    {
+        public String getString();
+
+        public SimpleEntity setString( String s );
+    }
+
+    @Controller
+    private class EntityController
+    {
+        @RequestMapping( value = "/t", method = RequestMethod.POST )
+        public @ResponseBody SimpleEntity post( @RequestBody SimpleEntity setting )
+        {
+            assertEquals( "ping", setting.getString() );
+            return EntityFactory.instantiate( SimpleEntity.class ).setString( "PONG" );
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata/spring) Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy
+ * of the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.cherimojava.data.spring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.github.cherimojava.data.mongo.entity.Entity;
+import com.github.cherimojava.data.mongo.entity.EntityFactory;
+import com.github.cherimojava.data.mongo.entity.EntityUtils;
+
+public class _EntityETagAdvice
+    extends TestBase
+{
+    @Test
+    public void etagAdded()
+    {
+        SimpleEntity se = EntityFactory.instantiate( SimpleEntity.class ).setString( "some" );
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertSame( se, write( se, new MockHttpServletRequest( "GET", "/" ), response ) );
+        assertEquals( "\"" + EntityUtils.fingerprint( se ) + "\"", response.getHeader( "ETag" ) );
+        assertEquals( HttpStatus.OK.value(), response.getStatus() );
+    }
+
+    @Test
+    public void notModified()
+    {
+        SimpleEntity se = EntityFactory.instantiate( SimpleEntity.class ).setString( "some" );
+        MockHttpServletRequest request = new MockHttpServletRequest( "GET", "/" );
+        request.addHeader( "If-None-Match", "\"" + EntityUtils.fingerprint( se ) + "\"" );
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertNull( write( se, request, response ) );
+        assertEquals( HttpStatus.NOT_MODIFIED.value(), response.getStatus() );
+        assertEquals( "\"" + EntityUtils.fingerprint( se ) + "\"", response.getHeader( "ETag" ) );
+    }
+
+    @Test
+    public void modified()
+    {
+        SimpleEntity se = EntityFactory.instantiate( SimpleEntity.class ).setString( "some" );
+        MockHttpServletRequest request = new MockHttpServletRequest( "GET", "/" );
+        request.addHeader( "If-None-Match", "\"" + EntityUtils.fingerprint( se ) + "\"" );
+        se.setString( "other" );
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertSame( se, write( se, request, response ) );
+        assertEquals( HttpStatus.OK.value(), response.getStatus() );
+    }
+
+    @Test
+    public void onlyForReads()
+    {
+        SimpleEntity se = EntityFactory.instantiate( SimpleEntity.class ).setString( "some" );
+        MockHttpServletRequest request = new MockHttpServletRequest( "POST", "/" );
+        request.addHeader( "If-None-Match", "*" );
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertSame( se, write( se, request, response ) );
+        assertNull( response.getHeader( "ETag" ) );
+    }
+
+    private Object write( Object body, MockHttpServletRequest request, MockHttpServletResponse response )
+    {
+        ServletServerHttpResponse serverResponse = new ServletServerHttpResponse( response );
+        Object result = new EntityETagAdvice().beforeBodyWrite( body, null, null, null,
+            new ServletServerHttpRequest( request ), serverResponse );
+        serverResponse.close();
+        return result;
+    }
+
+    private static interface SimpleEntity
+        extends Entity
+    {
+        public String getString();
+
+        public SimpleEntity setString( String s );
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata/spring) Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy
+ * of the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.cherimojava.data.spring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+
+import org.bson.BsonObjectId;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import com.github.cherimojava.data.mongo.entity.Entity;
+import com.github.cherimojava.data.mongo.entity.EntityFactory;
+import com.github.cherimojava.data.mongo.entity.annotation.Id;
+import com.github.cherimojava.data.mongo.io.EntityCodecProvider;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+
+public class _EntityIngester
+    extends TestBase
+{
+    @Mock
+    MongoCollection coll;
+
+    @Mock
+    MongoDatabase db;
+
+    @Before
+    public void setupMock()
+    {
+        MockitoAnnotations.initMocks( this );
+        when( db.getCollection( anyString() ) ).thenReturn( coll );
+        when( coll.withDocumentClass( any( Class.class ) ) ).thenReturn( coll );
+        when( coll.withCodecRegistry( any( CodecRegistry.class ) ) ).thenReturn( coll );
+        when( coll.getCodecRegistry() ).thenReturn( EntityCodecProvider.createCodecRegistry( db, SimpleEntity.class ) );
+        BulkWriteResult result = mock( BulkWriteResult.class );
+        when( result.getUpserts() ).thenReturn( Lists.newArrayList( new BulkWriteUpsert( 0, new BsonObjectId() ) ) );
+        when( result.getMatchedCount() ).thenReturn( 1 );
+        when( coll.bulkWrite( anyList(), any( BulkWriteOptions.class ) ) ).thenReturn( result );
+    }
+
+    @Test
+    public void ingestInBatches()
+        throws IOException
+    {
+        IngestResult result = new EntityIngester( new EntityFactory( db ), 2 ).ingest( SimpleEntity.class,
+            stream( "[{\"string\":\"a\"}, {\"string\":\"b\"},\n{\"string\":\"c\"}]" ) );
+        verify( coll, times( 2 ) ).bulkWrite( anyList(), any( BulkWriteOptions.class ) );
+        assertEquals( 2, result.getInserted() );
+        assertEquals( 2, result.getUpdated() );
+        assertEquals( 0, result.getFailed() );
+    }
+
+    @Test
+    public void ingestCountsFailures()
+        throws IOException
+    {
+        IngestResult result = new EntityIngester( new EntityFactory( db ), 10 ).ingest( SimpleEntity.class,
+            stream( "[{\"string\":\"a\"},{\"string\":3}]" ) );
+        verify( coll, times( 1 ) ).bulkWrite( anyList(), any( BulkWriteOptions.class ) );
+        assertEquals( 1, result.getFailed() );
+    }
+
+    @Test
+    public void ingestCountsMissingExplicitId()
+        throws IOException
+    {
+        IngestResult result = new EntityIngester( new EntityFactory( db ), 10 ).ingest( ExplicitIdEntity.class,
+            stream( "[{\"_id\":\"a\",\"string\":\"a\"},{\"string\":\"b\"}]" ) );
+        verify( coll, times( 1 ) ).bulkWrite( anyList(), any( BulkWriteOptions.class ) );
+        assertEquals( 1, result.getInserted() );
+        assertEquals( 1, result.getFailed() );
+    }
+
+    @Test
+    public void ingestEmptyArray()
+        throws IOException
+    {
+        IngestResult result = new EntityIngester( new EntityFactory( db ) ).ingest( SimpleEntity.class, stream( "[ ]" ) );
+        verify( coll, times( 0 ) ).bulkWrite( anyList(), any( BulkWriteOptions.class ) );
+        assertEquals( 0, result.getInserted() );
+    }
+
+    @Test
+    public void splitterHandlesNesting()
+        throws IOException
+    {
+        JsonArraySplitter splitter =
+            new JsonArraySplitter( new StringReader( "[{\"a\":\"}]\\\"\"},{\"b\":[{\"c\":1}]}]" ) );
+        assertEquals( "{\"a\":\"}]\\\"\"}", splitter.next() );
+        assertEquals( "{\"b\":[{\"c\":1}]}", splitter.next() );
+        assertNull( splitter.next() );
+    }
+
+    @Test
+    public void splitterRejectsNonArray()
+        throws IOException
+    {
+        try
+        {
+            new JsonArraySplitter( new StringReader( "{\"a\":1}" ) ).next();
+            fail( "should throw an exception" );
+        }
+        catch ( HttpMessageNotReadableException e )
+        {
+            // expected
+        }
+    }
+
+    private static interface ExplicitIdEntity
+        extends Entity
+    {
+        @Id
+        public String getName();
+
+        public ExplicitIdEntity setName( String name );
+
+        public String getString();
+
+        public ExplicitIdEntity setString( String s );
+    }
+
+    private static InputStream stream( String s )
+    {
+        return new ByteArrayInputStream( s.getBytes( Charsets.UTF_8 ) );
+    }
+
+    private static interface SimpleEntity
+        extends Entity
+    {
+        public String getString();
+
+        public SimpleEntity setString( String s );
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata/spring) Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy
+ * of the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.cherimojava.data.spring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Controller;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import com.github.cherimojava.data.mongo.entity.Entity;
+import com.github.cherimojava.data.mongo.entity.EntityFactory;
+import com.github.cherimojava.data.mongo.query.QueryEnd;
+import com.google.common.collect.Lists;
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+
+public class _EntityStreamConverter
+    extends TestBase
+{
+    @Test
+    public void supportsQueriesOnly()
+    {
+        EntityStreamConverter conv = new EntityStreamConverter();
+        assertTrue( conv.canWrite( QueryEnd.class, EntityStreamConverter.APPLICATION_NDJSON ) );
+        assertTrue( conv.canWrite( MongoCursor.class, MediaType.APPLICATION_JSON ) );
+        assertFalse( conv.canWrite( SimpleEntity.class, EntityStreamConverter.APPLICATION_NDJSON ) );
+        assertFalse( conv.canRead( QueryEnd.class, EntityStreamConverter.APPLICATION_NDJSON ) );
+    }
+
+    @Test
+    public void streamNdJson()
+        throws Exception
+    {
+        TestCursor cursor = new TestCursor( "one", "two" );
+        assertEquals( "{ \"string\" : \"one\" }\n{ \"string\" : \"two\" }\n",
+            perform( cursor, EntityStreamConverter.APPLICATION_NDJSON ) );
+        assertTrue( cursor.closed );
+    }
+
+    @Test
+    public void streamJsonArray()
+        throws Exception
+    {
+        TestCursor cursor = new TestCursor( "one", "two" );
+        assertEquals( "[{ \"string\" : \"one\" }, { \"string\" : \"two\" }]",
+            perform( cursor, MediaType.APPLICATION_JSON ) );
+        assertTrue( cursor.closed );
+    }
+
+    @Test
+    public void streamEmpty()
+        throws Exception
+    {
+        TestCursor cursor = new TestCursor();
+        assertEquals( "", perform( cursor, EntityStreamConverter.APPLICATION_NDJSON ) );
+        assertTrue( cursor.closed );
+    }
+
+    private String perform( TestCursor cursor, MediaType accept )
+        throws Exception
+    {
+        QueryEnd<SimpleEntity> query = mock( QueryEnd.class );
+        when( query.iterator() ).thenReturn( cursor );
+        MockMvc mvc = MockMvcBuilders.standaloneSetup( new QueryController( query ) )
+            .setMessageConverters( new EntityStreamConverter() ).build();
+        return mvc.perform( get( "/q" ).accept( accept ) ).andExpect( status().isOk() ).andReturn().getResponse()
+            .getContentAsString();
+    }
+
+    private static class TestCursor
+        implements MongoCursor<SimpleEntity>
+    {
+        private final Iterator<SimpleEntity> it;
+
+        private boolean closed = false;
+
+        TestCursor( String... values )
+        {
+            it = Lists.newArrayList( values ).stream()
+                .map( s -> EntityFactory.instantiate( SimpleEntity.class ).setString( s ) ).iterator();
+        }
+
+        @Override
+        public void close()
+        {
+            closed = true;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return it.hasNext();
+        }
+
+        @Override
+        public SimpleEntity next()
+        {
+            return it.next();
+        }
+
+        @Override
+        public SimpleEntity tryNext()
+        {
+            return it.hasNext() ? it.next() : null;
+        }
+
+        @Override
+        public ServerCursor getServerCursor()
+        {
+            return null;
+        }
+
+        @Override
+        public ServerAddress getServerAddress()
+        {
+            return null;
+        }
+    }
+
+    private static interface SimpleEntity
+        extends Entity
+    {
+        public String getString();
+
+        public SimpleEntity setString( String s );
+    }
+
+    @Controller
+    private class QueryController
+    {
+        private final QueryEnd<SimpleEntity> query;
+
+        QueryController( QueryEnd<SimpleEntity> query )
+        {
+            this.query = query;
+        }
+
+        @RequestMapping( value = "/q", method = RequestMethod.GET )
+        public @ResponseBody QueryEnd<SimpleEntity> get()
+        {
+            return query;
+        }
+    }
+}
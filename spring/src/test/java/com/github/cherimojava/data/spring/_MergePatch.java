@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2013 cherimojava (http://github.com/cherimojava/cherimodata/spring) Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a copy
+ * of the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.cherimojava.data.spring;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+import javax.validation.constraints.NotNull;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import com.github.cherimojava.data.mongo.entity.Entity;
+import com.github.cherimojava.data.mongo.entity.EntityFactory;
+import com.github.cherimojava.data.mongo.entity.Computer;
+import com.github.cherimojava.data.mongo.entity.annotation.Computed;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+public class _MergePatch
+    extends TestBase
+{
+    @Mock
+    MongoCollection coll;
+
+    @Mock
+    MongoDatabase db;
+
+    EntityFactory factory;
+
+    @Before
+    public void setupMock()
+    {
+        MockitoAnnotations.initMocks( this );
+        when( db.getCollection( anyString() ) ).thenReturn( coll );
+        when( coll.withDocumentClass( any( Class.class ) ) ).thenReturn( coll );
+        when( coll.withCodecRegistry( any( CodecRegistry.class ) ) ).thenReturn( coll );
+        factory = new EntityFactory( db );
+    }
+
+    @Test
+    public void setAndUnset()
+    {
+        MergePatch<Patched> patch =
+            MergePatch.parse( Patched.class, factory, "{ \"string\" : \"new\", \"nested\" : null }" );
+        assertEquals( BsonDocument.parse( "{ $set : { string : 'new' }, $unset : { nested : '' } }" ),
+            patch.toUpdate() );
+    }
+
+    @Test
+    public void nestedMerge()
+    {
+        MergePatch<Patched> patch =
+            MergePatch.parse( Patched.class, factory, "{ \"nested\" : { \"string\" : \"deep\" } }" );
+        assertEquals( BsonDocument.parse( "{ $set : { 'nested.string' : 'deep' } }" ), patch.toUpdate() );
+        assertTrue( patch.getSetProperties().contains( "nested.string" ) );
+    }
+
+    @Test
+    public void invalidPatches()
+    {
+        assertInvalid( "{ \"unknown\" : 1 }", "has no property unknown" );
+        assertInvalid( "{ \"_id\" : \"abc\" }", "_id" );
+        assertInvalid( "{ \"computed\" : \"abc\" }", "can't be patched" );
+        assertInvalid( "{ \"number\" : null }", "validating" );
+        assertInvalid( "[1, 2]", "JSON document" );
+    }
+
+    @Test
+    public void applyUpdatesById()
+    {
+        MergePatch<Patched> patch = MergePatch.parse( Patched.class, factory, "{ \"number\" : 5 }" );
+        patch.apply( factory, "abc" );
+        ArgumentCaptor<Bson> filter = ArgumentCaptor.forClass( Bson.class );
+        ArgumentCaptor<Bson> update = ArgumentCaptor.forClass( Bson.class );
+        verify( coll ).updateOne( filter.capture(), update.capture() );
+        assertEquals( "abc", ( (Document) filter.getValue() ).get( Entity.ID ) );
+        assertEquals( BsonDocument.parse( "{ $set : { number : 5 } }" ), update.getValue() );
+    }
+
+    @Test
+    public void converterReadsTypedPatches()
+        throws IOException
+    {
+        MergePatchConverter conv = new MergePatchConverter( factory );
+        Type type = new ParameterizedTypeReference<MergePatch<Patched>>()
+        {
+        }.getType();
+        assertTrue( conv.canRead( type, null, MergePatchConverter.APPLICATION_MERGE_PATCH_JSON ) );
+        assertFalse( conv.canRead( MergePatch.class, MergePatchConverter.APPLICATION_MERGE_PATCH_JSON ) );
+        assertFalse( conv.canWrite( MergePatch.class, MergePatchConverter.APPLICATION_MERGE_PATCH_JSON ) );
+
+        assertNotReadable( conv, type, "{ \"unknown\" : 1 }" );
+        // values of the wrong type are rejected as well instead of failing within the codec
+        assertNotReadable( conv, type, "{ \"number\" : \"abc\" }" );
+    }
+
+    private void assertNotReadable( MergePatchConverter conv, Type type, String json )
+        throws IOException
+    {
+        HttpInputMessage him = mock( HttpInputMessage.class );
+        when( him.getBody() ).thenReturn( new ByteArrayInputStream( json.getBytes() ) );
+        try
+        {
+            conv.read( type, null, him );
+            fail( "should throw an exception" );
+        }
+        catch ( HttpMessageNotReadableException e )
+        {
+            assertThat( e.getMessage(), containsString( "Invalid merge patch" ) );
+        }
+    }
+
+    private void assertInvalid( String json, String message )
+    {
+        try
+        {
+            MergePatch.parse( Patched.class, factory, json );
+            fail( "should throw an exception" );
+        }
+        catch ( RuntimeException e )
+        {
+            assertThat( e.getMessage(), containsString( message ) );
+        }
+    }
+
+    private static interface Patched
+        extends Entity
+    {
+        public String getId();
+
+        public Patched setId( String id );
+
+        public String getString();
+
+        public Patched setString( String s );
+
+        @NotNull( groups = Entity.Special.class )
+        public Integer getNumber();
+
+        public Patched setNumber( Integer i );
+
+        public Nested getNested();
+
+        public Patched setNested( Nested n );
+
+        @Computed( StringComputer.class )
+        public String getComputed();
+    }
+
+    private static interface Nested
+        extends Entity
+    {
+        public String getString();
+
+        public Nested setString( String s );
+    }
+
+    public static class StringComputer
+        implements Computer<Patched, String>
+    {
+        @Override
+        public String compute( Patched patched )
+        {
+            return "computed";
+        }
+    }
+}